@@ -0,0 +1,40 @@
+#!/bin/sh
+# Concurrent-request capacity: fires N simultaneous /stream requests at the packaged app,
+# each served by a fake yt-dlp that streams for STREAM_SECONDS, and reports how long the
+# whole wave took and the peak JVM thread count. Ideal wall time is STREAM_SECONDS.
+#
+#   mvn -B package -DskipTests                 # or -Pjava21 for virtual threads
+#   benchmarks/concurrency.sh 200              # platform threads
+#   benchmarks/concurrency.sh 200 --spring.threads.virtual.enabled=true   # Java 21+
+set -e
+here=$(cd "$(dirname "$0")" && pwd)
+root=$(cd "$here/.." && pwd)
+n=${1:-100}; shift || true
+port=${PORT:-18099}
+export FAKE_STREAM_SECONDS=${STREAM_SECONDS:-2}
+jar=$(ls "$root"/target/*.jar | grep -v original | head -1)
+
+PATH="$here/bin:$PATH" java -jar "$jar" --server.port=$port "$@" > /tmp/ytd-bench.log 2>&1 &
+pid=$!
+trap 'kill $pid 2>/dev/null' EXIT
+for i in $(seq 1 60); do curl -s -o /dev/null "localhost:$port/" && break; sleep 1; done
+
+url="localhost:$port/api/youtube/stream?url=https://youtu.be/dQw4w9WgXcQ&formatId=18"
+curl -s -o /dev/null "$url"   # warm-up: fills the format cache
+
+( while kill -0 $pid 2>/dev/null; do
+    t=$(awk '/^Threads:/ {print $2}' /proc/$pid/status 2>/dev/null || echo 0)
+    echo "$t"; sleep 0.2
+  done ) > /tmp/ytd-bench-threads &
+sampler=$!
+
+start=$(date +%s.%N)
+seq 1 "$n" | xargs -P "$n" -I{} curl -s -o /dev/null -w '%{http_code}\n' "$url" > /tmp/ytd-bench-codes
+end=$(date +%s.%N)
+kill $sampler 2>/dev/null || true
+peak=$(sort -n /tmp/ytd-bench-threads | tail -1)
+
+ok=$(grep -c '^200$' /tmp/ytd-bench-codes || true)
+wall=$(awk "BEGIN {printf \"%.2f\", $end - $start}")
+echo "requests=$n ok=$ok stream_seconds=$FAKE_STREAM_SECONDS wall_seconds=$wall peak_jvm_threads=$peak args=$*"
+echo "effective_concurrency=$(awk "BEGIN {printf \"%.1f\", $ok * $FAKE_STREAM_SECONDS / $wall}")"
@@ -0,0 +1,22 @@
+package com.suguru.geto.yt_downloader.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Recorded yt-dlp outputs, shared with the app's tests (src/test/resources/ytdlp).
+ */
+final class Fixtures {
+
+    private Fixtures() {}
+
+    static byte[] bytes(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/ytdlp/" + name)) {
+            if (in == null) throw new IllegalArgumentException("No fixture " + name);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
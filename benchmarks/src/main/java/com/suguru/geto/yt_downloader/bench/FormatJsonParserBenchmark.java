@@ -0,0 +1,45 @@
+package com.suguru.geto.yt_downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.service.FormatJsonParser;
+
+/**
+ * Stream-parsing a full `yt-dlp -J` document (formats plus thumbnails, captions and
+ * the rest, which the parser skips).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatJsonParserBenchmark {
+
+    private byte[] document;
+
+    @Setup
+    public void setup() {
+        document = Fixtures.bytes("video-full.json");
+    }
+
+    @Benchmark
+    public List<FormatInfo> dumpJson() throws IOException {
+        return FormatJsonParser.parse(new ByteArrayInputStream(document));
+    }
+}
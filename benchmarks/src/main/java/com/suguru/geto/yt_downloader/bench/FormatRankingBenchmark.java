@@ -0,0 +1,56 @@
+package com.suguru.geto.yt_downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.service.FormatJsonParser;
+import com.suguru.geto.yt_downloader.service.FormatRanking;
+import com.suguru.geto.yt_downloader.service.FormatTableParser;
+
+/**
+ * Choosing the audio stream for a merged download, over formats from either extractor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatRankingBenchmark {
+
+    @Param({"json", "table"})
+    public String source;
+
+    private List<FormatInfo> formats;
+
+    @Setup
+    public void setup() throws IOException {
+        formats = source.equals("json")
+                ? FormatJsonParser.parse(new ByteArrayInputStream(Fixtures.bytes("video-full.json")))
+                : FormatTableParser.parse(new BufferedReader(new StringReader(
+                        new String(Fixtures.bytes("list-formats.txt"), StandardCharsets.UTF_8))));
+    }
+
+    @Benchmark
+    public String bestAudioId() {
+        return FormatRanking.bestAudioId(formats);
+    }
+}
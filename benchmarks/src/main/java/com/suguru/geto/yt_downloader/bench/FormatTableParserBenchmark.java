@@ -0,0 +1,68 @@
+package com.suguru.geto.yt_downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.service.FormatTableParser;
+
+/**
+ * The `--list-formats` table parser and the `-F` size scrape, per whole listing.
+ * list-formats.txt is the ASCII table yt-dlp prints without a UTF-8 locale;
+ * list-formats-utf8.txt the box-drawing one it prints with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatTableParserBenchmark {
+
+    @Param({"list-formats.txt", "list-formats-utf8.txt"})
+    public String fixture;
+
+    private String listing;
+    private String[] sizeTokens;
+
+    @Setup
+    public void setup() {
+        listing = new String(Fixtures.bytes(fixture), StandardCharsets.UTF_8);
+        sizeTokens = new String[]{"1.29MiB", "~", "78.14MiB", "950KiB", "1.2GiB", "130k", "https", "mp4a.40.2", "42"};
+    }
+
+    @Benchmark
+    public List<FormatInfo> listFormats() throws IOException {
+        return FormatTableParser.parse(new BufferedReader(new StringReader(listing)));
+    }
+
+    @Benchmark
+    public Map<String, Long> formatSizes() throws IOException {
+        return FormatTableParser.parseSizes(new BufferedReader(new StringReader(listing)));
+    }
+
+    @Benchmark
+    public void humanToBytes(Blackhole bh) {
+        for (String t : sizeTokens) {
+            bh.consume(FormatTableParser.humanToBytes(t));
+        }
+    }
+}
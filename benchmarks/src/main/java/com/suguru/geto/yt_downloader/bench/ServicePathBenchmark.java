@@ -0,0 +1,81 @@
+package com.suguru.geto.yt_downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.service.ArtifactStore;
+import com.suguru.geto.yt_downloader.service.ConnectionBudget;
+import com.suguru.geto.yt_downloader.service.FormatCache;
+import com.suguru.geto.yt_downloader.service.ProcessSupervisor;
+import com.suguru.geto.yt_downloader.service.SingleFlight;
+import com.suguru.geto.yt_downloader.service.ThreadSupport;
+import com.suguru.geto.yt_downloader.service.TranscodePool;
+import com.suguru.geto.yt_downloader.service.UpstreamGuard;
+import com.suguru.geto.yt_downloader.service.YoutubeDownloadService;
+import com.suguru.geto.yt_downloader.service.YtDlpMetrics;
+import com.suguru.geto.yt_downloader.service.YtDlpWorkerPool;
+
+/**
+ * End-to-end listFormats through YoutubeDownloadService with the cache off, so every
+ * call spawns yt-dlp. Run with benchmarks/bin first on PATH: its fake yt-dlp replays
+ * the fixtures, so this measures process and parsing cost without the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ServicePathBenchmark {
+
+    @Param({"true", "false"})
+    public boolean jsonExtraction;
+
+    private YoutubeDownloadService service;
+
+    @Setup
+    public void setup() throws Exception {
+        String dir = Files.createTempDirectory("ytd-bench").toString();
+        SingleFlight singleFlight = new SingleFlight();
+        ProcessSupervisor supervisor = new ProcessSupervisor(Duration.ofMinutes(2), Duration.ofHours(3),
+                Duration.ofMinutes(30), Duration.ofSeconds(5), dir);
+        service = new YoutubeDownloadService(
+                new FormatCache(Duration.ZERO, 0),
+                singleFlight,
+                new YtDlpWorkerPool(supervisor, false, 1, 1, false, "python3", 1000),
+                new ArtifactStore(singleFlight, dir, false, 0),
+                new ThreadSupport(false),
+                new YtDlpMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP),
+                new UpstreamGuard(new SimpleMeterRegistry(), false, 1, 1, Duration.ZERO, 1, Duration.ZERO, Duration.ZERO),
+                supervisor,
+                new ConnectionBudget(new SimpleMeterRegistry(), 4, 16, 32, "", "", "native"),
+                new TranscodePool(new SimpleMeterRegistry(), new ThreadSupport(false), 1, 2, Duration.ofSeconds(10)),
+                jsonExtraction,
+                true,
+                true,
+                dir);
+    }
+
+    @Benchmark
+    public List<FormatInfo> listFormats() {
+        return service.listFormats("https://www.youtube.com/watch?v=dQw4w9WgXcQ");
+    }
+}
@@ -0,0 +1,55 @@
+#!/bin/sh
+# Time to first request: launches the packaged app, polls /formats (answered by the fake
+# yt-dlp) until it returns 200, and reports the wall time from launch; also the JVM uptime
+# at which the startup warm-up made the instance ready (/actuator/health/readiness UP).
+# Each variant runs RUNS times (default 5); the medians are printed.
+#
+#   mvn -B package -DskipTests                  # default: target/*.jar
+#   mvn -B -Pfast-startup package -DskipTests   # also target/cds: AOT + CDS archive, lazy init
+#   benchmarks/startup.sh                       # every variant that has been built
+set -e
+here=$(cd "$(dirname "$0")" && pwd)
+root=$(cd "$here/.." && pwd)
+runs=${RUNS:-5}
+port=${PORT:-18098}
+url="localhost:$port/api/youtube/formats?url=https://youtu.be/dQw4w9WgXcQ"
+jar=$(ls "$root"/target/*.jar | grep -v original | head -1)
+cds="$root/target/cds"
+
+now_ms() { date +%s%3N; }
+
+median() { sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'; }
+
+trial() {
+  dir=$(mktemp -d)
+  start=$(now_ms)
+  PATH="$here/bin:$PATH" "$@" --server.port=$port --ytd.download-dir="$dir" > /tmp/ytd-startup.log 2>&1 &
+  pid=$!
+  until curl -sf -o /dev/null "$url"; do
+    kill -0 $pid 2>/dev/null || { echo "app exited, see /tmp/ytd-startup.log" >&2; exit 1; }
+    sleep 0.02
+  done
+  first=$(( $(now_ms) - start ))
+  until curl -sf -o /dev/null "localhost:$port/actuator/health/readiness"; do sleep 0.02; done
+  ready=$(curl -s "localhost:$port/api/youtube/startup/stats" | sed -n 's/.*"readyAtMillis":\([0-9]*\).*/\1/p')
+  kill $pid; wait $pid 2>/dev/null || true
+  rm -rf "$dir"
+  echo "$first $ready"
+}
+
+variant() {
+  name=$1; shift
+  out=/tmp/ytd-startup-$name
+  : > "$out"
+  i=0
+  while [ $i -lt "$runs" ]; do
+    i=$((i+1)); trial "$@" >> "$out"
+  done
+  echo "variant=$name runs=$runs first_request_ms=$(cut -d' ' -f1 "$out" | median) ready_ms=$(cut -d' ' -f2 "$out" | median)"
+}
+
+variant default java -jar "$jar"
+if [ -f "$cds/application.jsa" ]; then
+  variant fast-startup java -XX:SharedArchiveFile="$cds/application.jsa" -Dspring.aot.enabled=true \
+    -jar "$cds/$(basename "$jar")" --spring.profiles.active=fast-startup
+fi
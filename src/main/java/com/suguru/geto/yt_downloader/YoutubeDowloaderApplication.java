@@ -1,7 +1,20 @@
 package com.suguru.geto.yt_downloader;
 
+import com.suguru.geto.yt_downloader.service.ClusterRing;
+import com.suguru.geto.yt_downloader.service.JobJournal;
+import com.suguru.geto.yt_downloader.service.ProcessSupervisor;
+import com.suguru.geto.yt_downloader.service.ThreadSupport;
+import com.suguru.geto.yt_downloader.service.ToolchainWarmup;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @SpringBootApplication
 public class YoutubeDowloaderApplication {
@@ -10,4 +23,37 @@ public class YoutubeDowloaderApplication {
 		SpringApplication.run(YoutubeDowloaderApplication.class, args);
 	}
 
+	/**
+	 * With lazy initialization (the fast-startup profile), these are still created at
+	 * startup: they reap orphaned processes, replay the job journal, check cluster members
+	 * and warm the toolchain in the background rather than on first use.
+	 */
+	@Bean
+	static LazyInitializationExcludeFilter backgroundServices() {
+		return LazyInitializationExcludeFilter.forBeanTypes(ProcessSupervisor.class, JobJournal.class,
+				ClusterRing.class, ToolchainWarmup.class);
+	}
+
+	/**
+	 * A streamed download holds an MVC async thread for as long as the transfer runs, so
+	 * these get their own executor instead of Boot's shared eight-thread pool: a thread per
+	 * stream (virtual with spring.threads.virtual.enabled), at most ytd.stream.max-concurrent
+	 * at once, after which requests are answered 503. Ordered last so it replaces the
+	 * executor Boot configures.
+	 */
+	@Bean
+	@Order(Ordered.LOWEST_PRECEDENCE)
+	WebMvcConfigurer streamingExecutor(ThreadSupport threads,
+			@Value("${ytd.stream.max-concurrent:200}") int maxConcurrent) {
+		SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threads.factory("ytd-stream"));
+		executor.setConcurrencyLimit(maxConcurrent);
+		executor.setRejectTasksWhenLimitReached(true);
+		return new WebMvcConfigurer() {
+			@Override
+			public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+				configurer.setTaskExecutor(executor);
+			}
+		};
+	}
+
 }
@@ -1,52 +1,177 @@
 package com.suguru.geto.yt_downloader.controller;
 
+import com.suguru.geto.yt_downloader.model.BatchRequest;
+import com.suguru.geto.yt_downloader.model.DownloadBatch;
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.DownloadResult;
 import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+import com.suguru.geto.yt_downloader.model.TransferOptions;
+import com.suguru.geto.yt_downloader.service.ArtifactStore;
+import com.suguru.geto.yt_downloader.service.BatchService;
+import com.suguru.geto.yt_downloader.service.ClientQuotaException;
+import com.suguru.geto.yt_downloader.service.ClientQuotas;
+import com.suguru.geto.yt_downloader.service.ClusterForwarder;
+import com.suguru.geto.yt_downloader.service.ConnectionBudget;
+import com.suguru.geto.yt_downloader.service.DownloadJobService;
+import com.suguru.geto.yt_downloader.service.FileServingService;
+import com.suguru.geto.yt_downloader.service.FormatCache;
+import com.suguru.geto.yt_downloader.service.FormatTokens;
+import com.suguru.geto.yt_downloader.service.JobEventBroadcaster;
+import com.suguru.geto.yt_downloader.service.JobJournal;
+import com.suguru.geto.yt_downloader.service.JobQueueFullException;
+import com.suguru.geto.yt_downloader.service.JobWork;
+import com.suguru.geto.yt_downloader.service.ProcessSupervisor;
+import com.suguru.geto.yt_downloader.service.SingleFlight;
+import com.suguru.geto.yt_downloader.service.ToolchainWarmup;
+import com.suguru.geto.yt_downloader.service.TranscodeBusyException;
+import com.suguru.geto.yt_downloader.service.TranscodePool;
+import com.suguru.geto.yt_downloader.service.UpstreamGuard;
+import com.suguru.geto.yt_downloader.service.UpstreamUnavailableException;
+import com.suguru.geto.yt_downloader.service.VideoIds;
 import com.suguru.geto.yt_downloader.service.YoutubeDownloadService;
+import com.suguru.geto.yt_downloader.service.YtDlpWorkerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/youtube")
 public class YoutubeDownloadController {
 
+    private static final Logger log = LoggerFactory.getLogger(YoutubeDownloadController.class);
+    /** The client's transfer slot for a streaming response, released if the body never runs. */
+    private static final String TRANSFER_ATTRIBUTE = YoutubeDownloadController.class.getName() + ".transfer";
+
     private final YoutubeDownloadService youtubeDownloadService;
+    private final DownloadJobService downloadJobService;
+    private final FormatCache formatCache;
+    private final SingleFlight singleFlight;
+    private final YtDlpWorkerPool workerPool;
+    private final FileServingService fileServingService;
+    private final JobEventBroadcaster jobEventBroadcaster;
+    private final ArtifactStore artifactStore;
+    private final BatchService batchService;
+    private final UpstreamGuard upstreamGuard;
+    private final ProcessSupervisor processSupervisor;
+    private final ConnectionBudget connectionBudget;
+    private final FormatTokens formatTokens;
+    private final TranscodePool transcodePool;
+    private final JobJournal jobJournal;
+    private final ClientQuotas clientQuotas;
+    private final ClusterForwarder clusterForwarder;
+    private final ToolchainWarmup toolchainWarmup;
 
-    public YoutubeDownloadController(YoutubeDownloadService youtubeDownloadService) {
+    public YoutubeDownloadController(YoutubeDownloadService youtubeDownloadService,
+                                     DownloadJobService downloadJobService,
+                                     FormatCache formatCache,
+                                     SingleFlight singleFlight,
+                                     YtDlpWorkerPool workerPool,
+                                     FileServingService fileServingService,
+                                     JobEventBroadcaster jobEventBroadcaster,
+                                     ArtifactStore artifactStore,
+                                     BatchService batchService,
+                                     UpstreamGuard upstreamGuard,
+                                     ProcessSupervisor processSupervisor,
+                                     ConnectionBudget connectionBudget,
+                                     FormatTokens formatTokens,
+                                     TranscodePool transcodePool,
+                                     JobJournal jobJournal,
+                                     ClientQuotas clientQuotas,
+                                     ClusterForwarder clusterForwarder,
+                                     ToolchainWarmup toolchainWarmup) {
         this.youtubeDownloadService = youtubeDownloadService;
+        this.downloadJobService = downloadJobService;
+        this.formatCache = formatCache;
+        this.singleFlight = singleFlight;
+        this.workerPool = workerPool;
+        this.fileServingService = fileServingService;
+        this.jobEventBroadcaster = jobEventBroadcaster;
+        this.artifactStore = artifactStore;
+        this.batchService = batchService;
+        this.upstreamGuard = upstreamGuard;
+        this.processSupervisor = processSupervisor;
+        this.connectionBudget = connectionBudget;
+        this.formatTokens = formatTokens;
+        this.transcodePool = transcodePool;
+        this.jobJournal = jobJournal;
+        this.clientQuotas = clientQuotas;
+        this.clusterForwarder = clusterForwarder;
+        this.toolchainWarmup = toolchainWarmup;
     }
 
     /**
      * Legacy endpoint (kept for compatibility)
      * Example: /api/youtube/download?url=https://youtube.com/xyz&quality=720p
+     * Downloads in the request, as one of the client's transfers; the file is charged to its byte quota.
      */
     @GetMapping("/download")
-    public ResponseEntity<String> downloadVideo(@RequestParam("url") String url,
-                                                @RequestParam(value = "quality", required = false, defaultValue = "best") String quality) {
+    public ResponseEntity<?> downloadVideo(@RequestParam("url") String url,
+                                           @RequestParam(value = "quality", required = false, defaultValue = "best") String quality,
+                                           HttpServletRequest request) {
         if (url == null || url.isEmpty()) {
             return ResponseEntity.badRequest().body("YouTube video URL must be provided");
         }
-        String result = youtubeDownloadService.downloadVideo(url, quality);
-        return ResponseEntity.ok(result);
+        ResponseEntity<?> forwarded = forwardToOwner(url, request);
+        if (forwarded != null) return forwarded;
+        try (ClientQuotas.Transfer transfer = clientQuotas.beginTransfer(clientOf(request))) {
+            DownloadResult result = youtubeDownloadService.downloadVideo(url, quality);
+            if (result.getTransfer() != null) transfer.sent(result.getTransfer().getBytes());
+            return ResponseEntity.ok(result.getMessage());
+        } catch (ClientQuotaException e) {
+            return overQuota(e);
+        }
     }
 
     /**
-     * List available formats using yt-dlp JSON (-J)
+     * List available formats using yt-dlp JSON (-J), falling back to the --list-formats table.
+     * Video formats carry a signed token to pass back to /download/video.
+     * Runs right away (it does not queue behind downloads), up to the client's limit of
+     * concurrent metadata calls.
      */
     @GetMapping("/formats")
-    public ResponseEntity<?> listFormats(@RequestParam("url") String url) {
+    public ResponseEntity<?> listFormats(@RequestParam("url") String url, HttpServletRequest request) {
         if (url == null || url.isEmpty()) {
             return ResponseEntity.badRequest().body("YouTube video URL must be provided");
         }
-        try {
+        ResponseEntity<?> forwarded = forwardToOwner(url, request);
+        if (forwarded != null) return forwarded;
+        String client = clientOf(request);
+        try (ClientQuotas.Slot slot = clientQuotas.beginMetadata(client)) {
             List<FormatInfo> formats = youtubeDownloadService.listFormats(url);
-            return ResponseEntity.ok(formats);
+            return ResponseEntity.ok(formatTokens.withTokens(url, formats));
+        } catch (ClientQuotaException e) {
+            return overQuota(e);
+        } catch (UpstreamUnavailableException e) {
+            return unavailable(e);
         } catch (Exception e) {
-            System.err.println("[ERROR] Failed to get formats: " + e.getMessage());
+            log.error("Failed to get formats: {}", e.getMessage());
             return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
         }
     }
@@ -54,28 +179,469 @@ public class YoutubeDownloadController {
     /**
      * Download a specific video format id combined with best audio automatically.
      * CLI: yt-dlp -f vid_id+aud_id <url>
+     * Optional: token (the format's token from /formats, which skips looking the formats
+     * up again), fragments (parallel fragment downloads, within the connection budget)
+     * and downloader=native|external.
+     * Returns 202 with the queued job; poll /jobs/{id} for the result.
      */
     @GetMapping("/download/video")
-    public ResponseEntity<String> downloadVideoWithBestAudio(@RequestParam("url") String url,
-                                                             @RequestParam("videoFormatId") String videoFormatId) {
+    public ResponseEntity<?> downloadVideoWithBestAudio(@RequestParam("url") String url,
+                                                        @RequestParam("videoFormatId") String videoFormatId,
+                                                        @RequestParam(value = "token", required = false) String token,
+                                                        @RequestParam(value = "fragments", required = false) Integer fragments,
+                                                        @RequestParam(value = "downloader", required = false) String downloader,
+                                                        HttpServletRequest request) {
         if (url == null || url.isEmpty() || videoFormatId == null || videoFormatId.isEmpty()) {
             return ResponseEntity.badRequest().body("Both url and videoFormatId are required");
         }
-        String result = youtubeDownloadService.downloadVideoWithBestAudio(url, videoFormatId);
-        return ResponseEntity.ok(result);
+        ResponseEntity<?> forwarded = forwardToOwner(url, request);
+        if (forwarded != null) return forwarded;
+        TransferOptions transfer = new TransferOptions(fragments, downloader);
+        try {
+            connectionBudget.validate(transfer);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        FormatTokens.Claims format = formatTokens.verify(token, url, videoFormatId);
+        JobSpec spec = new JobSpec(JobSpec.VIDEO, url, videoFormatId, transfer);
+        spec.setClient(clientOf(request));
+        return submitJob(spec, youtubeDownloadService.work(spec, format));
     }
 
     /**
-     * Download audio-only as mp3 using extract-audio approach.
-     * CLI: yt-dlp -f <aud_id> --extract-audio --audio-format mp3 <url>
+     * Download audio-only as mp3, encoded while it downloads.
+     * transcode=false keeps the format as yt-dlp delivers it (opus/webm, m4a).
+     * Returns 202 with the queued job; poll /jobs/{id} for the result.
      */
     @GetMapping("/download/audio")
-    public ResponseEntity<String> downloadAudio(@RequestParam("url") String url,
-                                                @RequestParam("audioFormatId") String audioFormatId) {
+    public ResponseEntity<?> downloadAudio(@RequestParam("url") String url,
+                                           @RequestParam("audioFormatId") String audioFormatId,
+                                           @RequestParam(value = "transcode", required = false, defaultValue = "true") boolean transcode,
+                                           HttpServletRequest request) {
         if (url == null || url.isEmpty() || audioFormatId == null || audioFormatId.isEmpty()) {
             return ResponseEntity.badRequest().body("Both url and audioFormatId are required");
         }
-        String result = youtubeDownloadService.downloadAudioMp3(url, audioFormatId);
-        return ResponseEntity.ok(result);
+        ResponseEntity<?> forwarded = forwardToOwner(url, request);
+        if (forwarded != null) return forwarded;
+        JobSpec spec = new JobSpec(transcode ? JobSpec.MP3 : JobSpec.AUDIO, url, audioFormatId, null);
+        spec.setClient(clientOf(request));
+        return submitJob(spec, youtubeDownloadService.work(spec));
+    }
+
+    /**
+     * Download many videos at once: a list of URLs and/or a playlistUrl (expanded with
+     * flat extraction), all with the same policy (kind video+quality, or audio as mp3).
+     * Items run concurrency at a time, behind the client's interactive jobs; returns 202
+     * with the batch, poll /batch/{id}.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> submitBatch(@RequestBody BatchRequest request, HttpServletRequest httpRequest) {
+        String client = clientOf(httpRequest);
+        try {
+            DownloadBatch batch = batchService.submit(request, client);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/youtube/batch/" + batch.getId()))
+                    .body(batch);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (UpstreamUnavailableException e) {
+            return unavailable(e);
+        } catch (Exception e) {
+            log.error("Failed to start batch: {}", e.getMessage());
+            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Aggregate counts and percent of a batch, plus per-item state, file and error.
+     * In a cluster, answered by the member running the batch.
+     */
+    @GetMapping("/batch/{id}")
+    public ResponseEntity<?> getBatch(@PathVariable("id") String id, HttpServletRequest request) {
+        ResponseEntity<?> forwarded = forwardToJobNode(id, request);
+        if (forwarded != null) return forwarded;
+        DownloadBatch batch = batchService.getBatch(id);
+        if (batch == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown batch: " + id);
+        }
+        return ResponseEntity.ok(batch);
+    }
+
+    /**
+     * Stream a single format straight to the client without saving it on the server.
+     * CLI: yt-dlp -f <format_id> -o - <url>
+     * Use a progressive (video with audio) or audio-only format id; merged video+audio
+     * downloads still go through /download/video. audio=mp3 encodes an audio format to
+     * MP3 on the fly; audio=auto does so unless Accept lists the format's own type.
+     * Looking up the format counts as one of the client's metadata calls, and each stream is
+     * one of its transfers, charged to its byte quota as it is sent.
+     */
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamFormat(@RequestParam("url") String url,
+                                          @RequestParam("formatId") String formatId,
+                                          @RequestParam(value = "audio", required = false, defaultValue = "native") String audio,
+                                          @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                          HttpServletRequest request) {
+        if (url == null || url.isEmpty() || formatId == null || formatId.isEmpty()) {
+            return textResponse(HttpStatus.BAD_REQUEST, "Both url and formatId are required");
+        }
+        String owner = clusterForwarder.ownerElsewhere(url, request);
+        if (owner != null) {
+            ResponseEntity<StreamingResponseBody> forwarded = clusterForwarder.stream(owner, request, clientOf(request));
+            if (forwarded != null) return forwarded;
+        }
+        if (formatId.contains("+") || formatId.contains("/")) {
+            return textResponse(HttpStatus.BAD_REQUEST, "Streaming supports a single format id; use /download/video to merge");
+        }
+        if (!audio.equals("native") && !audio.equals("mp3") && !audio.equals("auto")) {
+            return textResponse(HttpStatus.BAD_REQUEST, "audio must be native, mp3 or auto");
+        }
+        String client = clientOf(request);
+        FormatInfo format;
+        try (ClientQuotas.Slot slot = clientQuotas.beginMetadata(client)) {
+            format = youtubeDownloadService.findFormat(url, formatId);
+        } catch (ClientQuotaException e) {
+            return textResponse(HttpStatus.TOO_MANY_REQUESTS, e.getMessage(), e.getRetryAfterSeconds());
+        } catch (UpstreamUnavailableException e) {
+            return textResponse(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e.getRetryAfterSeconds());
+        } catch (Exception e) {
+            log.error("Failed to get formats: {}", e.getMessage());
+            return textResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Error: " + e.getMessage());
+        }
+        if (format == null) {
+            return textResponse(HttpStatus.NOT_FOUND, "Unknown format id: " + formatId);
+        }
+
+        String ext = format.getExt() == null || format.getExt().isEmpty() ? "bin" : format.getExt();
+        String filename = VideoIds.cacheKey(url).replaceAll("[^A-Za-z0-9_-]", "_") + "-" + formatId + "." + ext;
+        MediaType contentType = MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM);
+        if ("audio".equals(format.getType()) && "video".equals(contentType.getType())) {
+            contentType = new MediaType("audio", contentType.getSubtype());
+        }
+        // The body runs on a streaming thread; it releases the slot, or tooManyStreams does if it never runs
+        ClientQuotas.Transfer transfer;
+        try {
+            transfer = clientQuotas.beginTransfer(client);
+        } catch (ClientQuotaException e) {
+            return textResponse(HttpStatus.TOO_MANY_REQUESTS, e.getMessage(), e.getRetryAfterSeconds());
+        }
+        request.setAttribute(TRANSFER_ATTRIBUTE, transfer);
+        // auto: MP3 unless the client says it can play the format as it is
+        boolean mp3 = "audio".equals(format.getType())
+                && (audio.equals("mp3") || (audio.equals("auto") && !accepts(accept, contentType)));
+        if (mp3) {
+            String mp3Name = filename.substring(0, filename.lastIndexOf('.')) + ".mp3";
+            return ResponseEntity.ok()
+                    .contentType(new MediaType("audio", "mpeg"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            ContentDisposition.attachment().filename(mp3Name).build().toString())
+                    .body(out -> {
+                        try (transfer) {
+                            youtubeDownloadService.streamAudioMp3(url, formatId, transfer.meter(out));
+                        }
+                    });
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString());
+        // Only an exact size is safe to promise; yt-dlp estimates would truncate or overrun
+        if (format.getFilesize() != null && Boolean.FALSE.equals(format.getFilesizeApprox())) {
+            response.contentLength(format.getFilesize());
+        }
+        StreamingResponseBody body = out -> {
+            try (transfer) {
+                youtubeDownloadService.streamFormat(url, formatId, transfer.meter(out));
+            }
+        };
+        return response.body(body);
+    }
+
+    /** True when the Accept header names this type exactly (wildcards do not count). */
+    private static boolean accepts(String accept, MediaType type) {
+        if (accept == null || accept.isBlank()) return false;
+        try {
+            for (MediaType m : MediaType.parseMediaTypes(accept)) {
+                if (!m.isWildcardType() && !m.isWildcardSubtype() && m.isCompatibleWith(type)) return true;
+            }
+        } catch (IllegalArgumentException e) {
+            // Unparseable header: treat as no preference
+        }
+        return false;
+    }
+
+    /**
+     * Serve a finished file from the download directory (see DownloadJob.fileUrl).
+     * Supports Range/If-Range for resume and seeking, plus ETag/Last-Modified revalidation.
+     * Pass download=false to play inline instead of saving.
+     */
+    @GetMapping("/files/{name}")
+    public void serveFile(@PathVariable("name") String name,
+                          @RequestParam(value = "download", required = false, defaultValue = "true") boolean download,
+                          HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        Path file = fileServingService.resolve(name);
+        if (file == null && clusterForwarder.serveFromPeers(request, response, clientQuotas.identify(request))) {
+            return;
+        }
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown file: " + name);
+            return;
+        }
+        fileServingService.serve(file, download, request, response);
+    }
+
+    /**
+     * List known jobs, newest first. Optional filter: ?state=QUEUED|RUNNING|SUCCEEDED|FAILED|CANCELLED
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<?> listJobs(@RequestParam(value = "state", required = false) String state) {
+        DownloadJob.State filter = null;
+        if (state != null && !state.isEmpty()) {
+            try {
+                filter = DownloadJob.State.valueOf(state.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("Unknown job state: " + state);
+            }
+        }
+        return ResponseEntity.ok(downloadJobService.listJobs(filter));
+    }
+
+    /**
+     * State, timings and result of a single job.
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getJob(@PathVariable("id") String id, HttpServletRequest request) {
+        ResponseEntity<?> forwarded = forwardToJobNode(id, request);
+        if (forwarded != null) return forwarded;
+        DownloadJob job = downloadJobService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown job: " + id);
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    /**
+     * Cancel a queued or running job; a running job's yt-dlp/ffmpeg processes are killed
+     * and it ends as CANCELLED. 409 if the job had already finished.
+     */
+    @PostMapping("/jobs/{id}/cancel")
+    public ResponseEntity<?> cancelJob(@PathVariable("id") String id, HttpServletRequest request) {
+        ResponseEntity<?> forwarded = forwardToJobNode(id, request);
+        if (forwarded != null) return forwarded;
+        DownloadJob job = downloadJobService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown job: " + id);
+        }
+        if (job.isFinished()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Job already " + job.getState().name().toLowerCase());
+        }
+        return ResponseEntity.ok(downloadJobService.cancel(id));
+    }
+
+    /**
+     * Live job progress as Server-Sent Events: "state" (the job) on connect, "progress"
+     * (bytes done/total, speed, ETA, phase) at most every ytd.progress.min-interval-ms,
+     * and a final "done" (the finished job) before the stream closes.
+     */
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter jobEvents(@PathVariable("id") String id, HttpServletRequest request) {
+        String node = clusterForwarder.jobElsewhere(id, request);
+        if (node != null) {
+            SseEmitter relayed = clusterForwarder.events(node, request, clientOf(request));
+            if (relayed != null) return relayed;
+        }
+        DownloadJob job = downloadJobService.getJob(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown job: " + id);
+        }
+        return jobEventBroadcaster.subscribe(job);
+    }
+
+    /**
+     * Format cache hit/miss/eviction counters.
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<?> cacheStats() {
+        return ResponseEntity.ok(formatCache.stats());
+    }
+
+    /**
+     * How many extractor calls ran vs. were coalesced onto an identical in-flight call.
+     */
+    @GetMapping("/coalescing/stats")
+    public ResponseEntity<?> coalescingStats() {
+        return ResponseEntity.ok(singleFlight.stats());
+    }
+
+    /**
+     * Persistent yt-dlp worker pool state (started/recycled/crashed workers, requests served).
+     */
+    @GetMapping("/workers/stats")
+    public ResponseEntity<?> workerStats() {
+        return ResponseEntity.ok(workerPool.stats());
+    }
+
+    /**
+     * Stored downloads: entries, bytes on disk, reuse hits and size-based evictions.
+     */
+    @GetMapping("/store/stats")
+    public ResponseEntity<?> storeStats() {
+        return ResponseEntity.ok(artifactStore.stats());
+    }
+
+    /**
+     * Per-host rate limit and circuit breaker state for yt-dlp calls.
+     */
+    @GetMapping("/upstream/stats")
+    public ResponseEntity<?> upstreamStats() {
+        return ResponseEntity.ok(upstreamGuard.stats());
+    }
+
+    /**
+     * Download connection budget: ceiling, connections in use and reduced grants.
+     */
+    @GetMapping("/connections/stats")
+    public ResponseEntity<?> connectionStats() {
+        return ResponseEntity.ok(connectionBudget.stats());
+    }
+
+    /**
+     * MP3 encoder pool: slots, encoders running and waiting, completed and failed transcodes.
+     */
+    @GetMapping("/transcode/stats")
+    public ResponseEntity<?> transcodeStats() {
+        return ResponseEntity.ok(transcodePool.stats());
+    }
+
+    /**
+     * Job journal: unfinished jobs, records and group commits written, compactions, and
+     * jobs recovered (or given up on) at startup.
+     */
+    @GetMapping("/journal/stats")
+    public ResponseEntity<?> journalStats() {
+        return ResponseEntity.ok(jobJournal.stats());
+    }
+
+    /**
+     * Per-client fair-share state: weight, queued and running jobs, metadata calls in
+     * progress, mean queue wait, bytes downloaded and quota rejections.
+     */
+    @GetMapping("/clients/stats")
+    public ResponseEntity<?> clientStats() {
+        return ResponseEntity.ok(clientQuotas.stats());
+    }
+
+    /**
+     * Cluster membership (members, health, ring changes) and requests forwarded to other members.
+     */
+    @GetMapping("/cluster/stats")
+    public ResponseEntity<?> clusterStats() {
+        return ResponseEntity.ok(clusterForwarder.stats());
+    }
+
+    /**
+     * Startup warm-up: state, stage timings, yt-dlp/ffmpeg paths and versions, when this
+     * instance became ready, and whether it runs with AOT, CDS and lazy initialization.
+     */
+    @GetMapping("/startup/stats")
+    public ResponseEntity<?> startupStats() {
+        return ResponseEntity.ok(toolchainWarmup.stats());
+    }
+
+    /**
+     * Supervised yt-dlp processes: running, killed on timeout, cancelled, orphans reaped.
+     */
+    @GetMapping("/processes/stats")
+    public ResponseEntity<?> processStats() {
+        return ResponseEntity.ok(processSupervisor.stats());
+    }
+
+    private ResponseEntity<?> unavailable(UpstreamUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+
+    /** Every streaming thread is busy (ytd.stream.max-concurrent); nothing has been sent yet. */
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> tooManyStreams(HttpServletRequest request) {
+        if (request.getAttribute(TRANSFER_ATTRIBUTE) instanceof ClientQuotas.Transfer transfer) transfer.close();
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .contentType(MediaType.TEXT_PLAIN)
+                .body("Too many concurrent streams, try again shortly");
+    }
+
+    /** /stream?audio=mp3 found no free encoder (ytd.transcode.max-wait); nothing has been sent yet. */
+    @ExceptionHandler(TranscodeBusyException.class)
+    public ResponseEntity<String> encodersBusy(TranscodeBusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
+
+    // Streaming endpoints must return ResponseEntity<StreamingResponseBody>, errors included
+    private ResponseEntity<StreamingResponseBody> textResponse(HttpStatus status, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.status(status)
+                .contentType(MediaType.TEXT_PLAIN)
+                .contentLength(bytes.length)
+                .body(out -> out.write(bytes));
+    }
+
+    private ResponseEntity<StreamingResponseBody> textResponse(HttpStatus status, String message, long retryAfterSeconds) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .contentType(MediaType.TEXT_PLAIN)
+                .contentLength(bytes.length)
+                .body(out -> out.write(bytes));
+    }
+
+    private ResponseEntity<?> submitJob(JobSpec spec, JobWork work) {
+        try {
+            DownloadJob job = downloadJobService.submit(spec, work);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/youtube/jobs/" + job.getId()))
+                    .body(job);
+        } catch (ClientQuotaException e) {
+            return overQuota(e);
+        } catch (JobQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(e.getMessage());
+        }
+    }
+
+    private ResponseEntity<?> overQuota(ClientQuotaException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+
+    /** The owner's answer when the cluster routes this video to another member; null to serve it here. */
+    private ResponseEntity<?> forwardToOwner(String url, HttpServletRequest request) {
+        String owner = clusterForwarder.ownerElsewhere(url, request);
+        return owner == null ? null : clusterForwarder.forward(owner, request, clientOf(request));
+    }
+
+    /** The answer of the member running this job, if it is another one; null to serve it here. */
+    private ResponseEntity<?> forwardToJobNode(String id, HttpServletRequest request) {
+        String node = clusterForwarder.jobElsewhere(id, request);
+        return node == null ? null : clusterForwarder.forward(node, request, clientOf(request));
+    }
+
+    /** The requesting client (see ClientQuotas); an unknown API key is a 401. */
+    private String clientOf(HttpServletRequest request) {
+        String forwarded = clusterForwarder.forwardedClient(request);
+        if (forwarded != null) return forwarded;
+        String client = clientQuotas.identify(request);
+        if (client == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unknown API key");
+        }
+        return client;
     }
 }
\ No newline at end of file
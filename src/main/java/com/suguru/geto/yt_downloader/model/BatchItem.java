@@ -0,0 +1,69 @@
+package com.suguru.geto.yt_downloader.model;
+
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One URL of a batch. Keeps its own copy of the outcome, since the job it ran as
+ * may already have dropped out of the job history.
+ */
+public class BatchItem {
+
+    private final String url;
+    private volatile DownloadJob.State state = DownloadJob.State.QUEUED;
+    private volatile String jobId;
+    private volatile String file;
+    private volatile String error;
+    private volatile DownloadJob job; // while running, for progress
+
+    public BatchItem(String url) {
+        this.url = url;
+    }
+
+    public void start(DownloadJob job) {
+        this.job = job;
+        this.jobId = job.getId();
+        this.state = DownloadJob.State.RUNNING;
+    }
+
+    public void finish(DownloadJob job) {
+        this.file = job.getFile();
+        this.error = job.getState() == DownloadJob.State.SUCCEEDED ? null
+                : (job.getError() != null ? job.getError() : job.getResult());
+        this.state = job.getState();
+        this.job = null;
+    }
+
+    /** The item never ran: it could not be submitted, or the engine kept turning it away. */
+    public void fail(String error) {
+        this.error = error;
+        this.state = DownloadJob.State.FAILED;
+        this.job = null;
+    }
+
+    /** 0..1 done for this item: finished items count fully, running ones by bytes of the current stream. */
+    public double getFraction() {
+        DownloadJob.State s = state;
+        if (s != DownloadJob.State.QUEUED && s != DownloadJob.State.RUNNING) return 1.0;
+        DownloadJob j = job;
+        ProgressEvent p = j == null ? null : j.getProgress();
+        Double percent = p == null ? null : p.getPercent();
+        return percent == null ? 0.0 : percent / 100.0;
+    }
+
+    public String getUrl() { return url; }
+    /** The running job's own state (it may still wait in a host lane), else the recorded one. */
+    public DownloadJob.State getState() {
+        DownloadJob j = job;
+        return j != null && !j.isFinished() ? j.getState() : state;
+    }
+
+    public String getJobId() { return jobId; }
+    public String getFile() { return file; }
+    public String getError() { return error; }
+
+    public String getFileUrl() {
+        return file == null ? null : "/api/youtube/files/" + UriUtils.encodePathSegment(file, StandardCharsets.UTF_8);
+    }
+}
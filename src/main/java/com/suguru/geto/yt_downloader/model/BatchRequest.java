@@ -0,0 +1,33 @@
+package com.suguru.geto.yt_downloader.model;
+
+import java.util.List;
+
+/**
+ * Body of a batch submission: explicit URLs and/or a playlist to expand, plus the
+ * format policy applied to every item.
+ */
+public class BatchRequest {
+
+    private List<String> urls;
+    private String playlistUrl;
+    private String kind = "video"; // "video" or "audio"
+    private String quality = "best"; // video policy: best, 1080p, 720p, 480p, 360p
+    private Integer concurrency; // items running at once; server default when null
+    private Integer fragments; // parallel fragments per video item; server default when null
+    private String downloader; // "native" or "external"; server default when null
+
+    public List<String> getUrls() { return urls; }
+    public void setUrls(List<String> urls) { this.urls = urls; }
+    public String getPlaylistUrl() { return playlistUrl; }
+    public void setPlaylistUrl(String playlistUrl) { this.playlistUrl = playlistUrl; }
+    public String getKind() { return kind; }
+    public void setKind(String kind) { this.kind = kind; }
+    public String getQuality() { return quality; }
+    public void setQuality(String quality) { this.quality = quality; }
+    public Integer getConcurrency() { return concurrency; }
+    public void setConcurrency(Integer concurrency) { this.concurrency = concurrency; }
+    public Integer getFragments() { return fragments; }
+    public void setFragments(Integer fragments) { this.fragments = fragments; }
+    public String getDownloader() { return downloader; }
+    public void setDownloader(String downloader) { this.downloader = downloader; }
+}
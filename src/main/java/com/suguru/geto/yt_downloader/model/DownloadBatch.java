@@ -0,0 +1,75 @@
+package com.suguru.geto.yt_downloader.model;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A group of downloads submitted together, with aggregate counts and progress
+ * computed from its items.
+ */
+public class DownloadBatch {
+
+    private final String id;
+    private final String kind;
+    private final String quality;
+    private final String playlistUrl;
+    private final int concurrency;
+    private final List<BatchItem> items;
+    private final Instant submittedAt = Instant.now();
+    private volatile Instant finishedAt;
+
+    public DownloadBatch(String id, String kind, String quality, String playlistUrl, int concurrency,
+                         List<BatchItem> items) {
+        this.id = id;
+        this.kind = kind;
+        this.quality = quality;
+        this.playlistUrl = playlistUrl;
+        this.concurrency = concurrency;
+        this.items = items;
+    }
+
+    public void markFinished() {
+        this.finishedAt = Instant.now();
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    public int getTotal() {
+        return items.size();
+    }
+
+    public int getQueued() { return count(DownloadJob.State.QUEUED); }
+    public int getRunning() { return count(DownloadJob.State.RUNNING); }
+    public int getSucceeded() { return count(DownloadJob.State.SUCCEEDED); }
+    public int getFailed() { return count(DownloadJob.State.FAILED); }
+    public int getCancelled() { return count(DownloadJob.State.CANCELLED); }
+
+    /** Overall completion in percent, counting partial progress of running items. */
+    public double getPercent() {
+        if (items.isEmpty()) return 100.0;
+        double done = 0;
+        for (BatchItem item : items) {
+            done += item.getFraction();
+        }
+        return Math.round(done * 1000.0 / items.size()) / 10.0;
+    }
+
+    private int count(DownloadJob.State state) {
+        int n = 0;
+        for (BatchItem item : items) {
+            if (item.getState() == state) n++;
+        }
+        return n;
+    }
+
+    public String getId() { return id; }
+    public String getKind() { return kind; }
+    public String getQuality() { return quality; }
+    public String getPlaylistUrl() { return playlistUrl; }
+    public int getConcurrency() { return concurrency; }
+    public List<BatchItem> getItems() { return items; }
+    public Instant getSubmittedAt() { return submittedAt; }
+    public Instant getFinishedAt() { return finishedAt; }
+}
@@ -0,0 +1,100 @@
+package com.suguru.geto.yt_downloader.model;
+
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A download submitted to the job engine. Mutated only by the job service;
+ * controllers read it to report state, timings and result.
+ */
+public class DownloadJob {
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    private final String id;
+    private final String kind; // "video" or "audio"
+    private final String url;
+    private final String formatId;
+    private final String host;
+    private final Instant submittedAt;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile State state = State.QUEUED;
+    private volatile String result;
+    private volatile String error;
+    private volatile String file; // output file name inside the download dir
+    private volatile ProgressEvent progress; // latest progress update, if any
+    private volatile TransferStats transfer; // connections and throughput, once downloaded
+
+    public DownloadJob(String id, String kind, String url, String formatId, String host) {
+        this.id = id;
+        this.kind = kind;
+        this.url = url;
+        this.formatId = formatId;
+        this.host = host;
+        this.submittedAt = Instant.now();
+    }
+
+    public void markRunning() {
+        this.startedAt = Instant.now();
+        this.state = State.RUNNING;
+    }
+
+    public void markFinished(boolean success, String result, String error, String file) {
+        this.result = result;
+        this.error = error;
+        this.file = file;
+        this.finishedAt = Instant.now();
+        this.state = success ? State.SUCCEEDED : State.FAILED;
+    }
+
+    public void markCancelled() {
+        this.result = null;
+        this.error = "Cancelled";
+        this.file = null;
+        this.finishedAt = Instant.now();
+        this.state = State.CANCELLED;
+    }
+
+    public boolean isFinished() {
+        return state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    public String getId() { return id; }
+    public String getKind() { return kind; }
+    public String getUrl() { return url; }
+    public String getFormatId() { return formatId; }
+    public String getHost() { return host; }
+    public State getState() { return state; }
+    public Instant getSubmittedAt() { return submittedAt; }
+    public Instant getStartedAt() { return startedAt; }
+    public Instant getFinishedAt() { return finishedAt; }
+    public String getResult() { return result; }
+    public String getError() { return error; }
+    public String getFile() { return file; }
+    public ProgressEvent getProgress() { return progress; }
+    public void setProgress(ProgressEvent progress) { this.progress = progress; }
+    public TransferStats getTransfer() { return transfer; }
+    public void setTransfer(TransferStats transfer) { this.transfer = transfer; }
+
+    /** Where the finished file can be fetched over HTTP, or null if there is none. */
+    public String getFileUrl() {
+        return file == null ? null : "/api/youtube/files/" + UriUtils.encodePathSegment(file, StandardCharsets.UTF_8);
+    }
+
+    /** Time spent waiting for a worker, in milliseconds (up to now if still queued). */
+    public long getQueuedMillis() {
+        Instant end = startedAt != null ? startedAt : Instant.now();
+        return Duration.between(submittedAt, end).toMillis();
+    }
+
+    /** Time spent running, in milliseconds (up to now if still running); null if not started. */
+    public Long getRunMillis() {
+        if (startedAt == null) return null;
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        return Duration.between(startedAt, end).toMillis();
+    }
+}
@@ -0,0 +1,37 @@
+package com.suguru.geto.yt_downloader.model;
+
+/**
+ * Outcome of a download: a status message and, on success, the output file's
+ * name inside the download directory (when yt-dlp reported it), plus the transfer
+ * stats when a download actually ran.
+ */
+public class DownloadResult {
+    private final boolean success;
+    private final String message;
+    private final String file;
+    private final TransferStats transfer;
+
+    public DownloadResult(boolean success, String message, String file) {
+        this(success, message, file, null);
+    }
+
+    public DownloadResult(boolean success, String message, String file, TransferStats transfer) {
+        this.success = success;
+        this.message = message;
+        this.file = file;
+        this.transfer = transfer;
+    }
+
+    public DownloadResult withTransfer(TransferStats transfer) {
+        return new DownloadResult(success, message, file, transfer);
+    }
+
+    public static DownloadResult failed(String message) {
+        return new DownloadResult(false, message, null);
+    }
+
+    public boolean isSuccess() { return success; }
+    public String getMessage() { return message; }
+    public String getFile() { return file; }
+    public TransferStats getTransfer() { return transfer; }
+}
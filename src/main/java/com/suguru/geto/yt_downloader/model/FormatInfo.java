@@ -11,6 +11,14 @@ public class FormatInfo {
     private String note; // raw description/size info
     private String type; // "video" or "audio"
     private Long filesize; // bytes (from filesize or filesize_approx)
+    private Boolean filesizeApprox; // true when filesize is yt-dlp's estimate
+    private Integer width;
+    private Integer height;
+    private Double frameRate;
+    private Double audioBitrate; // kbps
+    private Double totalBitrate; // kbps
+    private String protocol; // https, m3u8_native, ...
+    private String token; // signed download token for video formats, set per /formats response
 
     public FormatInfo() {}
 
@@ -51,4 +59,34 @@ public class FormatInfo {
     public void setType(String type) { this.type = type; }
     public Long getFilesize() { return filesize; }
     public void setFilesize(Long filesize) { this.filesize = filesize; }
+    public Boolean getFilesizeApprox() { return filesizeApprox; }
+    public void setFilesizeApprox(Boolean filesizeApprox) { this.filesizeApprox = filesizeApprox; }
+    public Integer getWidth() { return width; }
+    public void setWidth(Integer width) { this.width = width; }
+    public Integer getHeight() { return height; }
+    public void setHeight(Integer height) { this.height = height; }
+    public Double getFrameRate() { return frameRate; }
+    public void setFrameRate(Double frameRate) { this.frameRate = frameRate; }
+    public Double getAudioBitrate() { return audioBitrate; }
+    public void setAudioBitrate(Double audioBitrate) { this.audioBitrate = audioBitrate; }
+    public Double getTotalBitrate() { return totalBitrate; }
+    public void setTotalBitrate(Double totalBitrate) { this.totalBitrate = totalBitrate; }
+    public String getProtocol() { return protocol; }
+    public void setProtocol(String protocol) { this.protocol = protocol; }
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+
+    /** A field-by-field copy, so cached instances are never changed. */
+    public FormatInfo copy() {
+        FormatInfo f = new FormatInfo(id, ext, resolution, fps, vcodec, acodec, abr, note, type, filesize);
+        f.filesizeApprox = filesizeApprox;
+        f.width = width;
+        f.height = height;
+        f.frameRate = frameRate;
+        f.audioBitrate = audioBitrate;
+        f.totalBitrate = totalBitrate;
+        f.protocol = protocol;
+        f.token = token;
+        return f;
+    }
 }
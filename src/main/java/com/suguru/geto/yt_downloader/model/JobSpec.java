@@ -0,0 +1,65 @@
+package com.suguru.geto.yt_downloader.model;
+
+/**
+ * What a download job does, in a form that can be written to the job journal and run
+ * again after a restart: the operation, its URL and format, and the transfer options,
+ * plus who asked for it (the client, and whether as part of a batch) for scheduling.
+ * Request-scoped extras (such as a format token) are not part of it; a replayed job
+ * simply looks the formats up again.
+ */
+public class JobSpec {
+
+    /** A video format merged with the best audio (/download/video). */
+    public static final String VIDEO = "video";
+    /** A video by quality policy (/download, batch items). */
+    public static final String QUALITY = "quality";
+    /** Audio encoded to MP3. */
+    public static final String MP3 = "mp3";
+    /** Audio as yt-dlp delivers it. */
+    public static final String AUDIO = "audio";
+
+    private String operation;
+    private String url;
+    private String formatId; // format id, or the quality policy for QUALITY
+    private Integer fragments;
+    private String downloader;
+    private String client; // see ClientQuotas; null for the local client
+    private boolean batch; // batch items queue behind interactive jobs
+
+    public JobSpec() {
+    }
+
+    public JobSpec(String operation, String url, String formatId, TransferOptions transfer) {
+        this.operation = operation;
+        this.url = url;
+        this.formatId = formatId;
+        if (transfer != null) {
+            this.fragments = transfer.getFragments();
+            this.downloader = transfer.getDownloader();
+        }
+    }
+
+    /** The job kind shown to clients: "video" or "audio". */
+    public String kind() {
+        return MP3.equals(operation) || AUDIO.equals(operation) ? "audio" : "video";
+    }
+
+    public TransferOptions transfer() {
+        return fragments == null && downloader == null ? TransferOptions.DEFAULT : new TransferOptions(fragments, downloader);
+    }
+
+    public String getOperation() { return operation; }
+    public void setOperation(String operation) { this.operation = operation; }
+    public String getUrl() { return url; }
+    public void setUrl(String url) { this.url = url; }
+    public String getFormatId() { return formatId; }
+    public void setFormatId(String formatId) { this.formatId = formatId; }
+    public Integer getFragments() { return fragments; }
+    public void setFragments(Integer fragments) { this.fragments = fragments; }
+    public String getDownloader() { return downloader; }
+    public void setDownloader(String downloader) { this.downloader = downloader; }
+    public String getClient() { return client; }
+    public void setClient(String client) { this.client = client; }
+    public boolean isBatch() { return batch; }
+    public void setBatch(boolean batch) { this.batch = batch; }
+}
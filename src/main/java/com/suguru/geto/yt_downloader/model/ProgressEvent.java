@@ -0,0 +1,74 @@
+package com.suguru.geto.yt_downloader.model;
+
+/**
+ * A structured progress update for a download job, parsed from yt-dlp's
+ * progress template output. Numeric fields are null when yt-dlp does not know them.
+ */
+public class ProgressEvent {
+
+    public static final String PHASE_DOWNLOAD = "download";
+    public static final String PHASE_MERGE = "merge";
+    public static final String PHASE_EXTRACT_AUDIO = "extract-audio";
+    public static final String PHASE_POSTPROCESS = "postprocess";
+    public static final String PHASE_DONE = "done";
+    public static final String PHASE_FAILED = "failed";
+    public static final String PHASE_CANCELLED = "cancelled";
+
+    private String phase;
+    private String status; // yt-dlp status: downloading, finished, started, processing, ...
+    private String formatId; // stream being fetched (merged downloads fetch two)
+    private Long downloadedBytes;
+    private Long totalBytes;
+    private boolean totalEstimated;
+    private Double speed; // bytes per second
+    private Long eta; // seconds
+    private boolean stalled;
+    private long timestamp = System.currentTimeMillis();
+
+    public ProgressEvent() {}
+
+    public ProgressEvent(String phase, String status) {
+        this.phase = phase;
+        this.status = status;
+    }
+
+    /** Percentage of the current stream, or null when the total is unknown. */
+    public Double getPercent() {
+        if (downloadedBytes == null || totalBytes == null || totalBytes <= 0) return null;
+        return Math.min(100.0, downloadedBytes * 100.0 / totalBytes);
+    }
+
+    public ProgressEvent copy() {
+        ProgressEvent e = new ProgressEvent(phase, status);
+        e.formatId = formatId;
+        e.downloadedBytes = downloadedBytes;
+        e.totalBytes = totalBytes;
+        e.totalEstimated = totalEstimated;
+        e.speed = speed;
+        e.eta = eta;
+        e.stalled = stalled;
+        e.timestamp = timestamp;
+        return e;
+    }
+
+    public String getPhase() { return phase; }
+    public void setPhase(String phase) { this.phase = phase; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getFormatId() { return formatId; }
+    public void setFormatId(String formatId) { this.formatId = formatId; }
+    public Long getDownloadedBytes() { return downloadedBytes; }
+    public void setDownloadedBytes(Long downloadedBytes) { this.downloadedBytes = downloadedBytes; }
+    public Long getTotalBytes() { return totalBytes; }
+    public void setTotalBytes(Long totalBytes) { this.totalBytes = totalBytes; }
+    public boolean isTotalEstimated() { return totalEstimated; }
+    public void setTotalEstimated(boolean totalEstimated) { this.totalEstimated = totalEstimated; }
+    public Double getSpeed() { return speed; }
+    public void setSpeed(Double speed) { this.speed = speed; }
+    public Long getEta() { return eta; }
+    public void setEta(Long eta) { this.eta = eta; }
+    public boolean isStalled() { return stalled; }
+    public void setStalled(boolean stalled) { this.stalled = stalled; }
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+}
@@ -0,0 +1,22 @@
+package com.suguru.geto.yt_downloader.model;
+
+/**
+ * How a download fetches its data: how many fragments (or, with an external
+ * downloader, connections) to fetch in parallel and whether to hand the transfer
+ * to the configured external downloader. Null fields take the server defaults.
+ */
+public class TransferOptions {
+
+    public static final TransferOptions DEFAULT = new TransferOptions(null, null);
+
+    private final Integer fragments;
+    private final String downloader; // "native", "external" or null
+
+    public TransferOptions(Integer fragments, String downloader) {
+        this.fragments = fragments;
+        this.downloader = downloader == null || downloader.isBlank() ? null : downloader.trim().toLowerCase();
+    }
+
+    public Integer getFragments() { return fragments; }
+    public String getDownloader() { return downloader; }
+}
@@ -0,0 +1,30 @@
+package com.suguru.geto.yt_downloader.model;
+
+/**
+ * What a finished download achieved: the connections it was granted, the downloader
+ * used, the bytes fetched and how long fetching took (merge/transcode excluded).
+ */
+public class TransferStats {
+    private final int connections;
+    private final String downloader;
+    private final long bytes;
+    private final long downloadMillis;
+
+    public TransferStats(int connections, String downloader, long bytes, long downloadMillis) {
+        this.connections = connections;
+        this.downloader = downloader;
+        this.bytes = bytes;
+        this.downloadMillis = downloadMillis;
+    }
+
+    public int getConnections() { return connections; }
+    public String getDownloader() { return downloader; }
+    public long getBytes() { return bytes; }
+    public long getDownloadMillis() { return downloadMillis; }
+
+    /** Average bytes per second while downloading, or null when nothing was measured. */
+    public Long getBytesPerSecond() {
+        if (bytes <= 0 || downloadMillis <= 0) return null;
+        return bytes * 1000 / downloadMillis;
+    }
+}
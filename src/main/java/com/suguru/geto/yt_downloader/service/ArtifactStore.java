@@ -0,0 +1,294 @@
+package com.suguru.geto.yt_downloader.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.suguru.geto.yt_downloader.model.DownloadResult;
+
+/**
+ * Content-addressed store of finished downloads, keyed by (video ID, format selector,
+ * post-processing). A repeat request for the same key returns the existing file
+ * without touching upstream. Downloads are produced in a private temp directory and
+ * atomically renamed into place as "<title> [<key hash>].<ext>", so titles never collide
+ * and readers never see partial files. The index is a JSON file in the download
+ * directory; when the stored bytes exceed the limit, least recently used files are deleted.
+ */
+@Component
+public class ArtifactStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ArtifactStore.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String INDEX_FILE = ".ytd-store.json";
+    private static final String TMP_DIR = ".ytd-tmp";
+    private static final long TOUCH_FLUSH_MS = 30_000;
+
+    private final Path downloadDir;
+    private final SingleFlight singleFlight;
+    private final boolean enabled;
+    private final long maxBytes;
+
+    // Guarded by "this"
+    private final Map<String, Entry> index = new HashMap<>();
+    private long totalBytes;
+    private boolean dirty;
+    private long lastFlush;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private boolean loaded;
+
+    /** One stored artifact, as persisted in the index. */
+    public static class Entry {
+        public String file;
+        public long size;
+        public long created;
+        public long lastAccess;
+    }
+
+    public ArtifactStore(SingleFlight singleFlight,
+                         @Value("${ytd.download-dir:}") String downloadDir,
+                         @Value("${ytd.store.enabled:true}") boolean enabled,
+                         @Value("${ytd.store.max-bytes:21474836480}") long maxBytes) {
+        this.downloadDir = YoutubeDownloadService.resolveDownloadDir(downloadDir);
+        this.singleFlight = singleFlight;
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Store key for a download, or null when the URL has no canonical video ID. */
+    public static String key(String videoUrl, String selector, String postprocess) {
+        String id = VideoIds.canonicalize(videoUrl);
+        return id == null ? null : id + "|" + selector + "|" + postprocess;
+    }
+
+    /**
+     * Return the stored artifact for the key, or run the producer into a fresh temp
+     * directory and store what it writes. Concurrent callers for one key share a single
+     * download. With no key (or the store disabled) the producer writes straight to the
+     * download directory as before.
+     */
+    public DownloadResult getOrCreate(String key, Function<Path, DownloadResult> producer) {
+        if (!enabled || key == null) return producer.apply(downloadDir);
+
+        DownloadResult hit = lookup(key, true);
+        if (hit != null) return hit;
+        return singleFlight.execute("artifact:" + key, () -> {
+            DownloadResult again = lookup(key, false);
+            if (again != null) return again;
+            // Named after the job, so a job resumed after a restart continues its partial files
+            String jobId = DownloadJobService.currentJobId();
+            Path tmp = downloadDir.resolve(TMP_DIR).resolve(jobId != null ? jobId : UUID.randomUUID().toString());
+            try {
+                Files.createDirectories(tmp);
+                DownloadResult r = producer.apply(tmp);
+                if (!r.isSuccess() || r.getFile() == null) return r;
+                String name = commit(key, downloadDir.resolve(r.getFile()));
+                return new DownloadResult(true, r.getMessage(), name, r.getTransfer());
+            } catch (IOException e) {
+                return DownloadResult.failed("Exception: " + e.getMessage());
+            } finally {
+                if (!DownloadJobService.interruptedByShutdown()) deleteRecursively(tmp);
+            }
+        });
+    }
+
+    public synchronized Map<String, Object> stats() {
+        ensureLoaded();
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", enabled);
+        s.put("entries", index.size());
+        s.put("bytes", totalBytes);
+        s.put("maxBytes", maxBytes);
+        s.put("hits", hits);
+        s.put("misses", misses);
+        s.put("evictions", evictions);
+        return s;
+    }
+
+    private synchronized DownloadResult lookup(String key, boolean countMiss) {
+        ensureLoaded();
+        Entry e = index.get(key);
+        if (e != null) {
+            Path p = downloadDir.resolve(e.file);
+            try {
+                if (Files.isRegularFile(p) && Files.size(p) == e.size) {
+                    hits++;
+                    e.lastAccess = System.currentTimeMillis();
+                    dirty = true;
+                    if (e.lastAccess - lastFlush >= TOUCH_FLUSH_MS) flush();
+                    return new DownloadResult(true, YoutubeDownloadService.DOWNLOAD_OK + " (already downloaded)", e.file);
+                }
+            } catch (IOException ignored) {
+                // Treat as missing
+            }
+            // File vanished or changed underneath us
+            index.remove(key);
+            totalBytes -= e.size;
+            dirty = true;
+        }
+        if (countMiss) misses++;
+        return null;
+    }
+
+    /** Atomically move a finished temp file into place and record it; returns its stored name. */
+    private String commit(String key, Path produced) throws IOException {
+        String fileName = produced.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String stem = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String ext = dot > 0 ? fileName.substring(dot) : "";
+        String name = stem + " [" + shortHash(key) + "]" + ext;
+        Path target = downloadDir.resolve(name);
+        try {
+            Files.move(produced, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(produced, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        synchronized (this) {
+            ensureLoaded();
+            Entry old = index.remove(key);
+            if (old != null) totalBytes -= old.size;
+            Entry entry = new Entry();
+            entry.file = name;
+            entry.size = Files.size(target);
+            entry.created = entry.lastAccess = System.currentTimeMillis();
+            index.put(key, entry);
+            totalBytes += entry.size;
+            evict(key);
+            flush();
+        }
+        return name;
+    }
+
+    private void evict(String keep) {
+        if (totalBytes <= maxBytes) return;
+        List<Map.Entry<String, Entry>> byAge = new ArrayList<>(index.entrySet());
+        byAge.sort(Comparator.comparingLong(me -> me.getValue().lastAccess));
+        for (Map.Entry<String, Entry> me : byAge) {
+            if (totalBytes <= maxBytes) break;
+            if (me.getKey().equals(keep)) continue;
+            try {
+                Files.deleteIfExists(downloadDir.resolve(me.getValue().file));
+            } catch (IOException e) {
+                continue; // Keep the entry; the next eviction pass retries
+            }
+            index.remove(me.getKey());
+            totalBytes -= me.getValue().size;
+            evictions++;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        Path file = downloadDir.resolve(INDEX_FILE);
+        if (Files.isRegularFile(file)) {
+            try {
+                Map<String, Entry> stored = MAPPER.readValue(file.toFile(), new TypeReference<Map<String, Entry>>() {});
+                for (Map.Entry<String, Entry> me : stored.entrySet()) {
+                    if (Files.isRegularFile(downloadDir.resolve(me.getValue().file))) {
+                        index.put(me.getKey(), me.getValue());
+                        totalBytes += me.getValue().size;
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable store index: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Delete temp output of downloads that will not be resumed: every .ytd-tmp/<name>
+     * and .parts-<name> directory whose name is not in keep (job ids being resumed).
+     */
+    static void deleteAbandonedScratch(Path downloadDir, Set<String> keep) {
+        List<Path> abandoned = new ArrayList<>();
+        try (Stream<Path> s = Files.list(downloadDir.resolve(TMP_DIR))) {
+            s.filter(p -> !keep.contains(p.getFileName().toString())).forEach(abandoned::add);
+        } catch (IOException e) {
+            // No temp dir
+        }
+        try (Stream<Path> s = Files.list(downloadDir)) {
+            s.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(YoutubeDownloadService.PARTS_PREFIX) && Files.isDirectory(p)
+                        && !keep.contains(name.substring(YoutubeDownloadService.PARTS_PREFIX.length()));
+            }).forEach(abandoned::add);
+        } catch (IOException e) {
+            // No download dir yet
+        }
+        for (Path p : abandoned) deleteRecursively(p);
+    }
+
+    private void flush() {
+        if (!dirty) return;
+        try {
+            Files.createDirectories(downloadDir);
+            Path tmp = downloadDir.resolve(INDEX_FILE + ".tmp");
+            MAPPER.writeValue(tmp.toFile(), index);
+            try {
+                Files.move(tmp, downloadDir.resolve(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, downloadDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+            lastFlush = System.currentTimeMillis();
+        } catch (IOException e) {
+            log.warn("Could not write store index: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        flush();
+    }
+
+    private static String shortHash(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(d, 0, 5);
+        } catch (Exception e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    static void deleteRecursively(Path root) {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException ignored) {
+                    // Best effort
+                }
+            });
+        } catch (IOException ignored) {
+            // Best effort
+        }
+    }
+}
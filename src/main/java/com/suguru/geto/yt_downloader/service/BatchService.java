@@ -0,0 +1,230 @@
+package com.suguru.geto.yt_downloader.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.BatchItem;
+import com.suguru.geto.yt_downloader.model.BatchRequest;
+import com.suguru.geto.yt_downloader.model.DownloadBatch;
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+import com.suguru.geto.yt_downloader.model.TransferOptions;
+
+/**
+ * Runs many downloads as one batch. Items are fed to the job engine through a sliding
+ * window: at most the batch's concurrency are queued or running at a time, and each
+ * finished item lets the next one in. This keeps a batch of thousands from filling the
+ * shared job queue, while per-host limits still apply to every item. An item the engine
+ * turns away (full queue, client quota) is retried after the Retry-After, up to
+ * ytd.batch.max-retries times, before it is failed; one that cannot be submitted at all
+ * fails on its own and the batch moves on. A batch runs on the member that received it;
+ * its id carries that member's tag (see {@link ClusterRing#newJobId()}) so lookups are
+ * routed there.
+ */
+@Service
+public class BatchService {
+
+    private static final long QUEUE_FULL_RETRY_MS = 2000;
+
+    private final DownloadJobService downloadJobService;
+    private final YoutubeDownloadService youtubeDownloadService;
+    private final ConnectionBudget connectionBudget;
+    private final ClusterRing cluster;
+    private final int defaultConcurrency;
+    private final int maxConcurrency;
+    private final int maxItems;
+    private final int historySize;
+    private final int maxRetries;
+
+    private final Map<String, DownloadBatch> batches = new ConcurrentHashMap<>();
+    private final Deque<String> finishedOrder = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService retries;
+
+    /** Scheduling state of one batch; guarded by itself. */
+    private static class Window {
+        final DownloadBatch batch;
+        final TransferOptions transfer;
+        final String client;
+        int next;
+        int inFlight;
+        int retries; // of the item at next
+        boolean retryScheduled;
+
+        Window(DownloadBatch batch, TransferOptions transfer, String client) {
+            this.batch = batch;
+            this.transfer = transfer;
+            this.client = client;
+        }
+    }
+
+    public BatchService(DownloadJobService downloadJobService,
+                        YoutubeDownloadService youtubeDownloadService,
+                        ConnectionBudget connectionBudget,
+                        ClusterRing cluster,
+                        @Value("${ytd.batch.concurrency:4}") int defaultConcurrency,
+                        @Value("${ytd.batch.max-concurrency:16}") int maxConcurrency,
+                        @Value("${ytd.batch.max-items:5000}") int maxItems,
+                        @Value("${ytd.batch.history-size:50}") int historySize,
+                        @Value("${ytd.batch.max-retries:50}") int maxRetries) {
+        this.downloadJobService = downloadJobService;
+        this.youtubeDownloadService = youtubeDownloadService;
+        this.connectionBudget = connectionBudget;
+        this.cluster = cluster;
+        this.defaultConcurrency = Math.max(1, defaultConcurrency);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxItems = maxItems;
+        this.historySize = historySize;
+        this.maxRetries = maxRetries;
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ytd-batch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Validate and start a batch for the client (see {@link ClientQuotas}); its items
+     * queue behind the client's interactive jobs. Throws IllegalArgumentException for a
+     * bad request; a playlist that cannot be expanded surfaces as a RuntimeException.
+     */
+    public DownloadBatch submit(BatchRequest request, String client) {
+        String kind = request.getKind() == null ? "video" : request.getKind().trim().toLowerCase();
+        if (!kind.equals("video") && !kind.equals("audio")) {
+            throw new IllegalArgumentException("Unknown batch kind: " + request.getKind());
+        }
+        String quality = request.getQuality() == null || request.getQuality().isBlank() ? "best" : request.getQuality();
+        TransferOptions transfer = new TransferOptions(request.getFragments(), request.getDownloader());
+        connectionBudget.validate(transfer);
+
+        // Duplicates (the same video under any URL form) would only coalesce onto the same
+        // stored file; drop them up front, keeping the first URL given
+        Map<String, String> urls = new LinkedHashMap<>();
+        if (request.getUrls() != null) {
+            for (String u : request.getUrls()) {
+                if (u != null && !u.isBlank()) urls.putIfAbsent(VideoIds.cacheKey(u), u.trim());
+            }
+        }
+        String playlistUrl = request.getPlaylistUrl();
+        if (playlistUrl != null && !playlistUrl.isBlank()) {
+            for (String u : youtubeDownloadService.expandPlaylist(playlistUrl.trim(), maxItems + 1)) {
+                urls.putIfAbsent(VideoIds.cacheKey(u), u);
+            }
+        }
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("A batch needs urls or a playlistUrl with at least one video");
+        }
+        if (urls.size() > maxItems) {
+            throw new IllegalArgumentException("Batch has more than " + maxItems + " items");
+        }
+
+        int concurrency = request.getConcurrency() == null ? defaultConcurrency : request.getConcurrency();
+        concurrency = Math.max(1, Math.min(concurrency, maxConcurrency));
+        List<BatchItem> items = new ArrayList<>(urls.size());
+        for (String u : urls.values()) {
+            items.add(new BatchItem(u));
+        }
+        DownloadBatch batch = new DownloadBatch(cluster.newJobId(), kind, quality,
+                playlistUrl, concurrency, items);
+        batches.put(batch.getId(), batch);
+        fill(new Window(batch, transfer, client));
+        return batch;
+    }
+
+    public DownloadBatch getBatch(String id) {
+        return batches.get(id);
+    }
+
+    /** Submit items until the window is full; finishes the batch once everything is done. */
+    private void fill(Window w) {
+        long retryInMs = -1;
+        boolean done = false;
+        synchronized (w) {
+            List<BatchItem> items = w.batch.getItems();
+            while (w.inFlight < w.batch.getConcurrency() && w.next < items.size()) {
+                BatchItem item = items.get(w.next);
+                try {
+                    DownloadJob job = submitItem(w, item);
+                    item.start(job);
+                    w.inFlight++;
+                } catch (JobQueueFullException e) {
+                    // A finishing item also refills the window; only one timed retry at a time
+                    if (w.retryScheduled) break;
+                    if (w.retries < maxRetries) {
+                        w.retries++;
+                        w.retryScheduled = true;
+                        retryInMs = e instanceof ClientQuotaException q
+                                ? TimeUnit.SECONDS.toMillis(Math.max(1, q.getRetryAfterSeconds()))
+                                : QUEUE_FULL_RETRY_MS;
+                        break;
+                    }
+                    item.fail("Not accepted after " + maxRetries + " retries: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    item.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+                }
+                w.next++;
+                w.retries = 0;
+            }
+            if (w.next == items.size() && w.inFlight == 0 && !w.batch.isFinished()) {
+                w.batch.markFinished();
+                done = true;
+            }
+        }
+        if (retryInMs >= 0) {
+            retries.schedule(() -> retry(w), retryInMs, TimeUnit.MILLISECONDS);
+        }
+        if (done) recordFinished(w.batch);
+    }
+
+    private void retry(Window w) {
+        synchronized (w) {
+            w.retryScheduled = false;
+        }
+        fill(w);
+    }
+
+    private DownloadJob submitItem(Window w, BatchItem item) {
+        String url = item.getUrl();
+        String quality = w.batch.getQuality();
+        JobSpec spec = w.batch.getKind().equals("audio")
+                ? new JobSpec(JobSpec.MP3, url, "bestaudio", null)
+                : new JobSpec(JobSpec.QUALITY, url, quality, w.transfer);
+        spec.setClient(w.client);
+        spec.setBatch(true);
+        return downloadJobService.submit(spec, youtubeDownloadService.work(spec), job -> onItemFinished(w, item, job));
+    }
+
+    private void onItemFinished(Window w, BatchItem item, DownloadJob job) {
+        // Taking the window lock orders this after item.start(job), even for instant jobs
+        synchronized (w) {
+            item.finish(job);
+            w.inFlight--;
+        }
+        fill(w);
+    }
+
+    private void recordFinished(DownloadBatch batch) {
+        finishedOrder.addLast(batch.getId());
+        while (finishedOrder.size() > historySize) {
+            String oldest = finishedOrder.pollFirst();
+            if (oldest == null) break;
+            batches.remove(oldest);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retries.shutdownNow();
+    }
+}
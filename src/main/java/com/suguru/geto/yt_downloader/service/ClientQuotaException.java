@@ -0,0 +1,20 @@
+package com.suguru.geto.yt_downloader.service;
+
+/**
+ * Thrown when a client is over one of its quotas (queued jobs, concurrent metadata
+ * calls, download bytes). A kind of full queue, so controllers map it to HTTP 429 and
+ * batches retry later; Retry-After says when the quota should allow it again.
+ */
+public class ClientQuotaException extends JobQueueFullException {
+
+    private final long retryAfterSeconds;
+
+    public ClientQuotaException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,380 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Who is asking, and how much they may ask for.
+ *
+ * A client is the name of its API key (X-API-Key, from ytd.clients.api-keys) or else
+ * its IP address. Each client has a fair-share weight (ytd.clients.weights, default 1)
+ * the job scheduler uses, and quotas: jobs queued at once, jobs running at once,
+ * concurrent metadata calls, concurrent direct transfers (/stream and the legacy
+ * /download, which answer in the request itself), and a byte bucket refilled at
+ * bytes-per-second (up to byte-burst) that finished downloads and streamed bytes are
+ * charged against; a client whose bucket is empty has new jobs and transfers rejected
+ * until it refills. Rejections are {@link ClientQuotaException}s.
+ * Meters are tagged with the key name; clients identified by IP share the tag "anonymous".
+ */
+@Component
+public class ClientQuotas {
+
+    public static final String API_KEY_HEADER = "X-API-Key";
+    /** Client of jobs that carry none, e.g. ones journaled before clients were recorded. */
+    public static final String LOCAL = "local";
+    private static final String ANONYMOUS = "anonymous";
+    private static final int MAX_CLIENTS = 10_000;
+    private static final long EVICT_AFTER_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long CHARGE_EVERY = 1 << 20; // streamed bytes between charges
+
+    private final MeterRegistry meters;
+    private final Map<String, String> keyNames = new HashMap<>();
+    private final Map<String, Double> weights = new HashMap<>();
+    private final int maxRunning;
+    private final int maxQueued;
+    private final int maxMetadata;
+    private final int maxTransfers;
+    private final double bytesPerSecond;
+    private final double byteBurst;
+    private final boolean trustForwardedFor;
+
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+
+    /** One client's counters and byte bucket. */
+    public final class Client {
+        private final String id;
+        private final String tag;
+        private final double weight;
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger metadata = new AtomicInteger();
+        final AtomicInteger transfers = new AtomicInteger();
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        double lastFinish; // fair-queuing virtual time; guarded by the job service
+        private double tokens = byteBurst; // guarded by this
+        private long refilledAt = System.nanoTime(); // guarded by this
+        private volatile long seenAt = System.nanoTime();
+
+        private Client(String id, String tag, double weight) {
+            this.id = id;
+            this.tag = tag;
+            this.weight = weight;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        private synchronized double refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(byteBurst, tokens + (now - refilledAt) / 1e9 * bytesPerSecond);
+            refilledAt = now;
+            return tokens;
+        }
+
+        /**
+         * Nothing outstanding and not looked up for a while: whoever last looked it up has
+         * long since counted what they took, so it cannot be dropped under them.
+         */
+        private boolean evictable(long now) {
+            return now - seenAt >= EVICT_AFTER_NANOS
+                    && queued.get() == 0 && running.get() == 0 && metadata.get() == 0 && transfers.get() == 0
+                    && (bytesPerSecond <= 0 || refill() >= byteBurst);
+        }
+    }
+
+    /** A metadata call in progress; close it when the call returns. */
+    public interface Slot extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** A direct transfer in progress; send through {@link #meter} and close it when done (more than once is fine). */
+    public interface Transfer extends Slot {
+        /** Wrap the response body so what is written to it is charged to the client. */
+        OutputStream meter(OutputStream out);
+
+        /** Charge bytes sent some other way, e.g. a file downloaded for the legacy endpoint. */
+        void sent(long bytes);
+    }
+
+    public ClientQuotas(MeterRegistry meters,
+                        @Value("${ytd.clients.api-keys:}") String apiKeys,
+                        @Value("${ytd.clients.weights:}") String weights,
+                        @Value("${ytd.clients.max-running:0}") int maxRunning,
+                        @Value("${ytd.clients.max-queued:100}") int maxQueued,
+                        @Value("${ytd.clients.max-metadata:4}") int maxMetadata,
+                        @Value("${ytd.clients.max-transfers:2}") int maxTransfers,
+                        @Value("${ytd.clients.bytes-per-second:0}") long bytesPerSecond,
+                        @Value("${ytd.clients.byte-burst:1073741824}") long byteBurst,
+                        @Value("${ytd.clients.trust-forwarded-for:false}") boolean trustForwardedFor) {
+        this.meters = meters;
+        for (Map.Entry<String, String> e : pairs(apiKeys).entrySet()) keyNames.put(e.getValue(), e.getKey());
+        for (Map.Entry<String, String> e : pairs(weights).entrySet()) {
+            try {
+                this.weights.put(e.getKey(), Math.max(0.01, Double.parseDouble(e.getValue())));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Bad weight for client " + e.getKey() + ": " + e.getValue());
+            }
+        }
+        this.maxRunning = Math.max(0, maxRunning);
+        this.maxQueued = Math.max(1, maxQueued);
+        this.maxMetadata = Math.max(1, maxMetadata);
+        this.maxTransfers = Math.max(1, maxTransfers);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.byteBurst = Math.max(1, byteBurst);
+        this.trustForwardedFor = trustForwardedFor;
+        Gauge.builder("ytdlp.clients.queued", this, q -> q.queuedByTag(ANONYMOUS))
+                .description("Jobs waiting to run, per client")
+                .tag("client", ANONYMOUS)
+                .register(meters);
+    }
+
+    /** "name:value,name:value" as a map. */
+    private static Map<String, String> pairs(String spec) {
+        Map<String, String> out = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) return out;
+        for (String raw : spec.split(",")) {
+            String item = raw.trim();
+            int colon = item.indexOf(':');
+            if (colon <= 0 || colon == item.length() - 1) {
+                throw new IllegalArgumentException("Expected name:value, got: " + item);
+            }
+            out.put(item.substring(0, colon).trim(), item.substring(colon + 1).trim());
+        }
+        return out;
+    }
+
+    /**
+     * The client a request comes from: its API key's name, else "ip:<address>" (the first
+     * X-Forwarded-For hop when trust-forwarded-for is set). Null for an unknown API key.
+     */
+    public String identify(HttpServletRequest request) {
+        String key = request.getHeader(API_KEY_HEADER);
+        if (key != null && !key.isBlank()) return keyNames.get(key.trim());
+        String addr = request.getRemoteAddr();
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (trustForwardedFor && forwarded != null && !forwarded.isBlank()) {
+            addr = forwarded.split(",")[0].trim();
+        }
+        return "ip:" + addr;
+    }
+
+    public Client client(String id) {
+        String key = id == null || id.isBlank() ? LOCAL : id;
+        long now = System.nanoTime();
+        // Forget idle IP clients; key clients are few and their gauges stay bound to them
+        if (clients.size() >= MAX_CLIENTS && !clients.containsKey(key)) {
+            for (String k : clients.keySet()) {
+                clients.computeIfPresent(k, (same, x) -> x.tag.equals(ANONYMOUS) && x.evictable(now) ? null : x);
+            }
+        }
+        // Marked seen atomically with the lookup, so an eviction cannot drop it before the caller counts on it
+        return clients.compute(key, (k, x) -> {
+            Client c = x != null ? x : newClient(k);
+            c.seenAt = now;
+            return c;
+        });
+    }
+
+    private Client newClient(String id) {
+        String tag = id.startsWith("ip:") ? ANONYMOUS : id;
+        Client created = new Client(id, tag, weights.getOrDefault(id, 1.0));
+        if (!tag.equals(ANONYMOUS)) {
+            Gauge.builder("ytdlp.clients.queued", created, x -> x.queued.get())
+                    .description("Jobs waiting to run, per client")
+                    .tag("client", tag)
+                    .register(meters);
+        }
+        return created;
+    }
+
+    /** Check a new job against the client's queue and byte quotas (the caller counts it as queued). */
+    void admit(Client c) {
+        if (c.queued.get() >= maxQueued) {
+            reject(c, "queued");
+            throw new ClientQuotaException("Client " + c.id + " already has " + maxQueued + " queued jobs", 5);
+        }
+        if (bytesPerSecond > 0) {
+            double tokens = c.refill();
+            if (tokens < 0) {
+                reject(c, "bytes");
+                throw new ClientQuotaException("Client " + c.id + " is over its download quota of "
+                        + (long) bytesPerSecond + " bytes/s", (long) Math.ceil(-tokens / bytesPerSecond));
+            }
+        }
+    }
+
+    /** True when the client may not start another job now. */
+    boolean atRunningLimit(Client c) {
+        return maxRunning > 0 && c.running.get() >= maxRunning;
+    }
+
+    /** Start a metadata call for the client, or reject it if too many are in progress. */
+    public Slot beginMetadata(String id) {
+        Client c = client(id);
+        if (c.metadata.incrementAndGet() > maxMetadata) {
+            c.metadata.decrementAndGet();
+            reject(c, "metadata");
+            throw new ClientQuotaException("Client " + c.id + " already has " + maxMetadata
+                    + " metadata requests in progress", 1);
+        }
+        long t0 = System.nanoTime();
+        return () -> {
+            c.metadata.decrementAndGet();
+            Timer.builder("ytdlp.clients.metadata")
+                    .description("Metadata call time, per client")
+                    .tag("client", c.tag)
+                    .register(meters)
+                    .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        };
+    }
+
+    /**
+     * Start a direct transfer for the client, or reject it if too many are in progress or
+     * its byte bucket is empty. Bytes sent are charged as they go, not only at the end.
+     */
+    public Transfer beginTransfer(String id) {
+        Client c = client(id);
+        if (c.transfers.incrementAndGet() > maxTransfers) {
+            c.transfers.decrementAndGet();
+            reject(c, "transfers");
+            throw new ClientQuotaException("Client " + c.id + " already has " + maxTransfers
+                    + " downloads in progress", 5);
+        }
+        if (bytesPerSecond > 0) {
+            double tokens = c.refill();
+            if (tokens < 0) {
+                c.transfers.decrementAndGet();
+                reject(c, "bytes");
+                throw new ClientQuotaException("Client " + c.id + " is over its download quota of "
+                        + (long) bytesPerSecond + " bytes/s", (long) Math.ceil(-tokens / bytesPerSecond));
+            }
+        }
+        return new Transfer() {
+            private final AtomicBoolean closed = new AtomicBoolean();
+            private final AtomicLong uncharged = new AtomicLong();
+
+            @Override
+            public OutputStream meter(OutputStream out) {
+                return new FilterOutputStream(out) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        sent(1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        sent(len);
+                    }
+                };
+            }
+
+            @Override
+            public void sent(long bytes) {
+                if (uncharged.addAndGet(bytes) >= CHARGE_EVERY) charge(c, uncharged.getAndSet(0));
+            }
+
+            @Override
+            public void close() {
+                if (!closed.compareAndSet(false, true)) return;
+                charge(c, uncharged.getAndSet(0));
+                c.transfers.decrementAndGet();
+            }
+        };
+    }
+
+    /** Count a finished download against the client's byte bucket. */
+    void charge(Client c, long bytes) {
+        if (bytes <= 0) return;
+        c.bytes.addAndGet(bytes);
+        if (bytesPerSecond <= 0) return;
+        synchronized (c) {
+            c.refill();
+            c.tokens -= bytes;
+        }
+    }
+
+    /** Time a job spent queued before it started. */
+    void recordWait(Client c, WorkClass work, long nanos) {
+        c.started.incrementAndGet();
+        c.waitNanos.addAndGet(nanos);
+        Timer.builder("ytdlp.clients.wait")
+                .description("Time from submission to start, per client and class of work")
+                .tag("client", c.tag)
+                .tag("class", work.tag())
+                .register(meters)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void reject(Client c, String reason) {
+        c.rejected.incrementAndGet();
+        Counter.builder("ytdlp.clients.rejected")
+                .description("Requests rejected by a client quota")
+                .tag("client", c.tag)
+                .tag("reason", reason)
+                .register(meters)
+                .increment();
+    }
+
+    private double queuedByTag(String tag) {
+        int n = 0;
+        for (Client c : clients.values()) {
+            if (c.tag.equals(tag)) n += c.queued.get();
+        }
+        return n;
+    }
+
+    /** Quotas and, per client, weight, queued/running jobs, transfers, mean wait and bytes downloaded. */
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("maxRunning", maxRunning == 0 ? null : maxRunning);
+        s.put("maxQueued", maxQueued);
+        s.put("maxMetadata", maxMetadata);
+        s.put("maxTransfers", maxTransfers);
+        s.put("bytesPerSecond", bytesPerSecond == 0 ? null : (long) bytesPerSecond);
+        Map<String, Object> per = new LinkedHashMap<>();
+        for (Client c : clients.values()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            long started = c.started.get();
+            m.put("weight", c.weight);
+            m.put("queued", c.queued.get());
+            m.put("running", c.running.get());
+            m.put("metadata", c.metadata.get());
+            m.put("transfers", c.transfers.get());
+            m.put("meanWaitMillis", started == 0 ? null : TimeUnit.NANOSECONDS.toMillis(c.waitNanos.get() / started));
+            m.put("bytes", c.bytes.get());
+            if (bytesPerSecond > 0) m.put("byteAllowance", (long) c.refill());
+            m.put("rejected", c.rejected.get());
+            per.put(c.id, m);
+        }
+        s.put("clients", per);
+        return s;
+    }
+}
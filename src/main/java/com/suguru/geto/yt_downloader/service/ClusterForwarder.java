@@ -0,0 +1,290 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays requests to the cluster member that should serve them (see {@link ClusterRing}).
+ *
+ * The forwarded request keeps its method, path, query and the headers that matter to the
+ * owner (API key, Accept, Range and revalidation), and carries the client it was made by;
+ * the owner's status, headers and body come back unchanged, plus X-Ytd-Node naming the
+ * owner. When the owner cannot be connected to it leaves the ring and the caller serves
+ * the request itself; other failures are answered 502.
+ */
+@Component
+public class ClusterForwarder {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterForwarder.class);
+
+    /** Names the member that served a forwarded request. */
+    public static final String NODE_HEADER = "X-Ytd-Node";
+
+    private static final List<String> REQUEST_HEADERS = List.of(HttpHeaders.ACCEPT, ClientQuotas.API_KEY_HEADER,
+            HttpHeaders.RANGE, HttpHeaders.IF_RANGE, HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_MODIFIED_SINCE,
+            HttpHeaders.CONTENT_TYPE);
+    private static final List<String> RESPONSE_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONTENT_RANGE, HttpHeaders.CONTENT_DISPOSITION, HttpHeaders.ACCEPT_RANGES, HttpHeaders.ETAG,
+            HttpHeaders.LAST_MODIFIED, HttpHeaders.LOCATION, HttpHeaders.RETRY_AFTER);
+
+    private final ClusterRing ring;
+    private final ThreadSupport threads;
+    private final MeterRegistry meters;
+    private final HttpClient http;
+    private final long emitterTimeoutMs;
+
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong fellBack = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ClusterForwarder(ClusterRing ring,
+                            ThreadSupport threads,
+                            MeterRegistry meters,
+                            @Value("${ytd.cluster.connect-timeout:2s}") Duration connectTimeout,
+                            @Value("${ytd.progress.emitter-timeout-ms:21600000}") long emitterTimeoutMs) {
+        this.ring = ring;
+        this.threads = threads;
+        this.meters = meters;
+        // No request timeout: the owner's own phase timeouts bound how long it takes to answer
+        this.http = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        this.emitterTimeoutMs = emitterTimeoutMs;
+    }
+
+    /** The member that owns this video, if it is another one and the request was not forwarded already. */
+    public String ownerElsewhere(String url, HttpServletRequest request) {
+        if (!ring.isEnabled() || ring.isForwarded(request)) return null;
+        String owner = ring.owner(VideoIds.cacheKey(url));
+        return owner.equals(ring.self()) ? null : owner;
+    }
+
+    /** The member that runs this job, if it is another one and the request was not forwarded already. */
+    public String jobElsewhere(String jobId, HttpServletRequest request) {
+        if (!ring.isEnabled() || ring.isForwarded(request)) return null;
+        return ring.nodeOfJob(jobId);
+    }
+
+    /** The client a forwarded request was made by, or null if it was not forwarded. */
+    public String forwardedClient(HttpServletRequest request) {
+        return ring.isForwarded(request) ? request.getHeader(ClusterRing.CLIENT_HEADER) : null;
+    }
+
+    /** The owner's answer, or null if it could not be reached and this node should serve the request. */
+    public ResponseEntity<?> forward(String node, HttpServletRequest request, String client) {
+        HttpResponse<byte[]> response;
+        try {
+            response = send(node, request, client, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            return badGateway(node);
+        }
+        if (response == null) return null;
+        return ResponseEntity.status(response.statusCode())
+                .headers(copy(response, node))
+                .body(response.body());
+    }
+
+    /** As {@link #forward}, passing the owner's body through as it arrives. */
+    public ResponseEntity<StreamingResponseBody> stream(String node, HttpServletRequest request, String client) {
+        HttpResponse<InputStream> response;
+        try {
+            response = send(node, request, client, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).header(NODE_HEADER, node).build();
+        }
+        if (response == null) return null;
+        return ResponseEntity.status(response.statusCode())
+                .headers(copy(response, node))
+                .body(out -> {
+                    try (InputStream in = response.body()) {
+                        in.transferTo(out);
+                    }
+                });
+    }
+
+    /** Relay a job's Server-Sent Events from the member running it; null if it could not be reached. */
+    public SseEmitter events(String node, HttpServletRequest request, String client) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        HttpResponse<InputStream> response;
+        try {
+            response = send(node, request, client, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
+        if (response == null) return null;
+        if (response.statusCode() != 200) {
+            closeQuietly(response.body());
+            emitter.completeWithError(new IOException("Cluster member " + node + " answered " + response.statusCode()));
+            return emitter;
+        }
+        emitter.onTimeout(() -> closeQuietly(response.body()));
+        threads.start("ytd-cluster-events", () -> relay(response.body(), emitter));
+        return emitter;
+    }
+
+    private static void relay(InputStream body, SseEmitter emitter) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String name = null;
+            StringBuilder data = new StringBuilder();
+            for (String line; (line = in.readLine()) != null; ) {
+                if (line.isEmpty()) {
+                    if (data.length() > 0) {
+                        SseEmitter.SseEventBuilder event = SseEmitter.event();
+                        if (name != null) event.name(name);
+                        emitter.send(event.data(data.toString()));
+                    }
+                    name = null;
+                    data.setLength(0);
+                } else if (line.startsWith("event:")) {
+                    name = line.substring(6).trim();
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0) data.append('\n');
+                    data.append(line.substring(line.startsWith("data: ") ? 6 : 5));
+                }
+            }
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // The subscriber or the member went away
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * Serve a file this node does not have from the first live member that does (file
+     * names do not say which member stored them). False if none has it.
+     */
+    public boolean serveFromPeers(HttpServletRequest request, HttpServletResponse response, String client)
+            throws IOException {
+        if (!ring.isEnabled() || ring.isForwarded(request)) return false;
+        for (String node : ring.livePeers()) {
+            HttpResponse<InputStream> r;
+            try {
+                r = send(node, request, client, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (IOException e) {
+                continue;
+            }
+            if (r == null) continue;
+            if (r.statusCode() == HttpServletResponse.SC_NOT_FOUND) {
+                closeQuietly(r.body());
+                continue;
+            }
+            response.setStatus(r.statusCode());
+            copy(r, node).forEach((name, values) -> values.forEach(v -> response.addHeader(name, v)));
+            try (InputStream in = r.body(); OutputStream out = response.getOutputStream()) {
+                in.transferTo(out);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Send the request on to a member. Null when it cannot be connected to (it leaves the
+     * ring); other failures are thrown.
+     */
+    private <T> HttpResponse<T> send(String node, HttpServletRequest request, String client,
+                                     HttpResponse.BodyHandler<T> handler) throws IOException {
+        String query = request.getQueryString();
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(node + request.getRequestURI()
+                + (query == null ? "" : "?" + query)));
+        for (String h : REQUEST_HEADERS) {
+            String v = request.getHeader(h);
+            if (v != null) b.header(h, v);
+        }
+        b.header(ClusterRing.FORWARDED_HEADER, ring.forwardToken());
+        if (client != null) b.header(ClusterRing.CLIENT_HEADER, client);
+        long t0 = System.nanoTime();
+        String outcome = "ok";
+        try {
+            HttpRequest.BodyPublisher body = "GET".equals(request.getMethod())
+                    ? HttpRequest.BodyPublishers.noBody()
+                    : HttpRequest.BodyPublishers.ofByteArray(request.getInputStream().readAllBytes());
+            HttpResponse<T> response = http.send(b.method(request.getMethod(), body).build(), handler);
+            forwarded.incrementAndGet();
+            return response;
+        } catch (ConnectException | HttpConnectTimeoutException e) {
+            outcome = "unreachable";
+            fellBack.incrementAndGet();
+            ring.unreachable(node);
+            return null;
+        } catch (IOException e) {
+            outcome = "error";
+            failed.incrementAndGet();
+            log.warn("Forwarding {} to {} failed: {}", request.getRequestURI(), node, e.getMessage());
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = "error";
+            failed.incrementAndGet();
+            throw new IOException("Interrupted forwarding to " + node, e);
+        } finally {
+            Timer.builder("ytdlp.cluster.forward")
+                    .description("Time to the owner's response headers for requests forwarded to another member")
+                    .tag("outcome", outcome)
+                    .register(meters)
+                    .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static HttpHeaders copy(HttpResponse<?> response, String node) {
+        HttpHeaders headers = new HttpHeaders();
+        for (String h : RESPONSE_HEADERS) {
+            List<String> values = response.headers().allValues(h);
+            if (!values.isEmpty()) headers.put(h, values);
+        }
+        headers.set(NODE_HEADER, node);
+        return headers;
+    }
+
+    private static ResponseEntity<?> badGateway(String node) {
+        return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                .header(NODE_HEADER, node)
+                .body("Cluster member " + node + " did not answer");
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            if (in != null) in.close();
+        } catch (IOException ignored) {
+            // Nothing more to release
+        }
+    }
+
+    /** Requests forwarded, served here because the owner was unreachable, and failed. */
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>(ring.stats());
+        s.put("forwarded", forwarded.get());
+        s.put("servedLocallyOwnerUnreachable", fellBack.get());
+        s.put("failed", failed.get());
+        return s;
+    }
+}
@@ -0,0 +1,368 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster membership and consistent-hash ownership of videos.
+ *
+ * With ytd.cluster.enabled, every node knows the same member list (ytd.cluster.nodes,
+ * plus ytd.cluster.nodes-file, which is re-read while running) and places each live
+ * member on a hash ring at virtual-nodes points. A video ID belongs to the first member
+ * clockwise from its hash, so every node routes it to the same owner and the owner's
+ * format cache and stored downloads serve it; when a member leaves, only its videos move
+ * (to the next member on the ring), and they move back when it returns. Members are
+ * health-checked every check-interval and leave the ring after fail-after failed checks
+ * (or at once when a forward cannot connect to them). Job and batch ids carry the tag of
+ * the node that runs them, so their lookups can be routed too. Forwarded requests carry the shared
+ * ytd.cluster.secret, without which a node will not start clustered: a forwarded request
+ * is served without re-routing and charged to whatever client it names.
+ */
+@Component
+public class ClusterRing {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterRing.class);
+
+    /** Marks a request one node forwarded to another; the receiving node always serves it. */
+    public static final String FORWARDED_HEADER = "X-Ytd-Forwarded";
+    /** The client a forwarded request was made by (see ClientQuotas). */
+    public static final String CLIENT_HEADER = "X-Ytd-Client";
+
+    private final boolean enabled;
+    private final String self;
+    private final List<String> configured;
+    private final Path nodesFile;
+    private final int virtualNodes;
+    private final long intervalMillis;
+    private final int failAfter;
+    private final String secret;
+    private final HttpClient http;
+    private final ScheduledExecutorService ticker;
+    private final Counter rebalances;
+
+    private final Map<String, Member> members = new LinkedHashMap<>(); // guarded by this
+    private volatile NavigableMap<Long, String> ring = Collections.emptyNavigableMap();
+    private String fileContent; // last nodes-file content read; guarded by this
+
+    private static final class Member {
+        final String url;
+        final String tag;
+        boolean up = true; // assume members are up until a check says otherwise
+        int failures;
+        long lastSeen;
+
+        Member(String url) {
+            this.url = url;
+            this.tag = tagOf(url);
+        }
+    }
+
+    public ClusterRing(MeterRegistry meters,
+                       @Value("${ytd.cluster.enabled:false}") boolean enabled,
+                       @Value("${ytd.cluster.self:}") String self,
+                       @Value("${server.port:8080}") int port,
+                       @Value("${ytd.cluster.nodes:}") String nodes,
+                       @Value("${ytd.cluster.nodes-file:}") String nodesFile,
+                       @Value("${ytd.cluster.virtual-nodes:128}") int virtualNodes,
+                       @Value("${ytd.cluster.check-interval:5s}") Duration checkInterval,
+                       @Value("${ytd.cluster.fail-after:2}") int failAfter,
+                       @Value("${ytd.cluster.connect-timeout:2s}") Duration connectTimeout,
+                       @Value("${ytd.cluster.secret:}") String secret) {
+        this.enabled = enabled;
+        this.self = normalize(self == null || self.isBlank() ? "http://localhost:" + port : self);
+        this.configured = parse(nodes);
+        this.nodesFile = nodesFile == null || nodesFile.isBlank() ? null : Paths.get(nodesFile.trim());
+        this.virtualNodes = Math.max(1, virtualNodes);
+        this.intervalMillis = Math.max(100, checkInterval.toMillis());
+        this.failAfter = Math.max(1, failAfter);
+        this.secret = secret == null ? "" : secret.trim();
+        if (enabled && this.secret.isEmpty()) {
+            throw new IllegalArgumentException("ytd.cluster.secret must be set when ytd.cluster.enabled is true");
+        }
+        this.http = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ytd-cluster");
+            t.setDaemon(true);
+            return t;
+        });
+        this.rebalances = Counter.builder("ytdlp.cluster.rebalances")
+                .description("Ring changes from members joining or leaving")
+                .register(meters);
+        Gauge.builder("ytdlp.cluster.members", this, r -> r.liveMembers())
+                .description("Live cluster members, this node included")
+                .register(meters);
+        synchronized (this) {
+            updateMembers(readNodesFile());
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) ticker.scheduleWithFixedDelay(this::tick, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    /** The member a routing key (see VideoIds.cacheKey) belongs to; this node when clustering is off. */
+    public String owner(String key) {
+        NavigableMap<Long, String> r = ring;
+        if (!enabled || r.isEmpty()) return self;
+        Map.Entry<Long, String> e = r.ceilingEntry(hash(key));
+        return (e != null ? e : r.firstEntry()).getValue();
+    }
+
+    /** A new job or batch id, prefixed with this node's tag when clustered. */
+    public String newJobId() {
+        String id = UUID.randomUUID().toString();
+        return enabled ? tagOf(self) + "." + id : id;
+    }
+
+    /** The member that runs a job, from its id; null when that is this node or unknown. */
+    public synchronized String nodeOfJob(String jobId) {
+        int dot = jobId == null ? -1 : jobId.indexOf('.');
+        if (!enabled || dot <= 0) return null;
+        String tag = jobId.substring(0, dot);
+        for (Member m : members.values()) {
+            if (m.tag.equals(tag)) return m.url.equals(self) ? null : m.url;
+        }
+        return null;
+    }
+
+    /** Other members currently in the ring. */
+    public synchronized List<String> livePeers() {
+        List<String> out = new ArrayList<>();
+        for (Member m : members.values()) {
+            if (m.up && !m.url.equals(self)) out.add(m.url);
+        }
+        return out;
+    }
+
+    /** True for a request another member forwarded here. */
+    public boolean isForwarded(HttpServletRequest request) {
+        String token = request.getHeader(FORWARDED_HEADER);
+        // Constant time, so the secret cannot be guessed a byte at a time from response timings
+        return enabled && token != null && MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Value of FORWARDED_HEADER on requests this node forwards. */
+    public String forwardToken() {
+        return secret;
+    }
+
+    /** A forward could not connect: take the member out of the ring until a check finds it again. */
+    public synchronized void unreachable(String url) {
+        Member m = members.get(url);
+        if (m == null || !m.up || m.url.equals(self)) return;
+        m.failures = failAfter;
+        m.up = false;
+        log.warn("Cluster member {} is unreachable, routing its videos elsewhere", url);
+        rebuild();
+    }
+
+    private void tick() {
+        try {
+            List<String> snapshot;
+            synchronized (this) {
+                updateMembers(readNodesFile());
+                snapshot = new ArrayList<>(members.keySet());
+            }
+            for (String url : snapshot) {
+                if (!url.equals(self)) record(url, check(url));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Cluster check failed: {}", e.getMessage());
+        }
+    }
+
+    /** A member is healthy when its health endpoint answers 200. */
+    private boolean check(String url) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/actuator/health"))
+                    .timeout(Duration.ofMillis(Math.max(1000, intervalMillis)))
+                    .GET()
+                    .build();
+            return http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private synchronized void record(String url, boolean healthy) {
+        Member m = members.get(url);
+        if (m == null) return;
+        if (healthy) {
+            m.failures = 0;
+            m.lastSeen = System.currentTimeMillis();
+            if (!m.up) {
+                m.up = true;
+                log.warn("Cluster member {} is back, routing its videos to it again", url);
+                rebuild();
+            }
+        } else if (++m.failures >= failAfter && m.up) {
+            m.up = false;
+            log.warn("Cluster member {} failed {} health checks, routing its videos elsewhere", url, m.failures);
+            rebuild();
+        }
+    }
+
+    /** Members from the configuration and the nodes file (null: unchanged); this node is always one. */
+    private void updateMembers(List<String> fromFile) {
+        if (fromFile == null && !members.isEmpty()) return;
+        Set<String> wanted = new LinkedHashSet<>(configured);
+        if (fromFile != null) wanted.addAll(fromFile);
+        wanted.add(self);
+        boolean changed = members.keySet().retainAll(wanted);
+        for (String url : wanted) {
+            if (!members.containsKey(url)) {
+                members.put(url, new Member(url));
+                changed = true;
+            }
+        }
+        if (changed) rebuild();
+    }
+
+    /** The nodes file's members if it changed since it was last read, else null. */
+    private List<String> readNodesFile() {
+        if (nodesFile == null) return null;
+        String content;
+        try {
+            content = Files.exists(nodesFile) ? Files.readString(nodesFile, StandardCharsets.UTF_8) : "";
+        } catch (IOException e) {
+            log.warn("Cannot read cluster nodes file {}: {}", nodesFile, e.getMessage());
+            return null;
+        }
+        if (content.equals(fileContent)) return null;
+        fileContent = content;
+        List<String> out = new ArrayList<>();
+        for (String line : content.split("\\R")) {
+            String l = line.trim();
+            if (!l.isEmpty() && !l.startsWith("#")) out.add(normalize(l));
+        }
+        return out;
+    }
+
+    private void rebuild() {
+        NavigableMap<Long, String> r = new TreeMap<>();
+        for (Member m : members.values()) {
+            if (!m.up) continue;
+            for (int i = 0; i < virtualNodes; i++) r.put(hash(m.url + "#" + i), m.url);
+        }
+        boolean first = ring.isEmpty();
+        ring = r;
+        if (!first) rebalances.increment();
+    }
+
+    private synchronized int liveMembers() {
+        int n = 0;
+        for (Member m : members.values()) if (m.up) n++;
+        return n;
+    }
+
+    private static List<String> parse(String nodes) {
+        List<String> out = new ArrayList<>();
+        if (nodes == null || nodes.isBlank()) return out;
+        for (String raw : nodes.split(",")) {
+            if (!raw.isBlank()) out.add(normalize(raw));
+        }
+        return out;
+    }
+
+    /** Base URLs compare equal regardless of case and trailing slashes. */
+    static String normalize(String url) {
+        String u = url.trim();
+        while (u.endsWith("/")) u = u.substring(0, u.length() - 1);
+        URI uri = URI.create(u);
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            throw new IllegalArgumentException("Cluster node must be a base URL like http://host:port, got: " + url);
+        }
+        return uri.getScheme().toLowerCase() + "://" + uri.getHost().toLowerCase()
+                + (uri.getPort() < 0 ? "" : ":" + uri.getPort()) + (uri.getRawPath() == null ? "" : uri.getRawPath());
+    }
+
+    private static String tagOf(String url) {
+        return String.format("%016x", hash(url)).substring(0, 8);
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xff);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    /** This node, the members with their health, and ring changes so far. */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", enabled);
+        s.put("self", self);
+        s.put("tag", tagOf(self));
+        List<Map<String, Object>> list = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Member m : members.values()) {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("url", m.url);
+            e.put("tag", m.tag);
+            e.put("up", m.up);
+            e.put("failedChecks", m.failures);
+            e.put("lastSeenMillisAgo", m.lastSeen == 0 ? null : now - m.lastSeen);
+            list.add(e);
+        }
+        s.put("members", list);
+        s.put("virtualNodes", virtualNodes);
+        s.put("rebalances", (long) rebalances.count());
+        return s;
+    }
+}
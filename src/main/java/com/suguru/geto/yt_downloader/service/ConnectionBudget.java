@@ -0,0 +1,180 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.TransferOptions;
+import com.suguru.geto.yt_downloader.model.TransferStats;
+
+/**
+ * Shares a global ceiling of download connections between running downloads.
+ *
+ * Each download asks for a number of parallel fragments (per request, or the
+ * per-job default) and is granted what is left of max-connections, capped at
+ * max-per-job. A download always gets at least one connection, which is what
+ * yt-dlp uses without fragment options, so keep max-connections at or above
+ * ytd.jobs.workers for the ceiling to hold. The grant becomes yt-dlp's
+ * --concurrent-fragments, or the connection count of the external downloader
+ * (e.g. aria2c) when that mode is chosen. Grants are fixed for the run.
+ */
+@Component
+public class ConnectionBudget {
+
+    static final String NATIVE = "native";
+    static final String EXTERNAL = "external";
+
+    private final MeterRegistry meters;
+    private final int defaultPerJob;
+    private final int maxPerJob;
+    private final int maxConnections;
+    private final String externalDownloader;
+    private final String externalArgs;
+    private final boolean externalByDefault;
+
+    private int inUse; // guarded by this
+    private int leases; // guarded by this
+    private long reduced; // grants below what was asked for; guarded by this
+
+    public ConnectionBudget(MeterRegistry meters,
+                            @Value("${ytd.fragments.per-job:4}") int defaultPerJob,
+                            @Value("${ytd.fragments.max-per-job:16}") int maxPerJob,
+                            @Value("${ytd.fragments.max-connections:32}") int maxConnections,
+                            @Value("${ytd.fragments.external-downloader:}") String externalDownloader,
+                            @Value("${ytd.fragments.external-downloader-args:-x {n} -s {n} -k 1M}") String externalArgs,
+                            @Value("${ytd.fragments.downloader:native}") String defaultDownloader) {
+        this.meters = meters;
+        this.maxPerJob = Math.max(1, maxPerJob);
+        this.defaultPerJob = Math.max(1, Math.min(defaultPerJob, this.maxPerJob));
+        this.maxConnections = Math.max(1, maxConnections);
+        this.externalDownloader = externalDownloader == null ? "" : externalDownloader.trim();
+        this.externalArgs = externalArgs == null ? "" : externalArgs.trim();
+        this.externalByDefault = EXTERNAL.equalsIgnoreCase(defaultDownloader == null ? "" : defaultDownloader.trim())
+                && !this.externalDownloader.isEmpty();
+        Gauge.builder("ytdlp.connections.in-use", this, b -> b.inUse())
+                .description("Download connections granted to running downloads")
+                .register(meters);
+    }
+
+    /** Reject options the server cannot honour: a bad fragment count or an unconfigured downloader. */
+    public void validate(TransferOptions options) {
+        if (options == null) return;
+        if (options.getFragments() != null && options.getFragments() < 1) {
+            throw new IllegalArgumentException("fragments must be at least 1");
+        }
+        String d = options.getDownloader();
+        if (d == null || d.equals(NATIVE)) return;
+        if (!d.equals(EXTERNAL)) {
+            throw new IllegalArgumentException("Unknown downloader: " + d + " (native or external)");
+        }
+        if (externalDownloader.isEmpty()) {
+            throw new IllegalArgumentException("No external downloader configured (ytd.fragments.external-downloader)");
+        }
+    }
+
+    /** Take connections for one download; close the lease when it ends. */
+    public Lease acquire(TransferOptions options) {
+        TransferOptions o = options == null ? TransferOptions.DEFAULT : options;
+        int wanted = o.getFragments() == null ? defaultPerJob : Math.max(1, Math.min(o.getFragments(), maxPerJob));
+        boolean external = externalDownloader.isEmpty() ? false
+                : o.getDownloader() == null ? externalByDefault : o.getDownloader().equals(EXTERNAL);
+        int granted;
+        synchronized (this) {
+            granted = Math.max(1, Math.min(wanted, maxConnections - inUse));
+            if (granted < wanted) reduced++;
+            inUse += granted;
+            leases++;
+        }
+        return new Lease(granted, external);
+    }
+
+    private synchronized int inUse() {
+        return inUse;
+    }
+
+    /** Connections held by one download. */
+    public final class Lease implements AutoCloseable {
+
+        private final int connections;
+        private final boolean external;
+        private boolean closed;
+
+        private Lease(int connections, boolean external) {
+            this.connections = connections;
+            this.external = external;
+        }
+
+        public int getConnections() {
+            return connections;
+        }
+
+        /** "native" or the external downloader's name. */
+        public String getDownloader() {
+            return external ? externalDownloader : NATIVE;
+        }
+
+        /** yt-dlp options for this grant. */
+        public List<String> arguments() {
+            List<String> args = new ArrayList<>(4);
+            if (external) {
+                args.add("--downloader");
+                args.add(externalDownloader);
+                if (!externalArgs.isEmpty()) {
+                    args.add("--downloader-args");
+                    args.add(externalDownloader + ":" + externalArgs.replace("{n}", String.valueOf(connections)));
+                }
+            } else if (connections > 1) {
+                args.add("--concurrent-fragments");
+                args.add(String.valueOf(connections));
+            }
+            return args;
+        }
+
+        /** Stats for a finished download, also recorded as ytdlp.download.throughput. */
+        public TransferStats finish(long bytes, long downloadNanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(downloadNanos);
+            TransferStats stats = new TransferStats(connections, getDownloader(), bytes, millis);
+            Long rate = stats.getBytesPerSecond();
+            if (rate != null) {
+                DistributionSummary.builder("ytdlp.download.throughput")
+                        .description("Average download speed of finished downloads")
+                        .baseUnit("bytes/s")
+                        .tag("downloader", getDownloader())
+                        .tag("connections", String.valueOf(connections))
+                        .register(meters)
+                        .record(rate);
+            }
+            return stats;
+        }
+
+        @Override
+        public void close() {
+            synchronized (ConnectionBudget.this) {
+                if (closed) return;
+                closed = true;
+                inUse -= connections;
+                leases--;
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("maxConnections", maxConnections);
+        s.put("inUse", inUse);
+        s.put("downloads", leases);
+        s.put("perJob", defaultPerJob);
+        s.put("maxPerJob", maxPerJob);
+        s.put("externalDownloader", externalDownloader.isEmpty() ? null : externalDownloader);
+        s.put("reducedGrants", reduced);
+        return s;
+    }
+}
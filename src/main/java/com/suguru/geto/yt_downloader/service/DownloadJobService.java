@@ -0,0 +1,405 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.observation.Observation;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.DownloadResult;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+/**
+ * Runs downloads off the request thread on a bounded worker pool.
+ *
+ * Waiting jobs are queued per client and handed to free workers by weighted fair
+ * queuing (start-time fair queuing): each job is tagged with a virtual finish time that
+ * grows by its {@link WorkClass} cost divided by the client's weight, and the job with
+ * the earliest tag that may run goes next, so a client submitting in a loop only delays
+ * itself. Interactive jobs go before batch items. A job may run when its upstream host
+ * is below per-host-concurrency and its client below its running quota. The total number
+ * of waiting jobs is capped, and submissions beyond that (or a client's own quotas, see
+ * {@link ClientQuotas}) fail fast with {@link JobQueueFullException}.
+ * Each job runs as a "ytdlp.job" observation whose parent is the request that
+ * submitted it, so its yt-dlp spans stay linked to that request. A job can be
+ * cancelled while queued or running; running ones have their process tree killed.
+ * Every job is journaled from its {@link JobSpec} (see {@link JobJournal}); one cut
+ * short by shutdown stays unfinished in the journal and keeps its partial files, so it
+ * resumes under the same id after a restart.
+ */
+@Service
+public class DownloadJobService {
+
+    private final ThreadPoolExecutor executor;
+    private final int workers;
+    private final int queueCapacity;
+    private final int perHostLimit;
+    private final int historySize;
+    private final JobEventBroadcaster broadcaster;
+    private final YtDlpMetrics metrics;
+    private final ProcessSupervisor supervisor;
+    private final JobJournal journal;
+    private final ClientQuotas quotas;
+    private final ClusterRing cluster;
+    private volatile boolean stopping;
+
+    private final Map<String, DownloadJob> jobs = new ConcurrentHashMap<>();
+    private final Deque<String> finishedOrder = new ConcurrentLinkedDeque<>();
+
+    // Guarded by "this"
+    private final Map<ClientQuotas.Client, ClientLane> lanes = new LinkedHashMap<>();
+    private final Map<String, Integer> hostRunning = new HashMap<>();
+    private int pending;
+    private int dispatched;
+    private double virtualTime;
+
+    // Jobs not yet finished, for cancel()
+    private final Map<String, Task> active = new ConcurrentHashMap<>();
+
+    // The task running on a worker, for naming its scratch dirs
+    private static final ThreadLocal<Task> CURRENT = new ThreadLocal<>();
+
+    /** One client's waiting jobs, interactive and batch, each in submission order. */
+    private static class ClientLane {
+        final Deque<Task> interactive = new ArrayDeque<>();
+        final Deque<Task> batch = new ArrayDeque<>();
+
+        Deque<Task> of(boolean batchLane) {
+            return batchLane ? batch : interactive;
+        }
+
+        boolean isEmpty() {
+            return interactive.isEmpty() && batch.isEmpty();
+        }
+    }
+
+    private final class Task implements Runnable {
+        final DownloadJob job;
+        final JobWork work;
+        final ClientQuotas.Client client;
+        final WorkClass workClass;
+        final boolean batch;
+        final Consumer<DownloadJob> onFinished;
+        final Observation parent;
+        final ProcessSupervisor.Cancellation cancellation = supervisor.newCancellation();
+        final long queuedAt = System.nanoTime();
+        double startTag; // guarded by the service
+        double finishTag; // guarded by the service
+
+        Task(DownloadJob job, JobSpec spec, JobWork work, ClientQuotas.Client client, Consumer<DownloadJob> onFinished,
+             Observation parent) {
+            this.job = job;
+            this.work = work;
+            this.client = client;
+            this.workClass = WorkClass.of(spec);
+            this.batch = spec.isBatch();
+            this.onFinished = onFinished;
+            this.parent = parent;
+        }
+
+        boolean stopping() {
+            return stopping;
+        }
+
+        @Override
+        public void run() {
+            DownloadJobService.this.run(this);
+        }
+    }
+
+    public DownloadJobService(@Value("${ytd.jobs.workers:4}") int workers,
+                              @Value("${ytd.jobs.queue-capacity:200}") int queueCapacity,
+                              @Value("${ytd.jobs.per-host-concurrency:4}") int perHostLimit,
+                              @Value("${ytd.jobs.history-size:500}") int historySize,
+                              JobEventBroadcaster broadcaster,
+                              ThreadSupport threads,
+                              YtDlpMetrics metrics,
+                              ProcessSupervisor supervisor,
+                              JobJournal journal,
+                              ClientQuotas quotas,
+                              ClusterRing cluster) {
+        this.broadcaster = broadcaster;
+        this.metrics = metrics;
+        this.supervisor = supervisor;
+        this.journal = journal;
+        this.quotas = quotas;
+        this.cluster = cluster;
+        this.workers = Math.max(1, workers);
+        this.queueCapacity = queueCapacity;
+        this.perHostLimit = Math.max(1, perHostLimit);
+        this.historySize = historySize;
+        // With virtual threads the pool size still caps how many downloads run at once
+        this.executor = new ThreadPoolExecutor(this.workers, this.workers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threads.factory("ytd-job"));
+        Gauge.builder("ytdlp.jobs.queued", this, DownloadJobService::getPendingCount)
+                .description("Jobs waiting for a worker or a per-host slot")
+                .register(metrics.getMeters());
+        Gauge.builder("ytdlp.jobs.running", this, DownloadJobService::getRunningCount)
+                .register(metrics.getMeters());
+    }
+
+    /**
+     * Queue a download for the spec's client. The job succeeds when the work's result
+     * reports success; progress the work reports is published to the job's event
+     * subscribers. The spec is journaled before this returns, and the job runs again
+     * from the journal if it has not finished by the next start.
+     */
+    public DownloadJob submit(JobSpec spec, JobWork work) {
+        return submit(spec, work, null);
+    }
+
+    /** As above; onFinished (if given) is called with the job once it has succeeded, failed or been cancelled. */
+    public DownloadJob submit(JobSpec spec, JobWork work, Consumer<DownloadJob> onFinished) {
+        DownloadJob job = new DownloadJob(cluster.newJobId(), spec.kind(), spec.getUrl(), spec.getFormatId(),
+                hostOf(spec.getUrl()));
+        ClientQuotas.Client client = quotas.client(spec.getClient());
+        reserve(client);
+        // Durable before the job can run, so its start/end records always follow it
+        journal.submitted(job.getId(), spec);
+        enqueue(new Task(job, spec, work, client, onFinished, metrics.getObservations().getCurrentObservation()));
+        return job;
+    }
+
+    /** Queue a journaled job again under its old id, e.g. after a restart; queue limits do not apply. */
+    public DownloadJob resume(String id, JobSpec spec, JobWork work) {
+        DownloadJob job = new DownloadJob(id, spec.kind(), spec.getUrl(), spec.getFormatId(), hostOf(spec.getUrl()));
+        ClientQuotas.Client client = quotas.client(spec.getClient());
+        synchronized (this) {
+            pending++;
+            client.queued.incrementAndGet();
+        }
+        enqueue(new Task(job, spec, work, client, null, null));
+        return job;
+    }
+
+    /** Take a queue slot for a new job, or fail if the queue or the client's quota is full. */
+    private synchronized void reserve(ClientQuotas.Client client) {
+        if (pending >= queueCapacity) {
+            throw new JobQueueFullException("Download queue is full (" + queueCapacity + " waiting jobs)");
+        }
+        quotas.admit(client);
+        pending++;
+        client.queued.incrementAndGet();
+    }
+
+    private synchronized void enqueue(Task task) {
+        DownloadJob job = task.job;
+        jobs.put(job.getId(), job);
+        active.put(job.getId(), task);
+        ClientQuotas.Client client = task.client;
+        task.startTag = Math.max(virtualTime, client.lastFinish);
+        task.finishTag = task.startTag + task.workClass.cost() / client.getWeight();
+        client.lastFinish = task.finishTag;
+        lanes.computeIfAbsent(client, c -> new ClientLane()).of(task.batch).addLast(task);
+        dispatch();
+    }
+
+    /** Start waiting jobs while there are free workers and jobs allowed to run. */
+    private void dispatch() {
+        // After shutdown, waiting jobs stay in the journal for the next start
+        while (dispatched < workers && !stopping) {
+            Task next = pick(false);
+            if (next == null) next = pick(true);
+            if (next == null) return;
+            ClientLane lane = lanes.get(next.client);
+            lane.of(next.batch).remove(next);
+            if (lane.isEmpty()) lanes.remove(next.client);
+            pending--;
+            dispatched++;
+            hostRunning.merge(next.job.getHost(), 1, Integer::sum);
+            next.client.queued.decrementAndGet();
+            next.client.running.incrementAndGet();
+            virtualTime = Math.max(virtualTime, next.startTag);
+            quotas.recordWait(next.client, next.workClass, System.nanoTime() - next.queuedAt);
+            executor.execute(next);
+        }
+    }
+
+    /** The runnable job with the earliest finish tag in one lane, or null. */
+    private Task pick(boolean batchLane) {
+        Task best = null;
+        for (Map.Entry<ClientQuotas.Client, ClientLane> e : lanes.entrySet()) {
+            if (quotas.atRunningLimit(e.getKey())) continue;
+            // A client's jobs are tagged in order, so its first runnable one is its best
+            for (Task t : e.getValue().of(batchLane)) {
+                if (hostRunning.getOrDefault(t.job.getHost(), 0) >= perHostLimit) continue;
+                if (best == null || t.finishTag < best.finishTag) best = t;
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** Id of the job running on this thread, or null outside a job. */
+    static String currentJobId() {
+        Task task = CURRENT.get();
+        return task == null ? null : task.job.getId();
+    }
+
+    /**
+     * True when the job running on this thread is being stopped by shutdown; its partial
+     * output should then be left in place for the run that resumes it.
+     */
+    static boolean interruptedByShutdown() {
+        Task task = CURRENT.get();
+        return task != null && task.stopping();
+    }
+
+    public DownloadJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancel a job: a queued one is dropped, a running one has its yt-dlp/ffmpeg
+     * processes killed. Returns the job (already finished ones are left as they are),
+     * or null if it is unknown. A running job reaches CANCELLED once its work unwinds.
+     */
+    public DownloadJob cancel(String id) {
+        DownloadJob job = jobs.get(id);
+        Task task = active.get(id);
+        if (job == null || task == null) return job;
+        task.cancellation.cancel();
+        boolean dequeued;
+        synchronized (this) {
+            ClientLane lane = lanes.get(task.client);
+            dequeued = lane != null && lane.of(task.batch).remove(task);
+            if (dequeued) {
+                if (lane.isEmpty()) lanes.remove(task.client);
+                pending--;
+                task.client.queued.decrementAndGet();
+            }
+        }
+        // Still waiting for a worker: finish it here. Otherwise run() sees the cancellation.
+        if (dequeued) {
+            job.markCancelled();
+            complete(task);
+        }
+        return job;
+    }
+
+    /** All known jobs, newest first, optionally filtered by state. */
+    public List<DownloadJob> listJobs(DownloadJob.State state) {
+        List<DownloadJob> out = new ArrayList<>();
+        for (DownloadJob j : jobs.values()) {
+            if (state == null || j.getState() == state) out.add(j);
+        }
+        out.sort(Comparator.comparing(DownloadJob::getSubmittedAt).reversed());
+        return out;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public synchronized int getRunningCount() {
+        return dispatched;
+    }
+
+    private void run(Task task) {
+        DownloadJob job = task.job;
+        ProcessSupervisor.Cancellation cancellation = task.cancellation;
+        job.markRunning();
+        journal.started(job.getId());
+        Observation observation = Observation.createNotStarted("ytdlp.job", metrics.getObservations())
+                .contextualName("job " + job.getKind())
+                .lowCardinalityKeyValue("kind", job.getKind())
+                .highCardinalityKeyValue("job.id", job.getId())
+                .parentObservation(task.parent)
+                .start();
+        CURRENT.set(task);
+        try (Observation.Scope scope = observation.openScope();
+             ProcessSupervisor.Binding binding = cancellation.bind()) {
+            if (!cancellation.isCancelled()) {
+                DownloadResult result = task.work.run(event -> broadcaster.publish(job, event));
+                job.setTransfer(result.getTransfer());
+                if (result.getTransfer() != null) quotas.charge(task.client, result.getTransfer().getBytes());
+                job.markFinished(result.isSuccess(), result.getMessage(), null, result.getFile());
+            }
+        } catch (Exception e) {
+            observation.error(e);
+            job.markFinished(false, null, e.getMessage(), null);
+        } finally {
+            CURRENT.remove();
+            // Cancelled work usually ends as a failure (killed process, interrupted wait)
+            if (cancellation.isCancelled()) job.markCancelled();
+            // A cancel racing with the end of the work may have left the worker interrupted
+            Thread.interrupted();
+            observation.lowCardinalityKeyValue("outcome", job.getState().name().toLowerCase()).stop();
+            release(task);
+            complete(task);
+        }
+    }
+
+    private void complete(Task task) {
+        DownloadJob job = task.job;
+        active.remove(job.getId());
+        // A job cut short by shutdown stays open in the journal and runs again on the next start
+        if (!stopping || job.getState() == DownloadJob.State.SUCCEEDED) {
+            journal.finished(job.getId(), job.getState());
+        }
+        String phase = job.getState() == DownloadJob.State.SUCCEEDED ? ProgressEvent.PHASE_DONE
+                : job.getState() == DownloadJob.State.CANCELLED ? ProgressEvent.PHASE_CANCELLED
+                : ProgressEvent.PHASE_FAILED;
+        job.setProgress(new ProgressEvent(phase, job.getState().name().toLowerCase()));
+        broadcaster.finish(job);
+        recordFinished(job);
+        if (task.onFinished != null) task.onFinished.accept(job);
+    }
+
+    /** Give back the worker, host slot and client slot of a finished job and start the next. */
+    private synchronized void release(Task task) {
+        dispatched--;
+        hostRunning.computeIfPresent(task.job.getHost(), (h, n) -> n == 1 ? null : n - 1);
+        task.client.running.decrementAndGet();
+        dispatch();
+    }
+
+    private void recordFinished(DownloadJob job) {
+        finishedOrder.addLast(job.getId());
+        while (finishedOrder.size() > historySize) {
+            String oldest = finishedOrder.pollFirst();
+            if (oldest == null) break;
+            jobs.remove(oldest);
+        }
+    }
+
+    /** Upstream host used for per-host limits; YouTube's mirrors and short links share one lane. */
+    static String hostOf(String url) {
+        try {
+            String host = URI.create(url.trim()).getHost();
+            if (host == null) return "unknown";
+            host = host.toLowerCase();
+            for (String prefix : new String[]{"www.", "m.", "music."}) {
+                if (host.startsWith(prefix)) host = host.substring(prefix.length());
+            }
+            if (host.equals("youtu.be") || host.equals("youtube-nocookie.com")) return "youtube.com";
+            return host;
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,191 @@
+package com.suguru.geto.yt_downloader.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Serves finished files from the download directory with HTTP caching and single-range
+ * support (Range / If-Range, ETag, Last-Modified), so clients can resume and seek.
+ * Where the container allows, bodies do not pass through heap buffers: on Tomcat the
+ * connector is handed the file for sendfile(2). Otherwise FileChannel.transferTo writes
+ * to a channel over the response stream, which copies the bytes through the heap.
+ */
+@Service
+public class FileServingService {
+
+    // Tomcat's sendfile request attributes (see org.apache.coyote.Constants)
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private final YoutubeDownloadService youtubeDownloadService;
+
+    public FileServingService(YoutubeDownloadService youtubeDownloadService) {
+        this.youtubeDownloadService = youtubeDownloadService;
+    }
+
+    /**
+     * The file for a name inside the download dir, or null if it is missing, escapes the dir,
+     * or is hidden (the artifact store keeps its index and temp output in dot-files).
+     */
+    public Path resolve(String name) {
+        if (name == null || name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains("\\")) {
+            return null;
+        }
+        Path dir = youtubeDownloadService.getDownloadDir();
+        Path p = dir.resolve(name).normalize();
+        if (!p.startsWith(dir) || !Files.isRegularFile(p)) return null;
+        return p;
+    }
+
+    public void serve(Path file, boolean attachment, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attrs.size();
+        // HTTP dates have second precision
+        long lastModified = attrs.lastModifiedTime().toMillis() / 1000 * 1000;
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (notModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String name = file.getFileName().toString();
+        MediaType type = MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM);
+        response.setContentType(type.toString());
+        ContentDisposition.Builder disposition = attachment ? ContentDisposition.attachment() : ContentDisposition.inline();
+        // Titles are often non-ASCII; those need the RFC 5987 filename* form
+        boolean ascii = StandardCharsets.US_ASCII.newEncoder().canEncode(name);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                (ascii ? disposition.filename(name) : disposition.filename(name, StandardCharsets.UTF_8)).build().toString());
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            long[] r = parseRange(range, length);
+            if (r == UNSATISFIABLE) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            if (r != null) {
+                start = r[0];
+                end = r[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(Math.max(0, count));
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count <= 0) return;
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long pos = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long n = ch.transferTo(pos, remaining, out);
+                if (n <= 0) break;
+                pos += n;
+                remaining -= n;
+            }
+        }
+    }
+
+    /**
+     * Parse a single "bytes=" range into inclusive [start, end]. Returns null to serve the
+     * whole file (absent, malformed or multi-range), UNSATISFIABLE for a 416.
+     */
+    static long[] parseRange(String header, long length) {
+        String h = header.trim();
+        if (!h.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+        String spec = h.substring(6).trim();
+        if (spec.isEmpty() || spec.indexOf(',') >= 0) return null;
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String a = spec.substring(0, dash).trim();
+            String b = spec.substring(dash + 1).trim();
+            long start, end;
+            if (a.isEmpty()) {
+                // Suffix range: last N bytes
+                if (b.isEmpty()) return null;
+                long suffix = Long.parseLong(b);
+                if (suffix <= 0) return UNSATISFIABLE;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(a);
+                end = b.isEmpty() ? length - 1 : Math.min(Long.parseLong(b), length - 1);
+                if (start < 0 || (!b.isEmpty() && Long.parseLong(b) < start)) return null;
+            }
+            if (start >= length) return UNSATISFIABLE;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+        String inm = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (inm != null) {
+            for (String tag : inm.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(etag)) return true;
+            }
+            return false;
+        }
+        try {
+            long ims = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return ims >= 0 && lastModified <= ims;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /** A range applies when there is no If-Range, or it names the current strong ETag or date. */
+    private boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) return true;
+        String v = ifRange.trim();
+        if (v.startsWith("\"") || v.startsWith("W/")) return v.equals(etag);
+        try {
+            long date = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return date == lastModified;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+/**
+ * In-memory cache of extracted format lists keyed by canonical video ID.
+ * Entries expire after a fixed TTL; when the total weight (number of cached
+ * formats) exceeds the limit, least recently used entries are evicted.
+ * Expired entries stay until replaced or evicted, so they can still be served
+ * (see {@link #getStale}) while the upstream is unavailable.
+ */
+@Component
+public class FormatCache {
+
+    private final long ttlNanos;
+    private final long maxWeight;
+
+    // Access-ordered for LRU; guarded by "this"
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    private static class Entry {
+        final List<FormatInfo> formats;
+        final long expiresAt;
+        final int weight;
+        boolean expired;
+
+        Entry(List<FormatInfo> formats, long expiresAt) {
+            this.formats = formats;
+            this.expiresAt = expiresAt;
+            this.weight = Math.max(1, formats.size());
+        }
+    }
+
+    public FormatCache(@Value("${ytd.format-cache.ttl:10m}") Duration ttl,
+                       @Value("${ytd.format-cache.max-weight:50000}") long maxWeight) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxWeight = maxWeight;
+    }
+
+    /** Cached formats for the key, or null on a miss or expired entry. */
+    public synchronized List<FormatInfo> get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (isExpired(e, System.nanoTime())) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.formats;
+    }
+
+    /** Cached formats for the key even if expired, or null; not counted as a hit or miss. */
+    public synchronized List<FormatInfo> getStale(String key) {
+        Entry e = entries.get(key);
+        return e == null ? null : e.formats;
+    }
+
+    public synchronized void put(String key, List<FormatInfo> formats) {
+        if (ttlNanos <= 0 || maxWeight <= 0 || formats == null || formats.isEmpty()) return;
+        Entry old = entries.remove(key);
+        if (old != null) weight -= old.weight;
+        Entry e = new Entry(Collections.unmodifiableList(formats), System.nanoTime() + ttlNanos);
+        entries.put(key, e);
+        weight += e.weight;
+        evictIfNeeded();
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry e = entries.get(key);
+        if (e != null) remove(key, e);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("entries", entries.size());
+        s.put("weight", weight);
+        s.put("maxWeight", maxWeight);
+        s.put("hits", hits);
+        s.put("misses", misses);
+        long total = hits + misses;
+        s.put("hitRatio", total == 0 ? 0.0 : (double) hits / total);
+        s.put("evictions", evictions);
+        s.put("expirations", expirations);
+        return s;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        long now = System.nanoTime();
+        // Walk from the least recently used end until back under the limit
+        while (it.hasNext() && weight > maxWeight) {
+            Map.Entry<String, Entry> me = it.next();
+            if (entries.size() == 1) break; // never evict the entry just inserted
+            it.remove();
+            weight -= me.getValue().weight;
+            if (!isExpired(me.getValue(), now)) evictions++;
+        }
+    }
+
+    /** Whether the entry is past its TTL, counting each expiration once. */
+    private boolean isExpired(Entry e, long now) {
+        if (!e.expired && now - e.expiresAt >= 0) {
+            e.expired = true;
+            expirations++;
+        }
+        return e.expired;
+    }
+
+    private void remove(String key, Entry e) {
+        entries.remove(key);
+        weight -= e.weight;
+    }
+}
@@ -0,0 +1,146 @@
+package com.suguru.geto.yt_downloader.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+/**
+ * Streaming parser for `yt-dlp -J` output. Walks the token stream once, reads only
+ * the top-level "formats" array and skips everything else (thumbnails, subtitles,
+ * fragments, ...) without building a tree, so the multi-MB document is never buffered.
+ */
+public final class FormatJsonParser {
+
+    // The caller owns the stream: it drains the rest of yt-dlp's output after parsing
+    private static final JsonFactory FACTORY = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private FormatJsonParser() {}
+
+    /**
+     * Parse formats from the stream. Stops reading once the "formats" array has been
+     * consumed; callers that need the producer to exit should drain the rest.
+     */
+    public static List<FormatInfo> parse(InputStream in) throws IOException {
+        List<FormatInfo> out = new ArrayList<>();
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object from yt-dlp -J");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                if ("formats".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        FormatInfo f = readFormat(p);
+                        if (f != null) out.add(f);
+                    }
+                    break;
+                }
+                p.skipChildren();
+            }
+        }
+        return out;
+    }
+
+    private static FormatInfo readFormat(JsonParser p) throws IOException {
+        String id = null, ext = null, resolution = null, vcodec = null, acodec = null;
+        String formatNote = null, protocol = null;
+        Integer width = null, height = null;
+        Double fps = null, abr = null, tbr = null;
+        Long filesize = null, filesizeApprox = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken t = p.nextToken();
+            if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY) {
+                p.skipChildren();
+                continue;
+            }
+            if (t == JsonToken.VALUE_NULL) continue;
+            switch (field) {
+                case "format_id": id = p.getText(); break;
+                case "ext": ext = p.getText(); break;
+                case "resolution": resolution = p.getText(); break;
+                case "vcodec": vcodec = p.getText(); break;
+                case "acodec": acodec = p.getText(); break;
+                case "format_note": formatNote = p.getText(); break;
+                case "protocol": protocol = p.getText(); break;
+                case "width": width = t.isNumeric() ? p.getIntValue() : null; break;
+                case "height": height = t.isNumeric() ? p.getIntValue() : null; break;
+                case "fps": fps = t.isNumeric() ? p.getDoubleValue() : null; break;
+                case "abr": abr = t.isNumeric() ? p.getDoubleValue() : null; break;
+                case "tbr": tbr = t.isNumeric() ? p.getDoubleValue() : null; break;
+                case "filesize": filesize = t.isNumeric() ? p.getLongValue() : null; break;
+                case "filesize_approx": filesizeApprox = t.isNumeric() ? p.getLongValue() : null; break;
+                default: break;
+            }
+        }
+
+        if (id == null) return null;
+        // Storyboards (sb0, sb1, ...) are image sprites, not downloadable media
+        if (id.startsWith("sb") || "mhtml".equals(ext)) return null;
+
+        boolean hasVideo = vcodec != null && !vcodec.equals("none");
+        boolean hasAudio = acodec != null && !acodec.equals("none");
+        // Some extractors leave codecs unknown; treat a format with dimensions as video
+        if (vcodec == null && acodec == null) hasVideo = height != null;
+
+        FormatInfo f = new FormatInfo();
+        f.setId(id);
+        f.setExt(ext);
+        f.setVcodec(hasVideo && vcodec != null ? vcodec : "");
+        f.setAcodec(hasAudio ? acodec : "");
+        f.setProtocol(protocol);
+        f.setWidth(width);
+        f.setHeight(height);
+        f.setFrameRate(fps);
+        f.setAudioBitrate(abr);
+        f.setTotalBitrate(tbr);
+        f.setFps(fps == null ? "" : formatNumber(fps));
+        Double bitrate = abr != null ? abr : tbr;
+        // Whole kbps, matching the table parser and the int-based audio ranking
+        f.setAbr(bitrate == null ? "" : Long.toString(Math.round(bitrate)));
+
+        StringBuilder note = new StringBuilder();
+        if (!hasVideo) {
+            f.setType("audio");
+            f.setResolution("");
+            note.append("audio only");
+        } else {
+            f.setType("video");
+            if (width != null && height != null) {
+                f.setResolution(width + "x" + height);
+            } else {
+                f.setResolution(resolution == null ? "" : resolution);
+            }
+            if (!hasAudio) note.append("video only");
+        }
+        if (formatNote != null && !formatNote.isEmpty()) {
+            if (note.length() > 0) note.append(' ');
+            note.append(formatNote);
+        }
+        f.setNote(note.toString());
+
+        if (filesize != null) {
+            f.setFilesize(filesize);
+            f.setFilesizeApprox(false);
+        } else if (filesizeApprox != null) {
+            f.setFilesize(filesizeApprox);
+            f.setFilesizeApprox(true);
+        }
+        return f;
+    }
+
+    private static String formatNumber(double v) {
+        long r = Math.round(v);
+        return Math.abs(v - r) < 0.01 ? Long.toString(r) : Double.toString(v);
+    }
+}
@@ -0,0 +1,75 @@
+package com.suguru.geto.yt_downloader.service;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+/**
+ * Picks the audio stream merged into video downloads, and tells which video formats
+ * need one.
+ */
+public final class FormatRanking {
+
+    private FormatRanking() {}
+
+    /** Id of the best audio-only format (quality note, then bitrate, codec, itag), or null if none. */
+    public static String bestAudioId(List<FormatInfo> formats) {
+        List<FormatInfo> audios = formats.stream()
+                .filter(f -> "audio".equalsIgnoreCase(f.getType()))
+                .collect(Collectors.toList());
+        if (audios.isEmpty()) return null;
+
+        // Rank by note quality first: high > medium > low > unknown
+        audios.sort((a, b) -> {
+            int qa = audioQualityRank(a.getNote());
+            int qb = audioQualityRank(b.getNote());
+            if (qa != qb) return Integer.compare(qb, qa);
+            // Then by abr desc
+            int abrA = parseIntSafe(a.getAbr());
+            int abrB = parseIntSafe(b.getAbr());
+            if (abrA != abrB) return Integer.compare(abrB, abrA);
+            // Then by codec preference (opus > aac > others)
+            int prefA = audioCodecPreference(a.getAcodec());
+            int prefB = audioCodecPreference(b.getAcodec());
+            if (prefA != prefB) return Integer.compare(prefB, prefA);
+            // Finally, stable by id desc (often higher itag ~ higher quality within family)
+            return safeInt(b.getId()) - safeInt(a.getId());
+        });
+
+        return audios.get(0).getId();
+    }
+
+    /** True when a video format already carries audio, so it is downloaded without a merge. */
+    public static boolean isProgressive(FormatInfo f) {
+        if (f == null || !"video".equalsIgnoreCase(f.getType())) return false;
+        if (f.getAcodec() == null || f.getAcodec().isEmpty()) return false;
+        return f.getNote() == null || !f.getNote().toLowerCase().contains("video only");
+    }
+
+    private static int audioQualityRank(String note) {
+        if (note == null) return -1;
+        String n = note.toLowerCase();
+        if (n.contains("high")) return 3;
+        if (n.contains("medium")) return 2;
+        if (n.contains("low")) return 1;
+        return 0;
+    }
+
+    private static int audioCodecPreference(String acodec) {
+        if (acodec == null) return 0;
+        String a = acodec.toLowerCase();
+        if (a.contains("opus") || a.contains("webm")) return 3;
+        if (a.contains("aac") || a.contains("m4a")) return 2;
+        if (a.contains("mp3")) return 1;
+        return 0;
+    }
+
+    private static int safeInt(String s) {
+        try { return Integer.parseInt(s); } catch (Exception e) { return 0; }
+    }
+
+    private static int parseIntSafe(String s) {
+        try { return Integer.parseInt(s); } catch (Exception e) { return 0; }
+    }
+}
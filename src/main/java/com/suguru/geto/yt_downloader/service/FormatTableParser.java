@@ -0,0 +1,394 @@
+package com.suguru.geto.yt_downloader.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+/**
+ * Parser for yt-dlp's human-readable format table (`--list-formats` / `-F`), the
+ * fallback when JSON extraction is off or fails.
+ *
+ * yt-dlp pads every column to a fixed width, right-aligning numbers and left-aligning
+ * text, so each cell of a row can be placed by where it starts or ends relative to the
+ * header. Rows are scanned once by index; no regexes, splits or per-token substrings,
+ * and only the values kept in FormatInfo become strings. Works with both the ASCII
+ * ('|') and box-drawing ('│') tables. Output follows {@link FormatJsonParser}.
+ */
+public final class FormatTableParser {
+
+    // Column kinds
+    private static final int ID = 0, EXT = 1, RESOLUTION = 2, FPS = 3, HDR = 4, CH = 5,
+            FILESIZE = 6, TBR = 7, PROTO = 8, VCODEC = 9, VBR = 10, ACODEC = 11, ABR = 12, ASR = 13,
+            MORE_INFO = 14, OTHER = 15;
+    private static final int KINDS = 16;
+
+    private FormatTableParser() {}
+
+    /** Formats from a `yt-dlp --list-formats` listing; storyboards and malformed rows are skipped. */
+    public static List<FormatInfo> parse(BufferedReader reader) throws IOException {
+        List<FormatInfo> formats = new ArrayList<>();
+        Header header = null;
+        int[] cellStart = new int[KINDS];
+        int[] cellEnd = new int[KINDS];
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (header == null) {
+                header = Header.of(line);
+                continue;
+            }
+            if (isSeparator(line)) continue;
+            FormatInfo f = parseRow(line, header, cellStart, cellEnd);
+            if (f != null) formats.add(f);
+        }
+        return formats;
+    }
+
+    /** Format id to bytes for the rows of a `yt-dlp -F` listing that show a size. */
+    public static Map<String, Long> parseSizes(BufferedReader reader) throws IOException {
+        Map<String, Long> out = new HashMap<>();
+        for (FormatInfo f : parse(reader)) {
+            if (f.getFilesize() != null && f.getFilesize() > 0) out.put(f.getId(), f.getFilesize());
+        }
+        return out;
+    }
+
+    /** "12.3MiB" / "5MB" / "42" style size in bytes, or null when it is not a size. */
+    public static Long humanToBytes(String size) {
+        if (size == null) return null;
+        long v = sizeToBytes(size, 0, size.length());
+        return v < 0 ? null : v;
+    }
+
+    /**
+     * Size in bytes of s[from, to): a decimal number with an optional B, KiB/MiB/GiB/TiB
+     * or KB/MB/GB/TB unit (any case). Returns -1 when the range is not a size.
+     */
+    static long sizeToBytes(CharSequence s, int from, int to) {
+        int unit = from;
+        while (unit < to && (isDigit(s.charAt(unit)) || s.charAt(unit) == '.')) unit++;
+        double value = parseNumber(s, from, unit);
+        if (Double.isNaN(value)) return -1;
+        int n = to - unit;
+        if (n == 0) return unit == to && isWhole(s, from, to) ? (long) value : -1;
+        char u = Character.toUpperCase(s.charAt(unit));
+        if (n == 1) return u == 'B' && isWhole(s, from, unit) ? (long) value : -1;
+        long base;
+        if (n == 3 && upper(s, unit + 1) == 'I' && upper(s, unit + 2) == 'B') {
+            base = 1024;
+        } else if (n == 2 && upper(s, unit + 1) == 'B') {
+            base = 1000;
+        } else {
+            return -1;
+        }
+        switch (u) {
+            case 'K': return (long) (value * base);
+            case 'M': return (long) (value * base * base);
+            case 'G': return (long) (value * base * base * base);
+            case 'T': return (long) (value * base * base * base * base);
+            default: return -1;
+        }
+    }
+
+    /**
+     * Non-negative decimal in s[from, to) (digits with at most one '.'), or NaN.
+     * Whole digits over a power of ten rounds exactly like Double.parseDouble.
+     */
+    static double parseNumber(CharSequence s, int from, int to) {
+        if (from >= to) return Double.NaN;
+        long mantissa = 0;
+        int scale = -1;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                if (scale >= 0) return Double.NaN;
+                scale = 0;
+            } else if (isDigit(c)) {
+                if (++digits > 15) return Double.NaN;
+                mantissa = mantissa * 10 + (c - '0');
+                if (scale >= 0) scale++;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) return Double.NaN;
+        return scale <= 0 ? (double) mantissa : mantissa / POW10[scale];
+    }
+
+    private static final double[] POW10 = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private static FormatInfo parseRow(String line, Header h, int[] cellStart, int[] cellEnd) {
+        for (int k = 0; k < KINDS; k++) {
+            cellStart[k] = -1;
+        }
+        boolean approxSize = false;
+        int last = -1;
+        int len = line.length();
+        int i = 0;
+        while (i < len) {
+            char c = line.charAt(i);
+            if (c == ' ' || c == '\t' || isDelimiter(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < len && !isDelimiter(line.charAt(i)) && line.charAt(i) != ' ' && line.charAt(i) != '\t') i++;
+            int end = i;
+
+            if (h.moreInfoStart >= 0 && start >= h.moreInfoStart) {
+                // Free text to the end of the line
+                int e = len;
+                while (e > start && line.charAt(e - 1) == ' ') e--;
+                cellStart[MORE_INFO] = start;
+                cellEnd[MORE_INFO] = e;
+                break;
+            }
+            if (end - start == 1 && (c == '~' || c == '≈')) {
+                approxSize = true;
+                continue;
+            }
+            int kind = h.kindAt(start, end);
+            if (kind < 0) {
+                // A second word ("audio only", "video only") or an overflowing cell
+                if (last >= 0) cellEnd[last] = end;
+                continue;
+            }
+            cellStart[kind] = start;
+            cellEnd[kind] = end;
+            last = kind;
+        }
+
+        if (cellStart[ID] < 0 || cellStart[EXT] < 0) return null;
+        String id = line.substring(cellStart[ID], cellEnd[ID]);
+        // Storyboards (sb0, sb1, ...) are image sprites, not downloadable media
+        if (id.startsWith("sb") || line.startsWith("mhtml", cellStart[EXT])) return null;
+
+        FormatInfo f = new FormatInfo();
+        f.setId(id);
+        f.setExt(line.substring(cellStart[EXT], cellEnd[EXT]));
+        if (cellStart[PROTO] >= 0) f.setProtocol(line.substring(cellStart[PROTO], cellEnd[PROTO]));
+
+        boolean audioOnly = is(line, cellStart, cellEnd, VCODEC, "audio only")
+                || is(line, cellStart, cellEnd, RESOLUTION, "audio only");
+        boolean videoOnly = is(line, cellStart, cellEnd, ACODEC, "video only");
+        f.setVcodec(audioOnly || cellStart[VCODEC] < 0 ? "" : line.substring(cellStart[VCODEC], cellEnd[VCODEC]));
+        f.setAcodec(videoOnly || cellStart[ACODEC] < 0 || is(line, cellStart, cellEnd, ACODEC, "unknown")
+                ? "" : line.substring(cellStart[ACODEC], cellEnd[ACODEC]));
+
+        if (!audioOnly && cellStart[RESOLUTION] >= 0) {
+            int rs = cellStart[RESOLUTION], re = cellEnd[RESOLUTION];
+            int x = indexOf(line, 'x', rs, re);
+            if (x > rs) {
+                double w = parseNumber(line, rs, x);
+                double hh = parseNumber(line, x + 1, re);
+                if (!Double.isNaN(w) && !Double.isNaN(hh)) {
+                    f.setWidth((int) w);
+                    f.setHeight((int) hh);
+                }
+            }
+            f.setResolution(line.substring(rs, re));
+        } else {
+            f.setResolution("");
+        }
+
+        Double fps = number(line, cellStart, cellEnd, FPS);
+        f.setFrameRate(fps);
+        f.setFps(fps == null ? "" : formatNumber(fps));
+        Double tbr = bitrate(line, cellStart, cellEnd, TBR);
+        Double abr = bitrate(line, cellStart, cellEnd, ABR);
+        f.setTotalBitrate(tbr);
+        f.setAudioBitrate(abr);
+        Double bitrate = abr != null ? abr : tbr;
+        // Whole kbps, matching the JSON parser and the int-based audio ranking
+        f.setAbr(bitrate == null ? "" : Long.toString(Math.round(bitrate)));
+
+        if (cellStart[FILESIZE] >= 0) {
+            int fs = cellStart[FILESIZE];
+            char first = line.charAt(fs);
+            if (first == '~' || first == '≈') {
+                approxSize = true;
+                fs++;
+            }
+            long bytes = sizeToBytes(line, fs, cellEnd[FILESIZE]);
+            if (bytes >= 0) {
+                f.setFilesize(bytes);
+                f.setFilesizeApprox(approxSize);
+            }
+        }
+
+        f.setType(audioOnly ? "audio" : "video");
+        String more = cellStart[MORE_INFO] < 0 ? "" : line.substring(cellStart[MORE_INFO], cellEnd[MORE_INFO]);
+        String prefix = audioOnly ? "audio only" : videoOnly ? "video only" : "";
+        f.setNote(prefix.isEmpty() ? more : more.isEmpty() ? prefix : prefix + " " + more);
+        return f;
+    }
+
+    /** Column positions from the header row ("ID  EXT  RESOLUTION ... MORE INFO"). */
+    private static final class Header {
+        final int[] kind;
+        final int[] start;
+        final int[] end;
+        final boolean[] right;
+        final int count;
+        final int moreInfoStart;
+
+        private Header(int[] kind, int[] start, int[] end, boolean[] right, int count, int moreInfoStart) {
+            this.kind = kind;
+            this.start = start;
+            this.end = end;
+            this.right = right;
+            this.count = count;
+            this.moreInfoStart = moreInfoStart;
+        }
+
+        /** The header for this line, or null if it is not the header. */
+        static Header of(String line) {
+            int len = line.length();
+            int[] kind = new int[KINDS + 8];
+            int[] start = new int[KINDS + 8];
+            int[] end = new int[KINDS + 8];
+            boolean[] right = new boolean[KINDS + 8];
+            int n = 0;
+            int moreInfo = -1;
+            int i = 0;
+            while (i < len && n < kind.length) {
+                char c = line.charAt(i);
+                if (c == ' ' || c == '\t' || isDelimiter(c)) {
+                    i++;
+                    continue;
+                }
+                int s = i;
+                while (i < len && line.charAt(i) != ' ' && !isDelimiter(line.charAt(i))) i++;
+                int k = kindOf(line, s, i);
+                if (n == 0 && k != ID) return null;
+                if (k == MORE_INFO) {
+                    moreInfo = s;
+                    break;
+                }
+                kind[n] = k;
+                start[n] = s;
+                end[n] = i;
+                // HDR ("10", "12") is text to yt-dlp and left-aligned like it
+                right[n] = k == FPS || k == CH || k == FILESIZE || k == TBR
+                        || k == VBR || k == ABR || k == ASR;
+                n++;
+            }
+            if (n < 3 || kind[1] != EXT) return null;
+            return new Header(kind, start, end, right, n, moreInfo);
+        }
+
+        /** Column of a cell: numbers end where their header ends, text starts where it starts. */
+        int kindAt(int s, int e) {
+            for (int c = 0; c < count; c++) {
+                if (right[c] ? end[c] == e : start[c] == s) return kind[c] == OTHER ? -1 : kind[c];
+            }
+            return -1;
+        }
+
+        private static int kindOf(String l, int s, int e) {
+            switch (e - s) {
+                case 2:
+                    if (l.startsWith("ID", s)) return ID;
+                    if (l.startsWith("CH", s)) return CH;
+                    return OTHER;
+                case 3:
+                    if (l.startsWith("EXT", s)) return EXT;
+                    if (l.startsWith("FPS", s)) return FPS;
+                    if (l.startsWith("HDR", s)) return HDR;
+                    if (l.startsWith("TBR", s)) return TBR;
+                    if (l.startsWith("VBR", s)) return VBR;
+                    if (l.startsWith("ABR", s)) return ABR;
+                    if (l.startsWith("ASR", s)) return ASR;
+                    return OTHER;
+                case 4:
+                    if (l.startsWith("MORE", s)) return MORE_INFO;
+                    return OTHER;
+                case 5:
+                    if (l.startsWith("PROTO", s)) return PROTO;
+                    return OTHER;
+                case 6:
+                    if (l.startsWith("VCODEC", s)) return VCODEC;
+                    if (l.startsWith("ACODEC", s)) return ACODEC;
+                    return OTHER;
+                case 8:
+                    if (l.startsWith("FILESIZE", s)) return FILESIZE;
+                    return OTHER;
+                case 10:
+                    if (l.startsWith("RESOLUTION", s)) return RESOLUTION;
+                    return OTHER;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    private static boolean isSeparator(String line) {
+        boolean any = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '-' || c == '─' || c == '┼') {
+                any = true;
+            } else if (c != ' ' && !isDelimiter(c)) {
+                return false;
+            }
+        }
+        return any;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == '|' || c == '│';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static char upper(CharSequence s, int i) {
+        return Character.toUpperCase(s.charAt(i));
+    }
+
+    private static boolean isWhole(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '.') return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(String s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static boolean is(String line, int[] cellStart, int[] cellEnd, int kind, String text) {
+        return cellStart[kind] >= 0 && cellEnd[kind] - cellStart[kind] == text.length()
+                && line.startsWith(text, cellStart[kind]);
+    }
+
+    private static Double number(String line, int[] cellStart, int[] cellEnd, int kind) {
+        if (cellStart[kind] < 0) return null;
+        double v = parseNumber(line, cellStart[kind], cellEnd[kind]);
+        return Double.isNaN(v) ? null : v;
+    }
+
+    /** "130k" style bitrate in kbps. */
+    private static Double bitrate(String line, int[] cellStart, int[] cellEnd, int kind) {
+        if (cellStart[kind] < 0) return null;
+        int e = cellEnd[kind];
+        if (e > cellStart[kind] && line.charAt(e - 1) == 'k') e--;
+        double v = parseNumber(line, cellStart[kind], e);
+        return Double.isNaN(v) ? null : v;
+    }
+
+    private static String formatNumber(double v) {
+        long r = Math.round(v);
+        return Math.abs(v - r) < 0.01 ? Long.toString(r) : Double.toString(v);
+    }
+}
@@ -0,0 +1,165 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+/**
+ * Signed, time-limited tokens that /formats attaches to each video format. A token
+ * records the video, the format id, whether the format is progressive and which audio
+ * to merge with it, so a download that presents it skips looking the formats up again.
+ *
+ * Tokens are HMAC-SHA256 signed with ytd.format-token.secret (a random key per start
+ * when blank). A token that is expired, forged, signed by another key or issued for
+ * another video/format is ignored and the download looks the formats up as before.
+ */
+@Component
+public class FormatTokens {
+
+    private static final String VERSION = "1";
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+
+    private final byte[] key;
+    private final long ttlMillis;
+    private final Counter issued;
+    private final Counter accepted;
+    private final Counter expired;
+    private final Counter rejected;
+
+    /** What a verified token vouches for. */
+    public static final class Claims {
+        private final boolean progressive;
+        private final String bestAudioId;
+
+        Claims(boolean progressive, String bestAudioId) {
+            this.progressive = progressive;
+            this.bestAudioId = bestAudioId;
+        }
+
+        public boolean isProgressive() { return progressive; }
+        public String getBestAudioId() { return bestAudioId; }
+    }
+
+    public FormatTokens(MeterRegistry meters,
+                        @Value("${ytd.format-token.secret:}") String secret,
+                        @Value("${ytd.format-token.ttl:10m}") Duration ttl) {
+        if (secret == null || secret.isBlank()) {
+            this.key = new byte[32];
+            new SecureRandom().nextBytes(this.key);
+        } else {
+            this.key = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.ttlMillis = ttl.toMillis();
+        this.issued = counter(meters, "issued");
+        this.accepted = counter(meters, "accepted");
+        this.expired = counter(meters, "expired");
+        this.rejected = counter(meters, "rejected");
+    }
+
+    private static Counter counter(MeterRegistry meters, String result) {
+        return Counter.builder("ytdlp.format-token")
+                .description("Format tokens issued by /formats and checked by downloads")
+                .tag("result", result)
+                .register(meters);
+    }
+
+    /** Copies of the formats, video formats carrying a token for this URL. */
+    public List<FormatInfo> withTokens(String url, List<FormatInfo> formats) {
+        String video = videoKey(url);
+        String bestAudioId = FormatRanking.bestAudioId(formats);
+        long expires = System.currentTimeMillis() + ttlMillis;
+        List<FormatInfo> out = new ArrayList<>(formats.size());
+        for (FormatInfo f : formats) {
+            FormatInfo c = f.copy();
+            if ("video".equalsIgnoreCase(f.getType()) && f.getId() != null) {
+                boolean progressive = FormatRanking.isProgressive(f);
+                // Only non-progressive formats need an audio id
+                String audio = progressive || bestAudioId == null ? "" : bestAudioId;
+                c.setToken(sign(String.join("|", VERSION, video, f.getId(), progressive ? "p" : "m", audio,
+                        Long.toString(expires))));
+                issued.increment();
+            }
+            out.add(c);
+        }
+        return out;
+    }
+
+    /** The token's claims if it is genuine, unexpired and for this URL and format; otherwise null. */
+    public Claims verify(String token, String url, String formatId) {
+        if (token == null || token.isBlank()) return null;
+        String[] f = open(token);
+        if (f == null || f.length != 6 || !VERSION.equals(f[0])
+                || !f[1].equals(videoKey(url)) || !f[2].equals(formatId)) {
+            rejected.increment();
+            return null;
+        }
+        long expires;
+        try {
+            expires = Long.parseLong(f[5]);
+        } catch (NumberFormatException e) {
+            rejected.increment();
+            return null;
+        }
+        if (System.currentTimeMillis() > expires) {
+            expired.increment();
+            return null;
+        }
+        boolean progressive = "p".equals(f[3]);
+        if (!progressive && f[4].isEmpty()) {
+            rejected.increment();
+            return null;
+        }
+        accepted.increment();
+        return new Claims(progressive, progressive ? null : f[4]);
+    }
+
+    /** The video ID for YouTube URLs, so any URL shape of the same video matches; else the URL. */
+    private static String videoKey(String url) {
+        String id = VideoIds.canonicalize(url);
+        return id != null ? id : url.trim();
+    }
+
+    private String sign(String payload) {
+        byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+        return B64.encodeToString(body) + "." + B64.encodeToString(mac(body));
+    }
+
+    /** Payload fields of a correctly signed token, or null. */
+    private String[] open(String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) return null;
+        try {
+            byte[] body = B64D.decode(token.substring(0, dot));
+            byte[] sig = B64D.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(sig, mac(body))) return null;
+            return new String(body, StandardCharsets.UTF_8).split("\\|", -1);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] mac(byte[] body) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(body);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+}
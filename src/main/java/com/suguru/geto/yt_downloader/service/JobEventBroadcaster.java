@@ -0,0 +1,187 @@
+package com.suguru.geto.yt_downloader.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+/**
+ * Publishes job progress to Server-Sent Event subscribers.
+ * Updates are coalesced per job: at most one "progress" event per interval, always
+ * carrying the latest values. The first event of each phase a job enters and the final
+ * "done" event go out immediately; going back to a phase already seen (the audio download
+ * after the video one) is rate-limited like any other update. A running job whose byte
+ * count has not moved for the stall threshold is re-announced with stalled=true.
+ */
+@Component
+public class JobEventBroadcaster {
+
+    private final long minIntervalMs;
+    private final long stallAfterMs;
+    private final long emitterTimeoutMs;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker;
+
+    private static class Channel {
+        final DownloadJob job;
+        final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        ProgressEvent pending; // guarded by this
+        long lastSentAt;
+        String lastPhase;
+        final Set<String> phasesSent = new HashSet<>();
+        Long lastBytes;
+        long lastBytesChangeAt = System.currentTimeMillis();
+        boolean stalledSent;
+
+        Channel(DownloadJob job) {
+            this.job = job;
+        }
+    }
+
+    public JobEventBroadcaster(@Value("${ytd.progress.min-interval-ms:500}") long minIntervalMs,
+                               @Value("${ytd.progress.stall-after-ms:60000}") long stallAfterMs,
+                               @Value("${ytd.progress.emitter-timeout-ms:21600000}") long emitterTimeoutMs) {
+        this.minIntervalMs = minIntervalMs;
+        this.stallAfterMs = stallAfterMs;
+        this.emitterTimeoutMs = emitterTimeoutMs;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ytd-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(50, minIntervalMs);
+        ticker.scheduleAtFixedRate(this::tick, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Subscribe to a job; the current state is sent right away. */
+    public SseEmitter subscribe(DownloadJob job) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        if (job.isFinished()) {
+            send(emitter, "done", job);
+            emitter.complete();
+            return emitter;
+        }
+        Channel ch = channels.computeIfAbsent(job.getId(), id -> new Channel(job));
+        ch.emitters.add(emitter);
+        Runnable remove = () -> ch.emitters.remove(emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        ProgressEvent last = job.getProgress();
+        send(emitter, "state", job);
+        if (last != null) send(emitter, "progress", last);
+        // The job may have finished while we were registering, after finish() had already
+        // taken the channel; close this stream here rather than relying on that call
+        if (job.isFinished() && ch.emitters.remove(emitter)) {
+            send(emitter, "done", job);
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /** Called for every parsed progress line of a running job. */
+    public void publish(DownloadJob job, ProgressEvent event) {
+        job.setProgress(event);
+        Channel ch = channels.computeIfAbsent(job.getId(), id -> new Channel(job));
+        ProgressEvent toSend = null;
+        synchronized (ch) {
+            long now = System.currentTimeMillis();
+            if (event.getDownloadedBytes() != null && !event.getDownloadedBytes().equals(ch.lastBytes)) {
+                ch.lastBytes = event.getDownloadedBytes();
+                ch.lastBytesChangeAt = now;
+                ch.stalledSent = false;
+            } else if (!event.getPhase().equals(ch.lastPhase)) {
+                ch.lastBytesChangeAt = now;
+            }
+            ch.lastPhase = event.getPhase();
+            if (!ch.phasesSent.contains(event.getPhase()) || now - ch.lastSentAt >= minIntervalMs) {
+                ch.lastSentAt = now;
+                ch.phasesSent.add(event.getPhase());
+                ch.pending = null;
+                toSend = event;
+            } else {
+                ch.pending = event;
+            }
+        }
+        if (toSend != null) broadcast(ch, "progress", toSend);
+    }
+
+    /** Send the final state to subscribers and close their streams. */
+    public void finish(DownloadJob job) {
+        Channel ch = channels.remove(job.getId());
+        if (ch == null) return;
+        ProgressEvent pending;
+        synchronized (ch) {
+            pending = ch.pending;
+            ch.pending = null;
+        }
+        if (pending != null) broadcast(ch, "progress", pending);
+        broadcast(ch, "done", job);
+        for (SseEmitter e : ch.emitters) {
+            e.complete();
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        for (Channel ch : channels.values()) {
+            ProgressEvent toSend = null;
+            synchronized (ch) {
+                if (ch.pending != null && now - ch.lastSentAt >= minIntervalMs) {
+                    toSend = ch.pending;
+                    ch.pending = null;
+                    ch.lastSentAt = now;
+                } else if (!ch.stalledSent && stallAfterMs > 0
+                        && ch.job.getState() == DownloadJob.State.RUNNING
+                        && now - ch.lastBytesChangeAt >= stallAfterMs) {
+                    ProgressEvent last = ch.job.getProgress();
+                    toSend = last == null ? new ProgressEvent(ProgressEvent.PHASE_DOWNLOAD, null) : last.copy();
+                    toSend.setStalled(true);
+                    toSend.setTimestamp(now);
+                    ch.job.setProgress(toSend);
+                    ch.stalledSent = true;
+                    ch.lastSentAt = now;
+                }
+            }
+            if (toSend != null) broadcast(ch, "progress", toSend);
+            // Drop channels nobody listens to once the job is gone
+            if (ch.emitters.isEmpty() && ch.job.isFinished()) channels.remove(ch.job.getId(), ch);
+        }
+    }
+
+    private void broadcast(Channel ch, String name, Object data) {
+        for (SseEmitter e : ch.emitters) {
+            if (!send(e, name, data)) ch.emitters.remove(e);
+        }
+    }
+
+    private boolean send(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+}
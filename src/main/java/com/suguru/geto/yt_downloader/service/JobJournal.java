@@ -0,0 +1,441 @@
+package com.suguru.geto.yt_downloader.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+
+/**
+ * Append-only journal of download jobs, so a restart or crash loses no accepted work.
+ *
+ * Each journaled job gets a submit record (its {@link JobSpec}), a start record per run
+ * and an end record once it has finished. Appends are group-committed: one writer thread
+ * writes whatever has queued up since its last write and fsyncs once for all of it. A
+ * submission returns only once its record is durable; start and end records do not wait.
+ * On startup the journal is replayed, jobs without an end record are offered for resuming
+ * (unless they already started max-attempts times), the file is rewritten with just those
+ * jobs, and temp output no resumed job owns is deleted. Every compact-after records the
+ * file is rewritten the same way, so it stays proportional to the unfinished jobs.
+ *
+ * A job's in-memory state changes together with queueing its record, under the lock on
+ * {@code live}; compaction writes out whatever is still queued under the same lock before
+ * it takes its snapshot, so no record lands in the new file on top of a snapshot that
+ * already counts it.
+ */
+@Component
+public class JobJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(JobJournal.class);
+
+    static final String FILE = ".ytd-journal";
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private static final int MAX_BATCH = 1024;
+    private static final long SUBMIT_WAIT_MS = 5_000;
+
+    /** One line of the journal. */
+    public static class Record {
+        public String type; // submit, start or end
+        public String id;
+        public JobSpec spec; // submit
+        public Integer attempts; // submit: runs started before the file was last rewritten
+        public String state; // end
+    }
+
+    /** An unfinished job found when the journal was opened. */
+    public static final class Pending {
+        private final String id;
+        private final JobSpec spec;
+        private final int attempts;
+
+        Pending(String id, JobSpec spec, int attempts) {
+            this.id = id;
+            this.spec = spec;
+            this.attempts = attempts;
+        }
+
+        public String getId() { return id; }
+        public JobSpec getSpec() { return spec; }
+        public int getAttempts() { return attempts; }
+    }
+
+    private static final class Live {
+        final JobSpec spec;
+        volatile int attempts;
+
+        Live(JobSpec spec, int attempts) {
+            this.spec = spec;
+            this.attempts = attempts;
+        }
+    }
+
+    private static final class Append {
+        final byte[] line;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Append(byte[] line) {
+            this.line = line;
+        }
+    }
+
+    private static final Append STOP = new Append(new byte[0]);
+
+    private final boolean enabled;
+    private final boolean fsync;
+    private final int compactAfter;
+    private final int maxAttempts;
+    private final Path downloadDir;
+    private final Path file;
+    private final Timer commitTimer;
+    private final DistributionSummary batchSize;
+
+    private final Map<String, Live> live = Collections.synchronizedMap(new LinkedHashMap<>()); // in submit order
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    private volatile boolean open;
+    private volatile List<Pending> recovered = List.of();
+    private Thread writer;
+    private FileChannel channel; // writer thread only, once open
+    private int sinceCompaction; // writer thread only
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private int abandoned;
+    private int unreadable;
+
+    public JobJournal(MeterRegistry meters,
+                      @Value("${ytd.journal.enabled:true}") boolean enabled,
+                      @Value("${ytd.journal.fsync:true}") boolean fsync,
+                      @Value("${ytd.journal.compact-after:1000}") int compactAfter,
+                      @Value("${ytd.journal.max-attempts:3}") int maxAttempts,
+                      @Value("${ytd.download-dir:}") String downloadDir) {
+        this.enabled = enabled;
+        this.fsync = fsync;
+        this.compactAfter = Math.max(1, compactAfter);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.downloadDir = YoutubeDownloadService.resolveDownloadDir(downloadDir);
+        this.file = this.downloadDir.resolve(FILE);
+        this.commitTimer = Timer.builder("ytdlp.journal.commit")
+                .description("Time to write and fsync one group of journal records")
+                .register(meters);
+        this.batchSize = DistributionSummary.builder("ytdlp.journal.batch")
+                .description("Journal records written per commit")
+                .register(meters);
+    }
+
+    @PostConstruct
+    public void open() {
+        Set<String> keep = new HashSet<>();
+        if (enabled) {
+            try {
+                Files.createDirectories(downloadDir);
+                replay();
+                List<Pending> pending = new ArrayList<>();
+                for (Map.Entry<String, Live> me : snapshot()) {
+                    Live l = me.getValue();
+                    if (l.attempts >= maxAttempts) {
+                        log.warn("Not resuming job {} ({}): interrupted {} times",
+                                me.getKey(), l.spec.getUrl(), l.attempts);
+                        live.remove(me.getKey());
+                        abandoned++;
+                    } else {
+                        pending.add(new Pending(me.getKey(), l.spec, l.attempts));
+                    }
+                }
+                rewrite(snapshot());
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                writer = new Thread(this::writeLoop, "ytd-journal");
+                writer.setDaemon(true);
+                writer.start();
+                recovered = List.copyOf(pending);
+                for (Pending p : pending) keep.add(p.getId());
+                open = true;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Job journal unavailable, jobs will not survive a restart: {}", e.getMessage());
+                live.clear();
+                keep.clear();
+            }
+        }
+        ArtifactStore.deleteAbandonedScratch(downloadDir, keep);
+    }
+
+    /** Unfinished jobs found at startup, oldest first, to run again under the same ids. */
+    public List<Pending> recovered() {
+        return recovered;
+    }
+
+    /** Record a new job; returns once the record is on disk. */
+    public void submitted(String id, JobSpec spec) {
+        if (!open) return;
+        Record r = new Record();
+        r.type = "submit";
+        r.id = id;
+        r.spec = spec;
+        byte[] line = serialize(r);
+        Append a;
+        synchronized (live) {
+            live.put(id, new Live(spec, 0));
+            a = append(line);
+        }
+        await(a, id);
+    }
+
+    /** Record that a journaled job started a run (attempts count towards max-attempts). */
+    public void started(String id) {
+        Record r = new Record();
+        r.type = "start";
+        r.id = id;
+        byte[] line = serialize(r);
+        synchronized (live) {
+            Live l = live.get(id);
+            if (l == null) return;
+            l.attempts++;
+            append(line);
+        }
+    }
+
+    /** Record that a journaled job is done with for good, whatever the outcome. */
+    public void finished(String id, DownloadJob.State state) {
+        Record r = new Record();
+        r.type = "end";
+        r.id = id;
+        r.state = state.name();
+        byte[] line = serialize(r);
+        synchronized (live) {
+            if (live.remove(id) == null) return;
+            append(line);
+        }
+    }
+
+    private static byte[] serialize(Record r) {
+        try {
+            return (MAPPER.writeValueAsString(r) + "\n").getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unserializable journal record", e);
+        }
+    }
+
+    /** Queue a record; callers hold the lock on {@code live} while they change it to match. */
+    private Append append(byte[] line) {
+        Append a = new Append(line);
+        if (open) queue.add(a);
+        else a.done.complete(null);
+        return a;
+    }
+
+    private static void await(Append a, String id) {
+        try {
+            a.done.get(SUBMIT_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Job {} may not survive a restart: journal write {}", id,
+                    e instanceof TimeoutException ? "timed out" : "failed: " + e.getCause().getMessage());
+        }
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            // Everything that queued up while the last commit was syncing goes out in this one
+            queue.drainTo(batch, MAX_BATCH);
+            stopping = batch.remove(STOP);
+            if (stopping) queue.drainTo(batch);
+            if (!batch.isEmpty()) commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Append> batch) {
+        write(batch);
+        sinceCompaction += batch.size();
+        if (sinceCompaction >= compactAfter) compact();
+    }
+
+    private void write(List<Append> batch) {
+        long t0 = System.nanoTime();
+        try {
+            int size = 0;
+            for (Append a : batch) size += a.line.length;
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            for (Append a : batch) buf.put(a.line);
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            if (fsync) channel.force(false);
+            for (Append a : batch) a.done.complete(null);
+        } catch (IOException e) {
+            log.warn("Job journal write failed: {}", e.getMessage());
+            for (Append a : batch) a.done.completeExceptionally(e);
+        }
+        commitTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        batchSize.record(batch.size());
+        records.addAndGet(batch.size());
+        commits.incrementAndGet();
+    }
+
+    /** Rewrite the file with only the unfinished jobs and keep appending to the new one. */
+    private void compact() {
+        sinceCompaction = 0;
+        List<Map.Entry<String, Live>> jobs;
+        synchronized (live) {
+            // Queued records are already reflected in live; they go to the old file, not on top of the new one
+            List<Append> queued = new ArrayList<>();
+            queue.drainTo(queued);
+            boolean stopping = queued.remove(STOP);
+            if (!queued.isEmpty()) write(queued);
+            if (stopping) queue.add(STOP);
+            jobs = snapshot();
+        }
+        try {
+            channel.close();
+            rewrite(jobs);
+            compactions.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("Could not compact the job journal: {}", e.getMessage());
+        }
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("Could not reopen the job journal: {}", e.getMessage());
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.isRegularFile(file)) return;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Record r;
+                try {
+                    r = MAPPER.readValue(line, Record.class);
+                } catch (JsonProcessingException e) {
+                    unreadable++; // e.g. the last line of a write cut short by a crash
+                    continue;
+                }
+                if (r.id == null || r.type == null) continue;
+                if (r.type.equals("submit") && r.spec != null) {
+                    live.put(r.id, new Live(r.spec, r.attempts == null ? 0 : r.attempts));
+                } else if (r.type.equals("start")) {
+                    Live l = live.get(r.id);
+                    if (l != null) l.attempts++;
+                } else if (r.type.equals("end")) {
+                    live.remove(r.id);
+                }
+            }
+        }
+    }
+
+    /** Write the unfinished jobs to a temp file and atomically replace the journal with it. */
+    private void rewrite(List<Map.Entry<String, Live>> jobs) throws IOException {
+        Path tmp = downloadDir.resolve(FILE + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Live> me : jobs) {
+                Record r = new Record();
+                r.type = "submit";
+                r.id = me.getKey();
+                r.spec = me.getValue().spec;
+                r.attempts = me.getValue().attempts;
+                out.write(MAPPER.writeValueAsString(r));
+                out.write('\n');
+            }
+        }
+        try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            c.force(true);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** The unfinished jobs as they are now; attempts are copied, as started() goes on counting. */
+    private List<Map.Entry<String, Live>> snapshot() {
+        synchronized (live) {
+            List<Map.Entry<String, Live>> jobs = new ArrayList<>(live.size());
+            for (Map.Entry<String, Live> me : live.entrySet()) {
+                jobs.add(Map.entry(me.getKey(), new Live(me.getValue().spec, me.getValue().attempts)));
+            }
+            return jobs;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", open);
+        s.put("fsync", fsync);
+        s.put("unfinished", live.size());
+        s.put("records", records.get());
+        s.put("commits", commits.get());
+        s.put("compactions", compactions.get());
+        s.put("recovered", recovered.size());
+        s.put("abandoned", abandoned);
+        s.put("unreadableLines", unreadable);
+        return s;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!open) return;
+        open = false;
+        queue.add(STOP);
+        try {
+            writer.join(SUBMIT_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Every record was forced already, or its writer was told it failed
+        }
+    }
+}
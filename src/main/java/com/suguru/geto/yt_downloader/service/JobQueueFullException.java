@@ -0,0 +1,10 @@
+package com.suguru.geto.yt_downloader.service;
+
+/**
+ * Thrown when the download job queue is at capacity. Controllers map this to HTTP 429.
+ */
+public class JobQueueFullException extends RuntimeException {
+    public JobQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,43 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+
+/**
+ * Resumes the jobs the journal found unfinished at startup, under their old ids, once the
+ * app is up. Their downloads continue from the partial files left in their scratch dirs;
+ * finished artifacts are served from the store. Batch items come back as standalone jobs,
+ * since batches themselves are not journaled.
+ */
+@Component
+public class JobRecovery {
+
+    private static final Logger log = LoggerFactory.getLogger(JobRecovery.class);
+
+    private final JobJournal journal;
+    private final DownloadJobService jobs;
+    private final YoutubeDownloadService downloads;
+
+    public JobRecovery(JobJournal journal, DownloadJobService jobs, YoutubeDownloadService downloads) {
+        this.journal = journal;
+        this.jobs = jobs;
+        this.downloads = downloads;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        for (JobJournal.Pending p : journal.recovered()) {
+            try {
+                jobs.resume(p.getId(), p.getSpec(), downloads.work(p.getSpec()));
+            } catch (RuntimeException e) {
+                log.warn("Could not resume job {}: {}", p.getId(), e.getMessage());
+                journal.finished(p.getId(), DownloadJob.State.FAILED);
+            }
+        }
+    }
+}
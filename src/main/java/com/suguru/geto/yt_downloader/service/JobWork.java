@@ -0,0 +1,12 @@
+package com.suguru.geto.yt_downloader.service;
+
+import com.suguru.geto.yt_downloader.model.DownloadResult;
+
+/**
+ * The body of a download job; reports progress to the listener the job engine supplies.
+ */
+@FunctionalInterface
+public interface JobWork {
+
+    DownloadResult run(ProgressListener progress) throws Exception;
+}
@@ -0,0 +1,367 @@
+package com.suguru.geto.yt_downloader.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps yt-dlp (and the ffmpeg it spawns) from outliving its purpose.
+ *
+ * Every process is watched with a deadline for its current phase (extract, download,
+ * post-process); past it, the whole process tree is killed. Processes started while
+ * a {@link Cancellation} is bound to the thread belong to it, so cancelling a job
+ * kills its tree. When a watched process exits, any of its children still running
+ * (e.g. ffmpeg after yt-dlp was killed) are killed too. Long-lived workers are
+ * watched without a deadline and leased to one request at a time, which gives them
+ * that request's phase deadline and cancellation. Live children are listed in a
+ * per-JVM file under the download dir, rewritten by the reaper when they change; on
+ * startup, children left by a JVM that died are killed, and on shutdown everything
+ * still running is.
+ */
+@Component
+public class ProcessSupervisor {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+    /** A phase of a yt-dlp run, each with its own timeout. */
+    public enum Phase { EXTRACT, DOWNLOAD, POSTPROCESS }
+
+    private final Map<Phase, Long> timeoutNanos = new LinkedHashMap<>();
+    private final long intervalMillis;
+    private final Path pidDir;
+    private final Path pidFile;
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Cancellation> current = new ThreadLocal<>();
+    private final ScheduledExecutorService ticker;
+    private final AtomicBoolean pidsChanged = new AtomicBoolean();
+
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+    private final AtomicLong orphansKilled = new AtomicLong();
+
+    public ProcessSupervisor(@Value("${ytd.timeouts.extract:2m}") Duration extract,
+                             @Value("${ytd.timeouts.download:3h}") Duration download,
+                             @Value("${ytd.timeouts.postprocess:30m}") Duration postprocess,
+                             @Value("${ytd.reaper.interval:5s}") Duration interval,
+                             @Value("${ytd.download-dir:}") String downloadDir) {
+        timeoutNanos.put(Phase.EXTRACT, extract.toNanos());
+        timeoutNanos.put(Phase.DOWNLOAD, download.toNanos());
+        timeoutNanos.put(Phase.POSTPROCESS, postprocess.toNanos());
+        this.intervalMillis = Math.max(100, interval.toMillis());
+        this.pidDir = YoutubeDownloadService.resolveDownloadDir(downloadDir).resolve(".ytd-procs");
+        ProcessHandle self = ProcessHandle.current();
+        this.pidFile = pidDir.resolve(self.pid() + "-" + startMillis(self));
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ytd-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        reapDeadOwners();
+        ticker.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Watch a freshly started process, killing its tree if it stays in this phase past
+     * the phase timeout. The watch ends by itself when the process exits.
+     */
+    public Watch watch(Process process, Phase phase) {
+        Watch w = new Watch(process, phase, current.get());
+        watches.add(w);
+        if (w.owner != null) w.owner.add(w);
+        pidsChanged.set(true);
+        process.onExit().thenRun(() -> w.exited());
+        return w;
+    }
+
+    /**
+     * Watch a long-lived process that serves one request at a time (a pooled worker).
+     * It has no deadline and no owner until {@link Watch#lease}.
+     */
+    public Watch watchIdle(Process process) {
+        return watch(process, null);
+    }
+
+    public Cancellation newCancellation() {
+        return new Cancellation();
+    }
+
+    /** Kill a process and everything it started, children first. */
+    public static void killTree(ProcessHandle root) {
+        // Snapshot before killing: once the root dies its children are re-parented away
+        List<ProcessHandle> tree = new ArrayList<>();
+        root.descendants().forEach(tree::add);
+        root.destroyForcibly();
+        for (ProcessHandle h : tree) h.destroyForcibly();
+    }
+
+    /** A watched process. */
+    public final class Watch {
+
+        private final Process process;
+        private volatile Cancellation owner;
+        private volatile Phase phase; // null while an idle worker
+        private volatile long deadline;
+        private volatile String failure;
+        private final Set<ProcessHandle> children = ConcurrentHashMap.newKeySet();
+
+        private Watch(Process process, Phase phase, Cancellation owner) {
+            this.process = process;
+            this.owner = owner;
+            this.phase = phase;
+            if (phase != null) this.deadline = System.nanoTime() + timeoutNanos.get(phase);
+            if (owner != null && owner.isCancelled()) kill("Cancelled");
+        }
+
+        public Process process() {
+            return process;
+        }
+
+        /** Move to another phase; its timeout counts from now. */
+        public void phase(Phase next) {
+            if (next == phase) return;
+            deadline = System.nanoTime() + timeoutNanos.get(next);
+            phase = next;
+        }
+
+        /**
+         * Hand a worker to the work running on this thread: until {@link #release} it has
+         * this phase's deadline and is killed if that work is cancelled.
+         */
+        public void lease(Phase next) {
+            Cancellation c = current.get();
+            deadline = System.nanoTime() + timeoutNanos.get(next);
+            phase = next;
+            owner = c;
+            if (c != null) {
+                c.add(this);
+                if (c.isCancelled()) kill("Cancelled");
+            }
+        }
+
+        /** End a {@link #lease}: the worker is idle again, with no deadline or owner. */
+        public void release() {
+            Cancellation c = owner;
+            phase = null;
+            owner = null;
+            if (c != null) c.remove(this);
+        }
+
+        /** Why the process was killed ("Cancelled", "... timed out ..."), or null if it was not. */
+        public String failure() {
+            return failure;
+        }
+
+        public boolean isCancelled() {
+            return failure != null && owner != null && owner.isCancelled();
+        }
+
+        /** Kill the tree, e.g. when the client reading its output went away. */
+        public void kill(String reason) {
+            if (failure == null) failure = reason;
+            refreshChildren();
+            killTree(process.toHandle());
+        }
+
+        private void refreshChildren() {
+            process.toHandle().descendants().forEach(h -> {
+                if (children.add(h)) pidsChanged.set(true);
+            });
+        }
+
+        private void exited() {
+            watches.remove(this);
+            if (owner != null) owner.remove(this);
+            for (ProcessHandle h : children) {
+                if (h.isAlive()) {
+                    h.destroyForcibly();
+                    orphansKilled.incrementAndGet();
+                }
+            }
+            pidsChanged.set(true);
+        }
+    }
+
+    /** Ends a {@link Cancellation#bind()}. */
+    public interface Binding extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** Cancels the processes of one job (or any unit of work bound to a thread). */
+    public final class Cancellation {
+
+        private final Set<Watch> owned = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+        private Thread thread; // guarded by this
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Processes started on this thread until the binding is closed belong to this cancellation. */
+        public Binding bind() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            current.set(this);
+            return () -> {
+                current.remove();
+                synchronized (this) {
+                    thread = null;
+                }
+            };
+        }
+
+        /** Kill every process started under this cancellation and wake the thread if it is waiting. */
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            cancellations.incrementAndGet();
+            for (Watch w : owned) w.kill("Cancelled");
+            synchronized (this) {
+                if (thread != null) thread.interrupt();
+            }
+        }
+
+        private void add(Watch w) {
+            owned.add(w);
+        }
+
+        private void remove(Watch w) {
+            owned.remove(w);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("running", watches.size());
+        s.put("timedOut", timedOut.get());
+        s.put("cancelled", cancellations.get());
+        s.put("orphansKilled", orphansKilled.get());
+        return s;
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            for (Watch w : watches) {
+                if (!w.process.isAlive()) continue;
+                Phase phase = w.phase;
+                if (phase != null && now - w.deadline >= 0) {
+                    Duration limit = Duration.ofNanos(timeoutNanos.get(phase));
+                    log.warn("Killing yt-dlp (pid {}): {} phase exceeded {}",
+                            w.process.pid(), phase.name().toLowerCase(), limit);
+                    timedOut.incrementAndGet();
+                    w.kill("yt-dlp timed out in the " + phase.name().toLowerCase() + " phase after " + limit);
+                } else {
+                    w.refreshChildren();
+                }
+            }
+            // One write per tick at most, however many processes started or exited since
+            if (pidsChanged.getAndSet(false)) writePidFile();
+        } catch (Exception e) {
+            log.warn("Process reaper: {}", e.getMessage());
+        }
+    }
+
+    /** "pid startMillis" per live watched process and known child, for reaping after a crash. */
+    private void writePidFile() {
+        StringBuilder sb = new StringBuilder();
+        for (Watch w : watches) {
+            append(sb, w.process.toHandle());
+            for (ProcessHandle h : w.children) append(sb, h);
+        }
+        try {
+            if (sb.length() == 0) {
+                Files.deleteIfExists(pidFile);
+                return;
+            }
+            Files.createDirectories(pidDir);
+            Files.writeString(pidFile, sb, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // Best effort: only startup reaping after a crash depends on it
+        }
+    }
+
+    private static void append(StringBuilder sb, ProcessHandle h) {
+        if (h.isAlive()) sb.append(h.pid()).append(' ').append(startMillis(h)).append('\n');
+    }
+
+    /** Kill children listed by JVMs that are no longer running (crashed or killed without shutdown). */
+    private void reapDeadOwners() {
+        if (!Files.isDirectory(pidDir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(pidDir)) {
+            for (Path f : files) {
+                if (f.equals(pidFile) || isLive(f.getFileName().toString())) continue;
+                for (String line : Files.readAllLines(f, StandardCharsets.UTF_8)) {
+                    String[] t = line.trim().split(" ");
+                    if (t.length != 2) continue;
+                    Optional<ProcessHandle> h = ProcessHandle.of(Long.parseLong(t[0]));
+                    // Same pid and start time: still the process we started, not a reused pid
+                    if (h.isPresent() && h.get().isAlive() && startMillis(h.get()) == Long.parseLong(t[1])) {
+                        killTree(h.get());
+                        orphansKilled.incrementAndGet();
+                    }
+                }
+                Files.deleteIfExists(f);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not reap orphaned processes: {}", e.getMessage());
+        }
+    }
+
+    /** Whether the JVM named by a pid file ("pid-startMillis") is still running. */
+    private static boolean isLive(String name) {
+        int dash = name.indexOf('-');
+        if (dash < 0) return false;
+        try {
+            Optional<ProcessHandle> owner = ProcessHandle.of(Long.parseLong(name.substring(0, dash)));
+            return owner.isPresent() && owner.get().isAlive()
+                    && startMillis(owner.get()) == Long.parseLong(name.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long startMillis(ProcessHandle h) {
+        return h.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        for (Watch w : watches) w.kill("Shutting down");
+        try {
+            Files.deleteIfExists(pidFile);
+        } catch (IOException e) {
+            // Next startup treats it as a dead owner's file
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.suguru.geto.yt_downloader.service;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Helpers for waiting on yt-dlp and worker processes.
+ */
+public final class Processes {
+
+    private Processes() {}
+
+    /**
+     * Like Process.waitFor(), but parks on the onExit() future instead of a monitor
+     * wait, so a virtual thread waiting here releases its carrier thread.
+     */
+    public static int waitFor(Process process) throws InterruptedException {
+        try {
+            return process.onExit().get().exitValue();
+        } catch (ExecutionException e) {
+            // onExit() never completes exceptionally; fall back to the plain wait
+            return process.waitFor();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.suguru.geto.yt_downloader.service;
+
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+/**
+ * Receives progress updates from a running download.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    ProgressListener NONE = event -> {};
+
+    void onProgress(ProgressEvent event);
+}
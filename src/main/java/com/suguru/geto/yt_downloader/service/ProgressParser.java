@@ -0,0 +1,89 @@
+package com.suguru.geto.yt_downloader.service;
+
+import java.util.List;
+
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+/**
+ * Machine-readable progress for yt-dlp: the arguments that make it print one
+ * "[ytd-progress] ..." line per update, and the parser for those lines.
+ */
+public final class ProgressParser {
+
+    static final String PREFIX = "[ytd-progress] ";
+
+    private static final String DOWNLOAD_TEMPLATE = "download:" + PREFIX + "dl"
+            + " %(progress.status)s"
+            + " %(progress.downloaded_bytes)s"
+            + " %(progress.total_bytes)s"
+            + " %(progress.total_bytes_estimate)s"
+            + " %(progress.speed)s"
+            + " %(progress.eta)s"
+            + " %(info.format_id)s";
+
+    private static final String POSTPROCESS_TEMPLATE = "postprocess:" + PREFIX + "pp"
+            + " %(progress.status)s"
+            + " %(progress.postprocessor)s";
+
+    private ProgressParser() {}
+
+    /** Extra yt-dlp arguments: one progress line per update, even when --print made it quiet. */
+    public static List<String> arguments() {
+        return List.of(
+                "--newline",
+                "--progress",
+                "--progress-template", DOWNLOAD_TEMPLATE,
+                "--progress-template", POSTPROCESS_TEMPLATE
+        );
+    }
+
+    /** The event for a progress line, or null for any other output. */
+    public static ProgressEvent parse(String line) {
+        int at = line.indexOf(PREFIX);
+        if (at < 0) return null;
+        String[] t = line.substring(at + PREFIX.length()).trim().split(" ");
+        if (t.length < 2) return null;
+        if (t[0].equals("dl") && t.length >= 7) {
+            ProgressEvent e = new ProgressEvent(ProgressEvent.PHASE_DOWNLOAD, na(t[1]));
+            e.setDownloadedBytes(toLong(t[2]));
+            Long total = toLong(t[3]);
+            if (total == null) {
+                total = toLong(t[4]);
+                e.setTotalEstimated(total != null);
+            }
+            e.setTotalBytes(total);
+            e.setSpeed(toDouble(t[5]));
+            e.setEta(toLong(t[6]));
+            if (t.length >= 8) e.setFormatId(na(t[7]));
+            return e;
+        }
+        if (t[0].equals("pp") && t.length >= 3) {
+            return new ProgressEvent(phaseFor(t[2]), na(t[1]));
+        }
+        return null;
+    }
+
+    private static String phaseFor(String postprocessor) {
+        if (postprocessor.contains("Merge")) return ProgressEvent.PHASE_MERGE;
+        if (postprocessor.contains("ExtractAudio")) return ProgressEvent.PHASE_EXTRACT_AUDIO;
+        return ProgressEvent.PHASE_POSTPROCESS;
+    }
+
+    private static String na(String s) {
+        return "NA".equals(s) || "None".equals(s) ? null : s;
+    }
+
+    private static Long toLong(String s) {
+        Double d = toDouble(s);
+        return d == null ? null : (long) (double) d;
+    }
+
+    private static Double toDouble(String s) {
+        if (na(s) == null) return null;
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the app's own threads (job workers, process output pumps). With
+ * spring.threads.virtual.enabled=true on Java 21+ these are virtual threads, matching
+ * what Spring Boot then does for Tomcat and async request handling; otherwise they are
+ * daemon platform threads. The code still compiles for Java 17, so the virtual-thread
+ * builder is looked up reflectively.
+ */
+@Component
+public class ThreadSupport {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadSupport.class);
+
+    private final boolean virtual;
+
+    public ThreadSupport(@Value("${spring.threads.virtual.enabled:false}") boolean virtualRequested) {
+        boolean available = Runtime.version().feature() >= 21;
+        if (virtualRequested && !available) {
+            log.warn("spring.threads.virtual.enabled needs Java 21+; running on {} with platform threads",
+                    Runtime.version());
+        }
+        this.virtual = virtualRequested && available;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /** Threads named prefix-1, prefix-2, ... */
+    public ThreadFactory factory(String prefix) {
+        if (virtual) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> api = Class.forName("java.lang.Thread$Builder");
+                builder = api.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+                return (ThreadFactory) api.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads unavailable", e);
+            }
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** Start a one-off background task, e.g. draining a process stream. */
+    public Thread start(String name, Runnable task) {
+        if (virtual) {
+            try {
+                Method startVirtual = Thread.class.getMethod("startVirtualThread", Runnable.class);
+                Thread t = (Thread) startVirtual.invoke(null, task);
+                t.setName(name);
+                return t;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads unavailable", e);
+            }
+        }
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
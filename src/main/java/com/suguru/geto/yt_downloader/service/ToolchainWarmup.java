@@ -0,0 +1,247 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets a freshly started instance ready for its first request, in the background.
+ *
+ * Right after the context is created it finds yt-dlp and ffmpeg on the PATH and records
+ * their versions (which also pulls the Python interpreter and yt-dlp into the page
+ * cache), and starts the worker pool's workers when it is enabled. Once the application
+ * is ready it creates the controllers and everything they use (with lazy initialization,
+ * as in the fast-startup profile, that would otherwise happen on the first request) and,
+ * if ytd.warmup.url is set, looks that video's formats up. Until then this health
+ * indicator reports OUT_OF_SERVICE, which keeps the readiness probe (and cluster
+ * members) from sending traffic; it is DOWN when yt-dlp cannot be run at all.
+ */
+@Component
+public class ToolchainWarmup implements HealthIndicator {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolchainWarmup.class);
+
+    public enum State { WARMING, READY, FAILED, DISABLED }
+
+    private final ApplicationContext context;
+    private final ThreadSupport threads;
+    private final YtDlpWorkerPool workerPool;
+    private final MeterRegistry meters;
+    private final boolean enabled;
+    private final String url;
+    private final long timeoutMillis;
+
+    private final CountDownLatch contextReady = new CountDownLatch(1);
+    private final Map<String, Object> tools = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Long> stageMillis = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile State state;
+    private volatile String stage;
+    private volatile String error;
+    private volatile Long readyAtMillis; // JVM uptime when warm-up ended
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    public ToolchainWarmup(ApplicationContext context,
+                           ThreadSupport threads,
+                           YtDlpWorkerPool workerPool,
+                           MeterRegistry meters,
+                           @Value("${ytd.warmup.enabled:true}") boolean enabled,
+                           @Value("${ytd.warmup.url:}") String url,
+                           @Value("${ytd.warmup.timeout:30s}") Duration timeout) {
+        this.context = context;
+        this.threads = threads;
+        this.workerPool = workerPool;
+        this.meters = meters;
+        this.enabled = enabled;
+        this.url = url == null ? "" : url.trim();
+        this.timeoutMillis = Math.max(1000, timeout.toMillis());
+        this.state = enabled ? State.WARMING : State.DISABLED;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) threads.start("ytd-warmup", this::run);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        contextReady.countDown();
+    }
+
+    private void run() {
+        try {
+            stage("toolchain", this::probeToolchain);
+            stage("workers", workerPool::prestart);
+            contextReady.await();
+            stage("controllers", () -> context.getBeansWithAnnotation(RestController.class));
+            if (!url.isEmpty()) {
+                stage("extractor", () -> {
+                    try {
+                        context.getBean(YoutubeDownloadService.class).listFormats(url);
+                    } catch (RuntimeException e) {
+                        // Only a head start; the video being unavailable does not make this node unusable
+                        log.warn("Warm-up lookup of {} failed: {}", url, e.getMessage());
+                    }
+                });
+            }
+            state = State.READY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("interrupted");
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } finally {
+            stage = null;
+            readyAtMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        }
+    }
+
+    private void fail(String message) {
+        error = message;
+        state = State.FAILED;
+        log.warn("Warm-up failed, reporting DOWN: {}", message);
+    }
+
+    private void stage(String name, Stage work) throws Exception {
+        stage = name;
+        long t0 = System.nanoTime();
+        try {
+            work.run();
+        } finally {
+            long nanos = System.nanoTime() - t0;
+            stageMillis.put(name, TimeUnit.NANOSECONDS.toMillis(nanos));
+            Timer.builder("ytdlp.warmup")
+                    .description("Time taken by each startup warm-up stage")
+                    .tag("stage", name)
+                    .register(meters)
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** yt-dlp must run; a missing ffmpeg is reported but only breaks merges and MP3s. */
+    private void probeToolchain() throws IOException, InterruptedException {
+        String path = System.getenv("PATH");
+        Map<String, Object> ytDlp = probe(locate("yt-dlp", path), "--version", timeoutMillis);
+        tools.put("yt-dlp", ytDlp);
+        Map<String, Object> ffmpeg = probe(locate("ffmpeg", path), "-version", timeoutMillis);
+        tools.put("ffmpeg", ffmpeg);
+        if (ffmpeg.get("version") == null) {
+            log.warn("ffmpeg not usable ({}); merged and MP3 downloads will fail", ffmpeg.get("error"));
+        }
+        if (ytDlp.get("version") == null) throw new IOException("yt-dlp not usable: " + ytDlp.get("error"));
+    }
+
+    /** Where a command is (null: not found) and the first line of its version output. */
+    static Map<String, Object> probe(Path path, String versionFlag, long timeoutMillis) throws InterruptedException {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("path", path == null ? null : path.toString());
+        m.put("version", null);
+        if (path == null) {
+            m.put("error", "not found on PATH");
+            return m;
+        }
+        Process p = null;
+        try {
+            p = new ProcessBuilder(path.toString(), versionFlag).redirectErrorStream(true).start();
+            // Version output fits in the pipe buffer, so the process can exit before it is read
+            if (!p.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                m.put("error", "no answer within " + timeoutMillis + " ms");
+                return m;
+            }
+            String first;
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                first = r.readLine();
+            }
+            if (p.exitValue() != 0 || first == null) {
+                m.put("error", "exit code " + p.exitValue());
+            } else {
+                m.put("version", first.trim());
+            }
+        } catch (IOException e) {
+            m.put("error", e.getMessage());
+        } finally {
+            if (p != null && p.isAlive()) ProcessSupervisor.killTree(p.toHandle());
+        }
+        return m;
+    }
+
+    /** The first executable named command in a PATH-style list of directories, or null. */
+    static Path locate(String command, String path) {
+        if (path == null) return null;
+        boolean windows = File.separatorChar == '\\';
+        for (String dir : path.split(File.pathSeparator)) {
+            if (dir.isEmpty()) continue;
+            for (String name : windows ? new String[]{command + ".exe", command} : new String[]{command}) {
+                Path p = Paths.get(dir, name);
+                if (Files.isRegularFile(p) && Files.isExecutable(p)) return p;
+            }
+        }
+        return null;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public Health health() {
+        switch (state) {
+            case WARMING:
+                return Health.outOfService().withDetail("stage", String.valueOf(stage)).build();
+            case FAILED:
+                return Health.down().withDetail("error", String.valueOf(error)).withDetails(tools).build();
+            default:
+                return Health.up().withDetails(tools).build();
+        }
+    }
+
+    /** Warm-up state and stage timings, the toolchain found, and how this JVM was started. */
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("state", state);
+        s.put("stage", stage);
+        s.put("error", error);
+        s.put("readyAtMillis", readyAtMillis);
+        synchronized (stageMillis) {
+            s.put("stageMillis", new LinkedHashMap<>(stageMillis));
+        }
+        synchronized (tools) {
+            s.put("toolchain", new LinkedHashMap<>(tools));
+        }
+        s.put("aot", AotDetector.useGeneratedArtifacts());
+        s.put("cds", ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                .anyMatch(a -> a.startsWith("-XX:SharedArchiveFile")));
+        s.put("lazyInitialization", context.getEnvironment()
+                .getProperty("spring.main.lazy-initialization", Boolean.class, false));
+        return s;
+    }
+}
@@ -0,0 +1,19 @@
+package com.suguru.geto.yt_downloader.service;
+
+/**
+ * Thrown when no MP3 encoder slot frees up within ytd.transcode.max-wait. Controllers
+ * map this to HTTP 503 with Retry-After.
+ */
+public class TranscodeBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TranscodeBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
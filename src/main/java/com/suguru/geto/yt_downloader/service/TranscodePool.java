@@ -0,0 +1,147 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoder slots for streaming MP3 transcodes, kept apart from the download workers.
+ *
+ * Encoding is CPU-bound while downloading waits on the network, so transcodes get their
+ * own limit: ytd.transcode.workers concurrent ffmpeg encoders (default: one per CPU).
+ * A download that needs an encoder waits up to ytd.transcode.max-wait for a slot and is
+ * then turned away with {@link TranscodeBusyException}; the slot's pool thread feeds the
+ * downloaded bytes into ffmpeg as they arrive while the caller reads the encoded output.
+ */
+@Component
+public class TranscodePool {
+
+    private final int workers;
+    private final int quality;
+    private final long maxWaitNanos;
+    private final Semaphore slots;
+    private final ExecutorService pumps;
+    private final Timer waitTimer;
+    private final Counter rejected;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public TranscodePool(MeterRegistry meters, ThreadSupport threads,
+                         @Value("${ytd.transcode.workers:0}") int workers,
+                         @Value("${ytd.transcode.quality:2}") int quality,
+                         @Value("${ytd.transcode.max-wait:10s}") Duration maxWait) {
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.quality = Math.max(0, Math.min(9, quality));
+        this.maxWaitNanos = Math.max(0, maxWait.toNanos());
+        this.slots = new Semaphore(this.workers, true);
+        // One pump thread per slot, so a slot holder never waits for a thread
+        this.pumps = Executors.newFixedThreadPool(this.workers, threads.factory("ytd-encode"));
+        this.waitTimer = Timer.builder("ytdlp.transcode.wait")
+                .description("Time spent waiting for an encoder slot")
+                .register(meters);
+        this.rejected = Counter.builder("ytdlp.transcode.rejected")
+                .description("Transcodes turned away because no encoder slot freed up in time")
+                .register(meters);
+        Gauge.builder("ytdlp.transcode.active", this, p -> p.workers - p.slots.availablePermits())
+                .description("MP3 encoders running")
+                .register(meters);
+    }
+
+    /** ffmpeg reading any audio on stdin and writing VBR MP3 (LAME -q:a quality) to stdout. */
+    public List<String> encoderCommand() {
+        return List.of("ffmpeg", "-hide_banner", "-nostdin", "-loglevel", "error",
+                "-i", "pipe:0", "-vn", "-c:a", "libmp3lame", "-q:a", String.valueOf(quality),
+                "-f", "mp3", "pipe:1");
+    }
+
+    /**
+     * Wait up to max-wait for an encoder slot; close it when the encoder has exited.
+     * Throws {@link TranscodeBusyException} if none frees up in time.
+     */
+    public Slot acquire() throws InterruptedException {
+        long t0 = System.nanoTime();
+        boolean acquired = slots.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        waitTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            rejected.increment();
+            throw new TranscodeBusyException("All " + workers + " MP3 encoders are busy; retry later",
+                    TimeUnit.NANOSECONDS.toSeconds(maxWaitNanos));
+        }
+        return new Slot();
+    }
+
+    /** One encoder's share of the pool. */
+    public final class Slot implements AutoCloseable {
+
+        private boolean closed;
+        private boolean ok;
+
+        private Slot() {}
+
+        /**
+         * Copy source into the encoder's stdin on the slot's pool thread, closing stdin at
+         * the end so ffmpeg flushes. Completes with the byte count, or fails with the
+         * read/write error (e.g. ffmpeg exiting early).
+         */
+        public Future<Long> feed(InputStream source, OutputStream encoderIn) {
+            return pumps.submit(() -> {
+                long total = 0;
+                try (InputStream in = source; OutputStream out = encoderIn) {
+                    byte[] buf = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                        total += n;
+                    }
+                }
+                return total;
+            });
+        }
+
+        /** Mark the transcode as successful before closing, for the stats. */
+        public void succeeded() {
+            ok = true;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            (ok ? completed : failed).incrementAndGet();
+            slots.release();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("workers", workers);
+        s.put("active", workers - slots.availablePermits());
+        s.put("waiting", slots.getQueueLength());
+        s.put("completed", completed.get());
+        s.put("failed", failed.get());
+        s.put("rejected", (long) rejected.count());
+        return s;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pumps.shutdownNow();
+    }
+}
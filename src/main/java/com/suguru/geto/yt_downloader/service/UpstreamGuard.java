@@ -0,0 +1,289 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter and circuit breaker for yt-dlp runs, one per upstream host.
+ *
+ * Every run takes a token from the host's bucket. Jobs wait up to max-wait for one;
+ * request threads are turned away with {@link UpstreamUnavailableException} (503 with
+ * Retry-After) rather than held. When a run's output shows throttling (HTTP 429,
+ * "Sign in to confirm ...") the breaker opens at once; failure-threshold runs in a row
+ * that failed on network errors open it too. Errors about the video itself (private,
+ * removed, no such format) say nothing about the upstream and are not counted. While
+ * open, runs fail fast with {@link UpstreamUnavailableException}. After the open
+ * period one probe run is let through: success closes the breaker, failure reopens
+ * it for twice as long (up to max-open-duration). Throttling also halves the
+ * bucket's refill rate, which then climbs back a step per successful run.
+ */
+@Component
+public class UpstreamGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(UpstreamGuard.class);
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final MeterRegistry meters;
+    private final boolean enabled;
+    private final double maxRate;
+    private final int burst;
+    private final long maxWaitNanos;
+    private final int failureThreshold;
+    private final long baseOpenNanos;
+    private final long maxOpenNanos;
+
+    private final Map<String, Upstream> upstreams = new ConcurrentHashMap<>();
+
+    /** Limiter and breaker state of one host; guarded by itself. */
+    private final class Upstream {
+        final String host;
+        State state = State.CLOSED;
+        double rate = maxRate; // tokens per second
+        double tokens = burst;
+        long refilledAt = System.nanoTime();
+        int failures;
+        long openNanos = baseOpenNanos;
+        long openUntil;
+        boolean probing;
+        final Counter throttled;
+        final Counter rejectedOpen;
+        final Counter rejectedRate;
+
+        Upstream(String host) {
+            this.host = host;
+            Gauge.builder("ytdlp.upstream.state", this, u -> u.stateValue())
+                    .description("Circuit breaker state: 0 closed, 1 half-open, 2 open")
+                    .tag("host", host).register(meters);
+            Gauge.builder("ytdlp.upstream.rate", this, u -> u.rateValue())
+                    .description("Current yt-dlp runs per second allowed")
+                    .tag("host", host).register(meters);
+            throttled = Counter.builder("ytdlp.upstream.throttled").tag("host", host).register(meters);
+            rejectedOpen = Counter.builder("ytdlp.upstream.rejected").tag("host", host).tag("reason", "open")
+                    .register(meters);
+            rejectedRate = Counter.builder("ytdlp.upstream.rejected").tag("host", host).tag("reason", "rate")
+                    .register(meters);
+        }
+
+        synchronized double stateValue() {
+            return state == State.CLOSED ? 0 : state == State.HALF_OPEN ? 1 : 2;
+        }
+
+        synchronized double rateValue() {
+            return rate;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+            refilledAt = now;
+        }
+
+        void open(long now) {
+            state = State.OPEN;
+            openUntil = now + openNanos;
+            probing = false;
+        }
+    }
+
+    public UpstreamGuard(MeterRegistry meters,
+                         @Value("${ytd.upstream.enabled:true}") boolean enabled,
+                         @Value("${ytd.upstream.rate:2}") double rate,
+                         @Value("${ytd.upstream.burst:5}") int burst,
+                         @Value("${ytd.upstream.max-wait:10s}") Duration maxWait,
+                         @Value("${ytd.upstream.failure-threshold:5}") int failureThreshold,
+                         @Value("${ytd.upstream.open-duration:30s}") Duration openDuration,
+                         @Value("${ytd.upstream.max-open-duration:10m}") Duration maxOpenDuration) {
+        this.meters = meters;
+        this.enabled = enabled;
+        this.maxRate = Math.max(0.01, rate);
+        this.burst = Math.max(1, burst);
+        this.maxWaitNanos = maxWait.toNanos();
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenNanos = openDuration.toNanos();
+        this.maxOpenNanos = Math.max(baseOpenNanos, maxOpenDuration.toNanos());
+    }
+
+    // yt-dlp's wording for transport failures (urllib, requests and its own downloader)
+    private static final String[] NETWORK_ERRORS = {"urlopen error", "timed out", "Connection reset",
+            "Connection refused", "Connection aborted", "Remote end closed connection", "Network is unreachable",
+            "Temporary failure in name resolution", "Name or service not known", "IncompleteRead",
+            "HTTP Error 500", "HTTP Error 502", "HTTP Error 503", "HTTP Error 504"};
+
+    /** True when yt-dlp output shows the upstream is throttling or challenging us. */
+    public static boolean isThrottled(CharSequence output) {
+        if (output == null) return false;
+        String s = output.toString();
+        return s.contains("HTTP Error 429") || s.contains("Too Many Requests") || s.contains("Sign in to confirm");
+    }
+
+    /** True when yt-dlp output shows the upstream could not be reached or failed to answer. */
+    public static boolean isNetworkError(CharSequence output) {
+        if (output == null) return false;
+        String s = output.toString();
+        for (String signature : NETWORK_ERRORS) {
+            if (s.contains(signature)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Permission to run yt-dlp against the URL's host. Inside a job this waits up to
+     * max-wait for a token; elsewhere (a request thread) an empty bucket is an
+     * {@link UpstreamUnavailableException} right away. Report the outcome with {@link Permit#exit}; closing without one (the run never
+     * reached the upstream) leaves the breaker as it was.
+     */
+    public Permit acquire(String url) {
+        if (!enabled) return new Permit(null, false);
+        Upstream u = upstreams.computeIfAbsent(DownloadJobService.hostOf(url), Upstream::new);
+        while (true) {
+            long waitNanos;
+            synchronized (u) {
+                long now = System.nanoTime();
+                boolean probe = false;
+                if (u.state == State.OPEN) {
+                    if (now - u.openUntil < 0) {
+                        u.rejectedOpen.increment();
+                        throw new UpstreamUnavailableException("Upstream " + u.host + " is throttling requests; retry later",
+                                TimeUnit.NANOSECONDS.toSeconds(u.openUntil - now) + 1);
+                    }
+                    u.state = State.HALF_OPEN;
+                }
+                if (u.state == State.HALF_OPEN) {
+                    if (u.probing) {
+                        u.rejectedOpen.increment();
+                        throw new UpstreamUnavailableException("Upstream " + u.host + " is recovering; retry later", 1);
+                    }
+                    probe = true;
+                }
+                u.refill(now);
+                if (u.tokens >= 1) {
+                    u.tokens -= 1;
+                    if (probe) u.probing = true;
+                    return new Permit(u, probe);
+                }
+                waitNanos = (long) ((1 - u.tokens) / u.rate * 1e9);
+                if (waitNanos > maxWaitNanos || DownloadJobService.currentJobId() == null) {
+                    u.rejectedRate.increment();
+                    throw new UpstreamUnavailableException("Too many requests to " + u.host + "; retry later",
+                            TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
+                }
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UpstreamUnavailableException("Interrupted waiting for a rate-limit token", 1);
+            }
+        }
+    }
+
+    /** One admitted run. */
+    public final class Permit implements AutoCloseable {
+
+        private final Upstream upstream;
+        private final boolean probe;
+        private boolean reported;
+
+        private Permit(Upstream upstream, boolean probe) {
+            this.upstream = upstream;
+            this.probe = probe;
+        }
+
+        /**
+         * Record how the run ended; output is whatever was captured from stderr/stdout.
+         * Only throttling and network errors count as failures of the upstream; any other
+         * failure leaves the breaker as it was. Returns true if the run failed because
+         * the upstream throttled it.
+         */
+        public boolean exit(int exitCode, CharSequence output) {
+            boolean throttled = exitCode != 0 && isThrottled(output);
+            if (upstream == null || reported) return throttled;
+            reported = true;
+            Upstream u = upstream;
+            synchronized (u) {
+                long now = System.nanoTime();
+                if (probe) u.probing = false;
+                if (exitCode == 0) {
+                    u.failures = 0;
+                    if (u.state != State.CLOSED) {
+                        u.state = State.CLOSED;
+                        u.openNanos = baseOpenNanos;
+                    }
+                    // Additive increase back towards the configured rate
+                    u.rate = Math.min(maxRate, u.rate + maxRate / 10);
+                    return false;
+                }
+                if (!throttled && !isNetworkError(output)) return false;
+                u.failures++;
+                if (throttled) {
+                    u.throttled.increment();
+                    u.refill(now);
+                    u.rate = Math.max(maxRate / 32, u.rate / 2);
+                }
+                if (u.state == State.HALF_OPEN) {
+                    u.openNanos = Math.min(maxOpenNanos, u.openNanos * 2);
+                    u.open(now);
+                } else if (u.state == State.CLOSED && (throttled || u.failures >= failureThreshold)) {
+                    u.open(now);
+                }
+                if (u.state == State.OPEN) {
+                    log.warn("Upstream {} circuit open for {}s after {}", u.host, TimeUnit.NANOSECONDS.toSeconds(u.openNanos),
+                            throttled ? "throttling" : u.failures + " failed runs");
+                }
+            }
+            return throttled;
+        }
+
+        /** The error for a run that exit() reported as throttled, so callers can treat it like a rejection. */
+        public UpstreamUnavailableException throttledError() {
+            long retryAfter = 1;
+            if (upstream != null) {
+                synchronized (upstream) {
+                    long left = upstream.openUntil - System.nanoTime();
+                    if (upstream.state == State.OPEN && left > 0) retryAfter = TimeUnit.NANOSECONDS.toSeconds(left) + 1;
+                }
+            }
+            return new UpstreamUnavailableException("Upstream is throttling requests; retry later", retryAfter);
+        }
+
+        @Override
+        public void close() {
+            if (upstream == null || reported || !probe) return;
+            synchronized (upstream) {
+                upstream.probing = false;
+            }
+        }
+    }
+
+    /** Breaker state, current rate and failure streak per host. */
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", enabled);
+        Map<String, Object> hosts = new LinkedHashMap<>();
+        for (Upstream u : upstreams.values()) {
+            synchronized (u) {
+                Map<String, Object> h = new LinkedHashMap<>();
+                long now = System.nanoTime();
+                h.put("state", u.state.name().toLowerCase());
+                h.put("rate", u.rate);
+                h.put("consecutiveFailures", u.failures);
+                h.put("retryAfterSeconds", u.state == State.OPEN && now - u.openUntil < 0
+                        ? TimeUnit.NANOSECONDS.toSeconds(u.openUntil - now) + 1 : 0);
+                hosts.put(u.host, h);
+            }
+        }
+        s.put("hosts", hosts);
+        return s;
+    }
+}
@@ -0,0 +1,20 @@
+package com.suguru.geto.yt_downloader.service;
+
+/**
+ * Thrown instead of running yt-dlp when the upstream's circuit breaker is open or its
+ * rate limit would keep the caller waiting too long. Controllers map this to HTTP 503
+ * with Retry-After.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public UpstreamUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
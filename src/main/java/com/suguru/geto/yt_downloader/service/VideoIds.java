@@ -0,0 +1,70 @@
+package com.suguru.geto.yt_downloader.service;
+
+import java.net.URI;
+import java.util.regex.Pattern;
+
+/**
+ * Reduces the many YouTube URL shapes (watch?v=, youtu.be, shorts, embed, live,
+ * mobile/music hosts, extra query params) to the 11-character video ID.
+ */
+public final class VideoIds {
+
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9_-]{11}");
+
+    private VideoIds() {}
+
+    /** The video ID for a URL, or null when the URL is not a recognisable YouTube video link. */
+    public static String canonicalize(String url) {
+        if (url == null) return null;
+        String u = url.trim();
+        if (ID.matcher(u).matches()) return u;
+        try {
+            URI uri = URI.create(u);
+            String host = uri.getHost();
+            if (host == null) return null;
+            host = host.toLowerCase();
+            String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+
+            if (host.equals("youtu.be") || host.endsWith(".youtu.be")) {
+                return firstSegmentId(path, 1);
+            }
+            if (!host.equals("youtube.com") && !host.endsWith(".youtube.com")
+                    && !host.equals("youtube-nocookie.com") && !host.endsWith(".youtube-nocookie.com")) {
+                return null;
+            }
+            if (path.equals("/watch") || path.equals("/watch/")) {
+                return queryParam(uri.getRawQuery(), "v");
+            }
+            for (String prefix : new String[]{"/shorts/", "/embed/", "/live/", "/v/", "/e/"}) {
+                if (path.startsWith(prefix)) return firstSegmentId(path, prefix.length());
+            }
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Cache key for a URL: the video ID when known, otherwise the trimmed URL itself. */
+    public static String cacheKey(String url) {
+        String id = canonicalize(url);
+        return id != null ? id : (url == null ? "" : url.trim());
+    }
+
+    private static String firstSegmentId(String path, int from) {
+        int end = path.indexOf('/', from);
+        String seg = end < 0 ? path.substring(from) : path.substring(from, end);
+        return ID.matcher(seg).matches() ? seg : null;
+    }
+
+    private static String queryParam(String query, String name) {
+        if (query == null) return null;
+        for (String kv : query.split("&")) {
+            int eq = kv.indexOf('=');
+            if (eq > 0 && kv.substring(0, eq).equals(name)) {
+                String v = kv.substring(eq + 1);
+                return ID.matcher(v).matches() ? v : null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.suguru.geto.yt_downloader.service;
+
+import com.suguru.geto.yt_downloader.model.JobSpec;
+
+/**
+ * Kinds of download job the scheduler tells apart. The cost is a job's relative share
+ * of a worker in fair queuing: a client running merges uses up its share faster than
+ * one fetching single streams. (Metadata calls do not queue; see {@link ClientQuotas}.)
+ */
+public enum WorkClass {
+
+    DOWNLOAD(1), TRANSCODE(2), MERGE(3);
+
+    private final int cost;
+
+    WorkClass(int cost) {
+        this.cost = cost;
+    }
+
+    public int cost() {
+        return cost;
+    }
+
+    /** Class of a download job: format+audio and quality downloads merge, MP3 transcodes. */
+    public static WorkClass of(JobSpec spec) {
+        switch (spec.getOperation()) {
+            case JobSpec.AUDIO:
+                return DOWNLOAD;
+            case JobSpec.MP3:
+                return TRANSCODE;
+            default:
+                return MERGE;
+        }
+    }
+
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
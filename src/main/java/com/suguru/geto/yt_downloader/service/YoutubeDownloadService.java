@@ -1,242 +1,819 @@
 package com.suguru.geto.yt_downloader.service;
 
+import io.micrometer.observation.Observation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import com.suguru.geto.yt_downloader.model.DownloadResult;
 import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+import com.suguru.geto.yt_downloader.model.TransferOptions;
+import com.suguru.geto.yt_downloader.model.TransferStats;
 
 @Service
 public class YoutubeDownloadService {
 
-    private Path ensureDownloadDir() throws Exception {
-        Path downloadDir = Paths.get(System.getProperty("user.home"), "Downloads", "ytd").toAbsolutePath();
-        Files.createDirectories(downloadDir);
+    private static final Logger log = LoggerFactory.getLogger(YoutubeDownloadService.class);
+
+    public static final String DOWNLOAD_OK = "Download completed successfully!";
+    static final String PARTS_PREFIX = ".parts-";
+
+    private final FormatCache formatCache;
+    private final SingleFlight singleFlight;
+    private final YtDlpWorkerPool workerPool;
+    private final boolean jsonExtraction;
+    private final boolean parallelMerge;
+    private final TranscodePool transcodePool;
+    private final boolean streamingTranscode;
+    private final ArtifactStore artifactStore;
+    private final ThreadSupport threads;
+    private final YtDlpMetrics metrics;
+    private final UpstreamGuard upstreamGuard;
+    private final ProcessSupervisor supervisor;
+    private final ConnectionBudget connections;
+    private final Path downloadDir;
+
+    public YoutubeDownloadService(FormatCache formatCache, SingleFlight singleFlight, YtDlpWorkerPool workerPool,
+                                  ArtifactStore artifactStore, ThreadSupport threads, YtDlpMetrics metrics,
+                                  UpstreamGuard upstreamGuard, ProcessSupervisor supervisor,
+                                  ConnectionBudget connections, TranscodePool transcodePool,
+                                  @Value("${ytd.extractor.json:true}") boolean jsonExtraction,
+                                  @Value("${ytd.merge.parallel:true}") boolean parallelMerge,
+                                  @Value("${ytd.transcode.streaming:true}") boolean streamingTranscode,
+                                  @Value("${ytd.download-dir:}") String downloadDir) {
+        this.formatCache = formatCache;
+        this.singleFlight = singleFlight;
+        this.workerPool = workerPool;
+        this.artifactStore = artifactStore;
+        this.threads = threads;
+        this.metrics = metrics;
+        this.upstreamGuard = upstreamGuard;
+        this.supervisor = supervisor;
+        this.connections = connections;
+        this.jsonExtraction = jsonExtraction;
+        this.parallelMerge = parallelMerge;
+        this.transcodePool = transcodePool;
+        this.streamingTranscode = streamingTranscode;
+        this.downloadDir = resolveDownloadDir(downloadDir);
+    }
+
+    /** The configured download dir as an absolute path; blank means ~/Downloads/ytd. */
+    static Path resolveDownloadDir(String configured) {
+        return configured == null || configured.isBlank()
+                ? Paths.get(System.getProperty("user.home"), "Downloads", "ytd").toAbsolutePath()
+                : Paths.get(configured).toAbsolutePath();
+    }
+
+    /** Directory all disk downloads land in (default ~/Downloads/ytd). */
+    public Path getDownloadDir() {
         return downloadDir;
     }
 
+    /** The download a job spec describes, as run by the job engine (and again after a restart). */
+    public JobWork work(JobSpec spec) {
+        return work(spec, null);
+    }
+
+    /** As above; a verified format token lets a VIDEO job skip the format lookup. */
+    public JobWork work(JobSpec spec, FormatTokens.Claims format) {
+        String url = spec.getUrl();
+        String formatId = spec.getFormatId();
+        TransferOptions transfer = spec.transfer();
+        switch (spec.getOperation()) {
+            case JobSpec.VIDEO:
+                return progress -> downloadVideoWithBestAudio(url, formatId, progress, transfer, format);
+            case JobSpec.QUALITY:
+                return progress -> downloadVideo(url, formatId, progress, transfer);
+            case JobSpec.MP3:
+                return progress -> downloadAudioMp3(url, formatId, progress);
+            case JobSpec.AUDIO:
+                return progress -> downloadAudioNative(url, formatId, progress);
+            default:
+                throw new IllegalArgumentException("Unknown job operation: " + spec.getOperation());
+        }
+    }
+
     // LEGACY: kept for compatibility if needed elsewhere
-    public String downloadVideo(String videoUrl, String quality) {
-        try {
-            Path downloadDir = ensureDownloadDir();
-            String formatSelector = mapQualityToFormat(quality);
-            String outputTemplate = downloadDir.resolve("%(title)s.%(ext)s").toString().replace('\\', '/');
+    public DownloadResult downloadVideo(String videoUrl, String quality) {
+        return downloadVideo(videoUrl, quality, ProgressListener.NONE);
+    }
+
+    /**
+     * Download by quality policy (best, 1080p, 720p, 480p, 360p) rather than a format id,
+     * as batch items do. Identical earlier downloads come from the artifact store.
+     */
+    public DownloadResult downloadVideo(String videoUrl, String quality, ProgressListener progress) {
+        return downloadVideo(videoUrl, quality, progress, TransferOptions.DEFAULT);
+    }
+
+    /** As above, fetching with the given fragment concurrency / downloader. */
+    public DownloadResult downloadVideo(String videoUrl, String quality, ProgressListener progress,
+                                        TransferOptions options) {
+        String formatSelector = mapQualityToFormat(quality);
+        return artifactStore.getOrCreate(ArtifactStore.key(videoUrl, formatSelector, "none"), outDir -> {
+            try {
+                Files.createDirectories(outDir);
+                String outputTemplate = outDir.resolve("%(title)s.%(ext)s").toString().replace('\\', '/');
+                ProcessBuilder pb = new ProcessBuilder(
+                        "yt-dlp",
+                        "-f", formatSelector,
+                        "-o", outputTemplate,
+                        videoUrl
+                );
+                return runProcessAndSummarize("downloadVideo", pb, progress, options);
+            } catch (Exception e) {
+                return DownloadResult.failed("Exception: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Video URLs of a playlist (or channel tab) via flat extraction, which lists entries
+     * without resolving each video. A single-video URL yields just that video.
+     */
+    public List<String> expandPlaylist(String playlistUrl, int maxItems) {
+        List<String> urls = new ArrayList<>();
+        try (YtDlpMetrics.Invocation run = metrics.begin("expandPlaylist");
+             UpstreamGuard.Permit permit = upstreamGuard.acquire(playlistUrl)) {
             ProcessBuilder pb = new ProcessBuilder(
                     "yt-dlp",
-                    "-f", formatSelector,
-                    "-o", outputTemplate,
-                    videoUrl
+                    "--flat-playlist",
+                    "--print", "url",
+                    "--playlist-end", String.valueOf(maxItems),
+                    playlistUrl
             );
-            return runProcessAndSummarize(pb);
+            ProcessSupervisor.Watch watch = supervisor.watch(run.spawn(pb), ProcessSupervisor.Phase.EXTRACT);
+            Process p = watch.process();
+            StringBuilder stderr = new StringBuilder();
+            Thread errPump = drainAsync(p.getErrorStream(), stderr);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(run.output(p.getInputStream())))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String l = line.trim();
+                    if (l.startsWith("http://") || l.startsWith("https://")) urls.add(l);
+                }
+            }
+            int exit = Processes.waitFor(p);
+            errPump.join();
+            finish(run, permit, watch, exit, stderr);
+            if (watch.failure() != null) throw new RuntimeException(watch.failure());
+            if (exit != 0 && urls.isEmpty()) {
+                throw new RuntimeException("yt-dlp --flat-playlist failed with exit code " + exit + ": "
+                        + stderr.toString().trim());
+            }
+            return urls;
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            return "Exception: " + e.getMessage();
+            throw new RuntimeException("Failed to expand playlist: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Formats for a video, served from the format cache when the same video
+     * (in any URL shape) was extracted recently. Concurrent misses for the same
+     * video share a single yt-dlp run. While the upstream is unavailable (see
+     * {@link UpstreamGuard}) an expired cache entry is served rather than failing.
+     */
     public List<FormatInfo> listFormats(String videoUrl) {
-        List<FormatInfo> formats = new ArrayList<>();
+        String key = VideoIds.cacheKey(videoUrl);
+        List<FormatInfo> cached = formatCache.get(key);
+        if (cached != null) return cached;
         try {
-            ProcessBuilder pb = new ProcessBuilder("yt-dlp", "--list-formats", videoUrl);
-            pb.redirectErrorStream(true);
-            Process p = pb.start();
-
-            boolean tableStarted = false;
-            boolean headerSkipped = false;
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String l = line.trim();
-                    if (l.isEmpty()) continue;
-
-                    // Skip until we find the header line
-                    if (!tableStarted) {
-                        if (l.contains("ID") && l.contains("EXT") && l.contains("RESOLUTION")) {
-                            tableStarted = true;
-                            continue;
-                        }
-                        continue;
-                    }
-
-                    // Skip separator line after header
-                    if (!headerSkipped) {
-                        headerSkipped = true;
-                        if (l.matches("^[─│┼╭╮╰╯\\-|]+$")) {
-                            continue;
-                        }
-                    }
-
-                    // Skip storyboard entries
-                    if (l.startsWith("sb")) continue;
-
-                    // Split by pipe and clean up
-                    String[] parts = l.split("\\s*\\|\\s*");
-                    if (parts.length < 3) continue;
-
-                    try {
-                        // First part: ID EXT RESOLUTION FPS
-                        String[] firstPart = parts[0].trim().split("\\s+");
-                        if (firstPart.length < 2) continue;
-                        
-                        String id = firstPart[0].trim();
-                        String ext = firstPart[1].trim();
-                        
-                        String resolution = "";
-                        String fps = "";
-                        
-                        // Look for resolution and fps in the remaining parts
-                        for (int i = 2; i < firstPart.length; i++) {
-                            String part = firstPart[i].trim();
-                            if (part.matches("\\d+x\\d+")) {
-                                resolution = part;
-                            } else if (part.matches("\\d+")) {
-                                fps = part;
-                            } else if (part.equals("audio") && i + 1 < firstPart.length && firstPart[i + 1].equals("only")) {
-                                resolution = "audio only";
-                                break;
-                            }
-                        }
+            return singleFlight.execute("formats:" + key, () -> {
+                // A flight that finished since the check above has filled the cache
+                List<FormatInfo> fresh = formatCache.get(key);
+                if (fresh != null) return fresh;
+                List<FormatInfo> formats = extractFormats(videoUrl);
+                formatCache.put(key, formats);
+                return formats;
+            });
+        } catch (UpstreamUnavailableException e) {
+            List<FormatInfo> stale = formatCache.getStale(key);
+            if (stale != null) return stale;
+            throw e;
+        }
+    }
 
-                        // Second part: FILESIZE TBR PROTO
-                        String[] secondPart = parts[1].trim().split("\\s+");
-                        String fileSize = "";
-                        String tbr = "";
-                        
-                        for (String part : secondPart) {
-                            part = part.trim();
-                            if (part.matches(".*[KMGT]iB") || part.startsWith("~")) {
-                                fileSize = part;
-                            } else if (part.matches("\\d+k?")) {
-                                tbr = part;
-                            }
-                        }
+    private List<FormatInfo> extractFormats(String videoUrl) {
+        if (jsonExtraction) {
+            try {
+                List<FormatInfo> formats = extractFormatsFromJson(videoUrl);
+                if (!formats.isEmpty()) return formats;
+            } catch (UpstreamUnavailableException e) {
+                // A table scrape would hit the same upstream
+                throw e;
+            } catch (Exception e) {
+                // Fall back to the table scrape below
+            }
+        }
+        return extractFormatsFromTable(videoUrl);
+    }
 
-                        // Third part: VCODEC VBR ACODEC MORE INFO
-                        String[] thirdPart = parts[2].trim().split("\\s+");
-                        String vcodec = "";
-                        String vbr = "";
-                        String acodec = "";
-                        String type = "video"; // Default to video
-                        
-                        StringBuilder noteBuilder = new StringBuilder();
-                        boolean isAudioOnly = false;
-                        boolean isVideoOnly = false;
-                        
-                        for (int i = 0; i < thirdPart.length; i++) {
-                            String part = thirdPart[i].trim();
-                            if (part.equals("audio") && i + 1 < thirdPart.length && thirdPart[i + 1].equals("only")) {
-                                isAudioOnly = true;
-                                noteBuilder.append("audio only ");
-                                i++; // skip "only"
-                            } else if (part.equals("video") && i + 1 < thirdPart.length && thirdPart[i + 1].equals("only")) {
-                                isVideoOnly = true;
-                                noteBuilder.append("video only ");
-                                i++; // skip "only"
-                            } else if (i == 0 && !isAudioOnly) {
-                                vcodec = part;
-                            } else if (i == 1 && part.matches("\\d+k?") && !isAudioOnly) {
-                                vbr = part;
-                            } else {
-                                noteBuilder.append(part).append(" ");
-                            }
-                        }
-                        
-                        String note = noteBuilder.toString().trim();
-
-                        // Determine format type
-                        if (resolution.equals("audio only") || isAudioOnly) {
-                            type = "audio";
-                            resolution = ""; // Clear resolution for audio formats
-                            acodec = "mp3"; // Default audio codec
-                        } else if (isVideoOnly || resolution.matches("\\d+x\\d+")) {
-                            type = "video";
-                        }
+    /**
+     * One `yt-dlp -J` run, stream-parsed straight into FormatInfo (sizes included).
+     * Served by a warm pooled worker when the pool is enabled, else a fresh process.
+     */
+    private List<FormatInfo> extractFormatsFromJson(String videoUrl) throws Exception {
+        try (YtDlpMetrics.Invocation run = metrics.begin("listFormats");
+             UpstreamGuard.Permit permit = upstreamGuard.acquire(videoUrl)) {
+            if (workerPool.isEnabled()) {
+                try {
+                    List<FormatInfo> formats = workerPool.extractFormats(videoUrl);
+                    run.pooled();
+                    run.exit(0);
+                    permit.exit(0, null);
+                    return formats;
+                } catch (YtDlpWorkerPool.WorkerUnavailableException e) {
+                    // Pool busy or broken: one-shot process below
+                } catch (RuntimeException e) {
+                    // The worker ran yt-dlp and it failed
+                    run.pooled();
+                    run.exit(1);
+                    if (permit.exit(1, e.getMessage())) throw permit.throttledError();
+                    throw e;
+                }
+            }
+            ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-J", "--no-playlist", videoUrl);
+            ProcessSupervisor.Watch watch = supervisor.watch(run.spawn(pb), ProcessSupervisor.Phase.EXTRACT);
+            Process p = watch.process();
+            StringBuilder stderr = new StringBuilder();
+            Thread errPump = drainAsync(p.getErrorStream(), stderr);
+            List<FormatInfo> formats;
+            try (InputStream in = run.output(p.getInputStream())) {
+                formats = FormatJsonParser.parse(in);
+                // Let yt-dlp finish writing the rest of the document
+                in.transferTo(OutputStream.nullOutputStream());
+            } catch (Exception e) {
+                // Usually yt-dlp failed before printing any JSON: record why it exited
+                p.destroy();
+                int exit = Processes.waitFor(p);
+                errPump.join();
+                if (finish(run, permit, watch, exit, stderr)) throw permit.throttledError();
+                run.error(e);
+                if (watch.failure() != null) throw new RuntimeException(watch.failure(), e);
+                throw e;
+            }
+            int exit = Processes.waitFor(p);
+            errPump.join();
+            if (finish(run, permit, watch, exit, stderr)) throw permit.throttledError();
+            if (watch.failure() != null) throw new RuntimeException(watch.failure());
+            if (exit != 0 && formats.isEmpty()) {
+                throw new RuntimeException("yt-dlp -J failed with exit code " + exit + ": " + stderr.toString().trim());
+            }
+            return formats;
+        }
+    }
 
-                        // Parse file size
-                        Long filesize = null;
-                        if (fileSize.startsWith("~")) fileSize = fileSize.substring(1).trim();
-                        if (!fileSize.isEmpty()) {
-                            filesize = humanToBytes(fileSize);
-                        }
+    /**
+     * Record how a process run ended with the metrics and the upstream guard. Returns true
+     * if the upstream throttled it; a cancelled run is not held against the upstream.
+     */
+    private boolean finish(YtDlpMetrics.Invocation run, UpstreamGuard.Permit permit, ProcessSupervisor.Watch watch,
+                           int exit, CharSequence output) {
+        run.exit(exit);
+        if (watch.isCancelled()) return false;
+        return permit.exit(exit, output);
+    }
 
-                        // Create and add format info
-                        FormatInfo info = new FormatInfo(
-                            id, ext, resolution, fps, vcodec, acodec, 
-                            tbr, note, type, filesize
-                        );
-                        formats.add(info);
-                        
-                    } catch (Exception e) {
-                        // Skip malformed lines silently
-                    }
+    private Thread drainAsync(InputStream in, StringBuilder sink) {
+        return threads.start("ytd-stderr", () -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (sink.length() < 2000) sink.append(line).append('\n');
                 }
+            } catch (Exception ignored) {
+                // Stream closed with the process
+            }
+        });
+    }
+
+    private List<FormatInfo> extractFormatsFromTable(String videoUrl) {
+        try (YtDlpMetrics.Invocation run = metrics.begin("listFormatsTable");
+             UpstreamGuard.Permit permit = upstreamGuard.acquire(videoUrl)) {
+            ProcessBuilder pb = new ProcessBuilder("yt-dlp", "--list-formats", videoUrl);
+            ProcessSupervisor.Watch watch = supervisor.watch(run.spawn(pb), ProcessSupervisor.Phase.EXTRACT);
+            Process p = watch.process();
+            StringBuilder stderr = new StringBuilder();
+            Thread errPump = drainAsync(p.getErrorStream(), stderr);
+            List<FormatInfo> formats;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(run.output(p.getInputStream())))) {
+                formats = FormatTableParser.parse(reader);
             }
 
-            int exit = p.waitFor();
+            int exit = Processes.waitFor(p);
+            errPump.join();
+            if (finish(run, permit, watch, exit, stderr)) throw permit.throttledError();
+            if (watch.failure() != null) throw new RuntimeException(watch.failure());
             if (exit != 0 && formats.isEmpty()) {
                 throw new RuntimeException("yt-dlp --list-formats failed with exit code " + exit);
             }
             
             return formats;
+        } catch (UpstreamUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Failed to list formats: " + e.getMessage(), e);
         }
     }
 
-    public String downloadVideoWithBestAudio(String videoUrl, String videoFormatId) {
+    public DownloadResult downloadVideoWithBestAudio(String videoUrl, String videoFormatId) {
+        return downloadVideoWithBestAudio(videoUrl, videoFormatId, ProgressListener.NONE);
+    }
+
+    /**
+     * Download a video format merged with the best audio. An identical earlier download
+     * (same video, format and post-processing) is returned from the artifact store.
+     */
+    public DownloadResult downloadVideoWithBestAudio(String videoUrl, String videoFormatId, ProgressListener progress) {
+        return downloadVideoWithBestAudio(videoUrl, videoFormatId, progress, TransferOptions.DEFAULT, null);
+    }
+
+    /**
+     * As above, fetching with the given fragment concurrency / downloader. A verified
+     * format token from /formats already says whether the format is progressive and
+     * which audio to merge, so the format lookup (an extractor run on a cache miss)
+     * is skipped; without one the formats are looked up.
+     */
+    public DownloadResult downloadVideoWithBestAudio(String videoUrl, String videoFormatId, ProgressListener progress,
+                                                     TransferOptions options, FormatTokens.Claims format) {
+        return artifactStore.getOrCreate(ArtifactStore.key(videoUrl, videoFormatId, "bestaudio"),
+                outDir -> downloadVideoWithBestAudio(videoUrl, videoFormatId, progress, options, format, outDir));
+    }
+
+    private DownloadResult downloadVideoWithBestAudio(String videoUrl, String videoFormatId, ProgressListener progress,
+                                                      TransferOptions options, FormatTokens.Claims format, Path outDir) {
         try {
-            Path downloadDir = ensureDownloadDir();
-            String outputTemplate = downloadDir.resolve("%(title)s.%(ext)s").toString().replace('\\', '/');
-            
-            // Detect if selected video format is progressive (already has audio)
-            List<FormatInfo> fmts = listFormats(videoUrl);
-            FormatInfo chosen = null;
-            for (FormatInfo f : fmts) {
-                if (videoFormatId.equals(f.getId())) { chosen = f; break; }
-            }
+            Files.createDirectories(outDir);
+            String outputTemplate = outDir.resolve("%(title)s.%(ext)s").toString().replace('\\', '/');
 
-            String formatArg;
-            boolean progressive = false;
-            if (chosen != null) {
-                if ("video".equalsIgnoreCase(chosen.getType()) && chosen.getAcodec() != null && !chosen.getAcodec().isEmpty()) {
-                    progressive = true;
-                }
-                if (chosen.getNote() != null && chosen.getNote().toLowerCase().contains("video only")) {
-                    progressive = false;
+            boolean progressive;
+            String bestAudioId;
+            if (format != null) {
+                progressive = format.isProgressive();
+                bestAudioId = format.getBestAudioId();
+            } else {
+                // Detect if selected video format is progressive (already has audio)
+                List<FormatInfo> fmts = listFormats(videoUrl);
+                FormatInfo chosen = null;
+                for (FormatInfo f : fmts) {
+                    if (videoFormatId.equals(f.getId())) { chosen = f; break; }
                 }
+                progressive = FormatRanking.isProgressive(chosen);
+                bestAudioId = progressive ? null : FormatRanking.bestAudioId(fmts);
             }
 
+            String formatArg;
             if (progressive) {
                 formatArg = videoFormatId;
                 ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-f", formatArg, "-o", outputTemplate, videoUrl);
-                return runProcessAndSummarize(pb);
+                return runProcessAndSummarize("downloadVideoWithBestAudio", pb, progress, options);
             } else {
-                String bestAudioId = findBestAudioId(fmts);
                 if (bestAudioId == null) {
-                    return "Could not determine best audio format id";
+                    return DownloadResult.failed("Could not determine best audio format id");
+                }
+                if (parallelMerge) {
+                    return downloadAndMerge(videoUrl, videoFormatId, bestAudioId, progress, options, outDir);
                 }
                 formatArg = videoFormatId + "+" + bestAudioId;
                 ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-f", formatArg, "-o", outputTemplate, videoUrl);
-                return runProcessAndSummarize(pb);
+                return runProcessAndSummarize("downloadVideoWithBestAudio", pb, progress, options);
             }
         } catch (Exception e) {
-            return "Exception: " + e.getMessage();
+            return DownloadResult.failed("Exception: " + e.getMessage());
         }
     }
 
-    public String downloadAudioMp3(String videoUrl, String audioFormatId) {
+    /**
+     * Fetch the video and audio streams at the same time (audio on a helper thread, each
+     * its own yt-dlp run), then remux them with ffmpeg without re-encoding. yt-dlp's own
+     * "v+a" download fetches the streams one after the other. Their progress is reported
+     * as one download (see {@link MergedProgress}). The merged file is written under a
+     * temp name and renamed into place, so a failed merge never leaves a partial file
+     * behind.
+     */
+    private DownloadResult downloadAndMerge(String videoUrl, String videoFormatId, String audioFormatId,
+                                            ProgressListener progress, TransferOptions options, Path outDir)
+            throws Exception {
+        Path parts = partsDir(outDir);
+        Files.createDirectories(parts);
+        String template = parts.resolve("%(title)s.f%(format_id)s.%(ext)s").toString().replace('\\', '/');
+        long started = System.nanoTime();
+        MergedProgress merged = new MergedProgress(videoFormatId + "+" + audioFormatId, progress);
         try {
-            Path downloadDir = ensureDownloadDir();
-            String outputTemplate = downloadDir.resolve("%(title)s.%(ext)s").toString().replace('\\', '/');
+            // The helper gets its own cancellation: the job's only reaches processes on this thread
+            ProcessSupervisor.Cancellation audioCancel = supervisor.newCancellation();
+            Observation parent = metrics.getObservations().getCurrentObservation();
+            CompletableFuture<DownloadResult> audioDone = new CompletableFuture<>();
+            Thread audioThread = threads.start("ytd-audio", () -> {
+                try (Observation.Scope scope = parent != null ? parent.openScope() : null;
+                     ProcessSupervisor.Binding binding = audioCancel.bind()) {
+                    ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-f", audioFormatId, "-o", template, videoUrl);
+                    audioDone.complete(runProcessAndSummarize("fetchAudio", pb, merged.stream(1), options));
+                } catch (Throwable e) {
+                    audioDone.completeExceptionally(e);
+                }
+            });
+
+            DownloadResult video;
+            DownloadResult audio;
+            try {
+                ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-f", videoFormatId, "-o", template, videoUrl);
+                video = runProcessAndSummarize("fetchVideo", pb, merged.stream(0), options);
+                if (!video.isSuccess()) {
+                    audioCancel.cancel();
+                    audioThread.join();
+                    return video;
+                }
+                audio = audioDone.get();
+            } catch (InterruptedException e) {
+                // Job cancelled while waiting: stop the audio fetch before cleaning up
+                audioCancel.cancel();
+                audioThread.join();
+                throw e;
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (Exception e) {
+                audioCancel.cancel();
+                audioThread.join();
+                throw e;
+            }
+            if (!audio.isSuccess()) return audio;
+            if (video.getFile() == null || audio.getFile() == null) {
+                return DownloadResult.failed("yt-dlp did not report the downloaded streams");
+            }
+            long fetchMillis = (System.nanoTime() - started) / 1_000_000;
+
+            Path videoFile = downloadDir.resolve(video.getFile());
+            Path audioFile = downloadDir.resolve(audio.getFile());
+            String container = mergeContainer(extensionOf(videoFile), extensionOf(audioFile));
+            String title = baseName(videoFile.getFileName().toString(), videoFormatId);
+            Path merging = parts.resolve("merged." + container);
+            String failure = remux(videoFile, audioFile, container, merging, progress);
+            if (failure != null) return DownloadResult.failed(failure);
+            Path target = outDir.resolve(title + "." + container);
+            Files.move(merging, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            TransferStats v = video.getTransfer();
+            TransferStats a = audio.getTransfer();
+            TransferStats transfer = v == null || a == null ? null : new TransferStats(
+                    v.getConnections() + a.getConnections(), v.getDownloader(), v.getBytes() + a.getBytes(), fetchMillis);
+            return new DownloadResult(true, DOWNLOAD_OK, downloadDir.relativize(target).toString().replace('\\', '/'),
+                    transfer);
+        } finally {
+            if (!DownloadJobService.interruptedByShutdown()) ArtifactStore.deleteRecursively(parts);
+        }
+    }
+
+    /**
+     * Download progress of two streams fetched at once, published as one stream: bytes,
+     * totals and speeds are summed and the later ETA is kept, so a job's percentage does
+     * not jump between the video's and the audio's. The total is unknown until both
+     * streams have reported one. Other phases pass through unchanged.
+     */
+    static final class MergedProgress {
+
+        private final String formatId;
+        private final ProgressListener target;
+        private final ProgressEvent[] latest = new ProgressEvent[2];
+
+        MergedProgress(String formatId, ProgressListener target) {
+            this.formatId = formatId;
+            this.target = target;
+        }
+
+        /** The listener for one of the streams (0 or 1). */
+        ProgressListener stream(int index) {
+            return event -> onProgress(index, event);
+        }
+
+        private void onProgress(int index, ProgressEvent event) {
+            if (!ProgressEvent.PHASE_DOWNLOAD.equals(event.getPhase())) {
+                target.onProgress(event);
+                return;
+            }
+            ProgressEvent combined;
+            synchronized (this) {
+                latest[index] = event;
+                combined = combine();
+            }
+            target.onProgress(combined);
+        }
+
+        private ProgressEvent combine() {
+            boolean finished = true;
+            long downloaded = 0;
+            Long total = 0L;
+            Double speed = null;
+            Long eta = null;
+            boolean estimated = false;
+            for (ProgressEvent e : latest) {
+                if (e == null) {
+                    finished = false;
+                    total = null;
+                    continue;
+                }
+                if (!"finished".equals(e.getStatus())) finished = false;
+                if (e.getDownloadedBytes() != null) downloaded += e.getDownloadedBytes();
+                total = total == null || e.getTotalBytes() == null ? null : total + e.getTotalBytes();
+                if (e.getSpeed() != null) speed = speed == null ? e.getSpeed() : speed + e.getSpeed();
+                if (e.getEta() != null) eta = eta == null ? e.getEta() : Math.max(eta, e.getEta());
+                estimated |= e.isTotalEstimated();
+            }
+            ProgressEvent c = new ProgressEvent(ProgressEvent.PHASE_DOWNLOAD, finished ? "finished" : "downloading");
+            c.setFormatId(formatId);
+            c.setDownloadedBytes(downloaded);
+            c.setTotalBytes(total);
+            c.setTotalEstimated(estimated);
+            c.setSpeed(speed);
+            c.setEta(eta);
+            return c;
+        }
+    }
+
+    /** Scratch dir for stream parts; named after the job, so a resumed job finds its partial files. */
+    private static Path partsDir(Path outDir) {
+        String jobId = DownloadJobService.currentJobId();
+        return outDir.resolve(PARTS_PREFIX + (jobId != null ? jobId : UUID.randomUUID().toString()));
+    }
+
+    /** ffmpeg -c copy of one video and one audio stream into the container; returns an error or null. */
+    private String remux(Path videoFile, Path audioFile, String container, Path out, ProgressListener progress)
+            throws Exception {
+        ProgressEvent start = new ProgressEvent(ProgressEvent.PHASE_MERGE, "started");
+        progress.onProgress(start);
+        ProcessBuilder pb = new ProcessBuilder("ffmpeg", "-hide_banner", "-nostdin", "-loglevel", "error", "-y",
+                "-i", videoFile.toString(), "-i", audioFile.toString(),
+                "-map", "0:v:0", "-map", "1:a:0", "-c", "copy",
+                "-f", container.equals("mkv") ? "matroska" : container, out.toString());
+        pb.redirectErrorStream(true);
+        try (YtDlpMetrics.Invocation run = metrics.begin("merge")) {
+            run.progress(start);
+            ProcessSupervisor.Watch watch = supervisor.watch(run.spawn(pb), ProcessSupervisor.Phase.POSTPROCESS);
+            StringBuilder output = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(watch.process().getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (output.length() < 2000) output.append(line).append('\n');
+                }
+            }
+            int exit = Processes.waitFor(watch.process());
+            run.exit(exit);
+            if (watch.failure() != null) return watch.failure();
+            if (exit != 0) return "Merge failed (" + exit + "): " + output.toString().trim();
+            run.progress(new ProgressEvent(ProgressEvent.PHASE_MERGE, "finished"));
+            progress.onProgress(new ProgressEvent(ProgressEvent.PHASE_MERGE, "finished"));
+            return null;
+        }
+    }
+
+    /** The container yt-dlp would merge into: mp4 for mp4+m4a, webm for webm+webm, else mkv. */
+    static String mergeContainer(String videoExt, String audioExt) {
+        if ((videoExt.equals("mp4") || videoExt.equals("m4v")) && (audioExt.equals("m4a") || audioExt.equals("mp4"))) {
+            return "mp4";
+        }
+        if (videoExt.equals("webm") && (audioExt.equals("webm") || audioExt.equals("opus"))) return "webm";
+        return "mkv";
+    }
+
+    private static String extensionOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+
+    /** "Title.f137.mp4" -> "Title". */
+    static String baseName(String fileName, String formatId) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot < 0 ? fileName : fileName.substring(0, dot);
+        String suffix = ".f" + formatId;
+        return base.endsWith(suffix) ? base.substring(0, base.length() - suffix.length()) : base;
+    }
+
+    public DownloadResult downloadAudioMp3(String videoUrl, String audioFormatId) {
+        return downloadAudioMp3(videoUrl, audioFormatId, ProgressListener.NONE);
+    }
+
+    /** Download an audio format as MP3, reusing an identical earlier download when stored. */
+    public DownloadResult downloadAudioMp3(String videoUrl, String audioFormatId, ProgressListener progress) {
+        return artifactStore.getOrCreate(ArtifactStore.key(videoUrl, audioFormatId, "mp3"),
+                outDir -> streamingTranscode
+                        ? transcodeAudioToFile(videoUrl, audioFormatId, progress, outDir)
+                        : downloadAudioMp3(videoUrl, audioFormatId, progress, outDir));
+    }
+
+    /** Download an audio format as is (opus/webm, m4a, ...), skipping the MP3 transcode. */
+    public DownloadResult downloadAudioNative(String videoUrl, String audioFormatId, ProgressListener progress) {
+        return artifactStore.getOrCreate(ArtifactStore.key(videoUrl, audioFormatId, "none"), outDir -> {
+            try {
+                Files.createDirectories(outDir);
+                String outputTemplate = outDir.resolve("%(title)s.%(ext)s").toString().replace('\\', '/');
+                ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-f", audioFormatId, "-o", outputTemplate, videoUrl);
+                return runProcessAndSummarize("downloadAudio", pb, progress, TransferOptions.DEFAULT);
+            } catch (Exception e) {
+                return DownloadResult.failed("Exception: " + e.getMessage());
+            }
+        });
+    }
+
+    /** Encode the stream to MP3 on the fly into a temp file, then rename it to "<title>.mp3". */
+    private DownloadResult transcodeAudioToFile(String videoUrl, String audioFormatId, ProgressListener progress,
+                                                Path outDir) {
+        Path parts = partsDir(outDir);
+        try {
+            Files.createDirectories(parts);
+            Path titleFile = parts.resolve("title.txt");
+            Path encoding = parts.resolve("audio.mp3");
+            long started = System.nanoTime();
+            long fetched;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(encoding), 64 * 1024)) {
+                fetched = transcodeToMp3("downloadAudioMp3", videoUrl, audioFormatId,
+                        List.of("--print-to-file", "before_dl:%(title)s", titleFile.toString()), out, progress);
+            }
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            Path target = outDir.resolve(fileTitle(titleFile, videoUrl) + ".mp3");
+            Files.move(encoding, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new DownloadResult(true, DOWNLOAD_OK, downloadDir.relativize(target).toString().replace('\\', '/'),
+                    new TransferStats(1, ConnectionBudget.NATIVE, fetched, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DownloadResult.failed("Interrupted");
+        } catch (Exception e) {
+            return DownloadResult.failed("Exception: " + e.getMessage());
+        } finally {
+            if (!DownloadJobService.interruptedByShutdown()) ArtifactStore.deleteRecursively(parts);
+        }
+    }
+
+    /** The title yt-dlp printed, made safe as a file name; the video ID when there is none. */
+    private static String fileTitle(Path titleFile, String videoUrl) {
+        String title = "";
+        try {
+            if (Files.exists(titleFile)) title = Files.readString(titleFile).trim();
+        } catch (IOException e) {
+            // Fall back to the ID
+        }
+        title = title.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+        if (title.length() > 180) title = title.substring(0, 180);
+        if (title.isBlank()) title = VideoIds.cacheKey(videoUrl).replaceAll("[^A-Za-z0-9_-]", "_");
+        return title;
+    }
+
+    /**
+     * Stream an audio format to the client as MP3, encoded while it downloads; nothing
+     * is written to the download directory.
+     */
+    public void streamAudioMp3(String videoUrl, String formatId, OutputStream out) throws IOException {
+        try {
+            transcodeToMp3("streamMp3", videoUrl, formatId, List.of(), out, ProgressListener.NONE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while streaming", e);
+        }
+    }
+
+    /**
+     * One-pass MP3 pipeline: `yt-dlp -o -` writes the audio stream to stdout, a pool
+     * thread of the encoder slot feeds it into ffmpeg as it arrives, and this thread
+     * copies ffmpeg's MP3 output to sink while the download is still running. Both
+     * processes are supervised (and so cancelled) with the caller's job, and the encoder
+     * is timed as its own run with an extract-audio phase. Returns the bytes downloaded;
+     * throws when either process fails, is killed or the sink breaks.
+     */
+    private long transcodeToMp3(String operation, String videoUrl, String formatId, List<String> extraArgs,
+                                OutputStream sink, ProgressListener progress) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>(List.of("yt-dlp", "-f", formatId, "--no-playlist", "--no-part", "--quiet"));
+        cmd.addAll(ProgressParser.arguments());
+        cmd.addAll(extraArgs);
+        cmd.addAll(List.of("-o", "-", videoUrl));
+        try (YtDlpMetrics.Invocation run = metrics.begin(operation);
+             UpstreamGuard.Permit permit = upstreamGuard.acquire(videoUrl);
+             YtDlpMetrics.Invocation encode = metrics.begin("encodeMp3")) {
+            ProcessSupervisor.Watch download = supervisor.watch(run.spawn(new ProcessBuilder(cmd)),
+                    ProcessSupervisor.Phase.DOWNLOAD);
+            StringBuilder errors = new StringBuilder();
+            Thread errPump = threads.start("ytd-stderr", () -> readProgress(download, errors, progress));
+            // Taken once the download is under way, so the slot is not held while waiting on the upstream
+            TranscodePool.Slot slot;
+            try {
+                slot = transcodePool.acquire();
+            } catch (TranscodeBusyException | InterruptedException e) {
+                download.kill("No MP3 encoder available");
+                run.error(e);
+                throw e;
+            }
+            try (slot) {
+                ProcessSupervisor.Watch encoder;
+                try {
+                    encoder = supervisor.watch(encode.spawn(new ProcessBuilder(transcodePool.encoderCommand())),
+                            ProcessSupervisor.Phase.DOWNLOAD);
+                } catch (IOException e) {
+                    download.kill("Encoder failed to start");
+                    encode.error(e);
+                    throw e;
+                }
+                encode.progress(new ProgressEvent(ProgressEvent.PHASE_EXTRACT_AUDIO, "started"));
+                StringBuilder encoderErrors = new StringBuilder();
+                Thread encoderErrPump = drainAsync(encoder.process().getErrorStream(), encoderErrors);
+                Future<Long> fed = slot.feed(run.output(download.process().getInputStream()),
+                        encoder.process().getOutputStream());
+                long written = 0;
+                try (InputStream in = encoder.process().getInputStream()) {
+                    byte[] buf = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        sink.write(buf, 0, n);
+                        written += n;
+                    }
+                    sink.flush();
+                } catch (IOException e) {
+                    // Client went away or the disk failed: stop both processes
+                    download.kill("Output closed");
+                    encoder.kill("Output closed");
+                    run.error(e);
+                    encode.error(e);
+                    throw e;
+                }
+                int exit;
+                int encoderExit;
+                try {
+                    exit = Processes.waitFor(download.process());
+                    encoderExit = Processes.waitFor(encoder.process());
+                    errPump.join();
+                    encoderErrPump.join();
+                } catch (InterruptedException e) {
+                    download.kill("Interrupted");
+                    encoder.kill("Interrupted");
+                    throw e;
+                }
+                long fetched = 0;
+                try {
+                    fetched = fed.get();
+                } catch (ExecutionException e) {
+                    // ffmpeg stopped reading; its exit code says why
+                }
+                run.addBytes(fetched);
+                finish(run, permit, download, exit, errors);
+                encode.exit(encoderExit);
+                String failure = download.failure() != null ? download.failure() : encoder.failure();
+                if (failure != null) throw new IOException(failure);
+                if (exit != 0) throw new IOException("Download failed (" + exit + "): " + errors.toString().trim());
+                if (encoderExit != 0 || written == 0) {
+                    throw new IOException("MP3 encoding failed (" + encoderExit + "): "
+                            + encoderErrors.toString().trim());
+                }
+                slot.succeeded();
+                return fetched;
+            }
+        }
+    }
+
+    /** yt-dlp's stderr: progress lines go to the listener and metrics, ERROR lines to errors. */
+    private void readProgress(ProcessSupervisor.Watch watch, StringBuilder errors, ProgressListener progress) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(watch.process().getErrorStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ProgressEvent event = ProgressParser.parse(line);
+                if (event != null) {
+                    progress.onProgress(event);
+                } else if (line.startsWith("ERROR:") && errors.length() < 2000) {
+                    errors.append(line).append('\n');
+                }
+            }
+        } catch (Exception ignored) {
+            // Stream closed with the process
+        }
+    }
+
+    private DownloadResult downloadAudioMp3(String videoUrl, String audioFormatId, ProgressListener progress,
+                                            Path outDir) {
+        try {
+            Files.createDirectories(outDir);
+            String outputTemplate = outDir.resolve("%(title)s.%(ext)s").toString().replace('\\', '/');
             
             ProcessBuilder pb = new ProcessBuilder(
                 "yt-dlp",
@@ -246,82 +823,190 @@ public class YoutubeDownloadService {
                 "-o", outputTemplate,
                 videoUrl
             );
-            return runProcessAndSummarize(pb);
+            return runProcessAndSummarize("downloadAudioMp3", pb, progress, TransferOptions.DEFAULT);
         } catch (Exception e) {
-            return "Exception: " + e.getMessage();
+            return DownloadResult.failed("Exception: " + e.getMessage());
         }
     }
 
-    private String findBestAudioId(List<FormatInfo> formats) {
-        List<FormatInfo> audios = formats.stream()
-                .filter(f -> "audio".equalsIgnoreCase(f.getType()))
-                .collect(Collectors.toList());
-        if (audios.isEmpty()) return null;
-
-        // Rank by note quality first: high > medium > low > unknown
-        audios.sort((a, b) -> {
-            int qa = audioQualityRank(a.getNote());
-            int qb = audioQualityRank(b.getNote());
-            if (qa != qb) return Integer.compare(qb, qa);
-            // Then by abr desc
-            int abrA = parseIntSafe(a.getAbr());
-            int abrB = parseIntSafe(b.getAbr());
-            if (abrA != abrB) return Integer.compare(abrB, abrA);
-            // Then by codec preference (opus > aac > others)
-            int prefA = audioCodecPreference(a.getAcodec());
-            int prefB = audioCodecPreference(b.getAcodec());
-            if (prefA != prefB) return Integer.compare(prefB, prefA);
-            // Finally, stable by id desc (often higher itag ~ higher quality within family)
-            return safeInt(b.getId()) - safeInt(a.getId());
-        });
-
-        return audios.get(0).getId();
-    }
-
-    private int audioQualityRank(String note) {
-        if (note == null) return -1;
-        String n = note.toLowerCase();
-        if (n.contains("high")) return 3;
-        if (n.contains("medium")) return 2;
-        if (n.contains("low")) return 1;
-        return 0;
+    /** The format with this id for the video, or null when yt-dlp does not offer it. */
+    public FormatInfo findFormat(String videoUrl, String formatId) {
+        for (FormatInfo f : listFormats(videoUrl)) {
+            if (formatId.equals(f.getId())) return f;
+        }
+        return null;
     }
 
-    private int audioCodecPreference(String acodec) {
-        if (acodec == null) return 0;
-        String a = acodec.toLowerCase();
-        if (a.contains("opus") || a.contains("webm")) return 3;
-        if (a.contains("aac") || a.contains("m4a")) return 2;
-        if (a.contains("mp3")) return 1;
-        return 0;
+    /**
+     * Pipe a single format straight from `yt-dlp -o -` into the given stream, so nothing
+     * is written to the download directory. The copy buffer is the only per-connection
+     * memory; a slow client blocks the write, which in turn stops reading from yt-dlp.
+     * Merged (video+audio) selectors need a seekable output and are not supported here.
+     */
+    public void streamFormat(String videoUrl, String formatId, OutputStream out) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(
+                "yt-dlp",
+                "-f", formatId,
+                "--no-playlist",
+                "--no-part",
+                "--quiet",
+                "-o", "-",
+                videoUrl
+        );
+        try (YtDlpMetrics.Invocation run = metrics.begin("stream");
+             UpstreamGuard.Permit permit = upstreamGuard.acquire(videoUrl)) {
+            ProcessSupervisor.Watch watch = supervisor.watch(run.spawn(pb), ProcessSupervisor.Phase.DOWNLOAD);
+            Process p = watch.process();
+            StringBuilder stderr = new StringBuilder();
+            Thread errPump = drainAsync(p.getErrorStream(), stderr);
+            long copied = 0;
+            try (InputStream in = run.output(p.getInputStream())) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                    copied += n;
+                }
+                out.flush();
+            } catch (IOException e) {
+                // Client went away (or the pipe broke): stop the download, ffmpeg included
+                watch.kill("Client disconnected");
+                run.error(e);
+                throw e;
+            } finally {
+                run.addBytes(copied);
+            }
+            try {
+                int exit = Processes.waitFor(p);
+                errPump.join();
+                finish(run, permit, watch, exit, stderr);
+                if (watch.failure() != null) {
+                    throw new IOException(watch.failure() + " after " + copied + " bytes");
+                }
+                if (exit != 0) {
+                    throw new IOException("yt-dlp exited with code " + exit + " after " + copied + " bytes: "
+                            + stderr.toString().trim());
+                }
+            } catch (InterruptedException e) {
+                watch.kill("Interrupted");
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while streaming", e);
+            }
+        }
     }
 
-    private int safeInt(String s) {
-        try { return Integer.parseInt(s); } catch (Exception e) { return 0; }
+    /**
+     * Run a download and report the final output file. yt-dlp is asked to print the
+     * path after post-processing and moving (`--print after_move:filepath`), which
+     * also quiets its progress output, so machine-readable progress lines are turned
+     * back on and parsed into events: for the listener, and for the byte counts and
+     * merge / transcode timings in the run's metrics. Fragment concurrency (or the
+     * external downloader) comes from a connection budget lease held for the run.
+     */
+    private DownloadResult runProcessAndSummarize(String operation, ProcessBuilder pb, ProgressListener progress,
+                                                  TransferOptions options) throws Exception {
+        List<String> cmd = pb.command();
+        String url = cmd.get(cmd.size() - 1);
+        try (YtDlpMetrics.Invocation run = metrics.begin(operation);
+             UpstreamGuard.Permit permit = upstreamGuard.acquire(url);
+             ConnectionBudget.Lease lease = connections.acquire(options)) {
+            cmd.addAll(1, lease.arguments());
+            long started = System.nanoTime();
+            if (workerPool.handlesDownloads()) {
+                long[] fetched = {0}; // when fetching ended and post-processing began
+                try {
+                    YtDlpWorkerPool.RunResult r = workerPool.run(cmd.subList(1, cmd.size()), event -> {
+                        if (!ProgressEvent.PHASE_DOWNLOAD.equals(event.getPhase()) && fetched[0] == 0) {
+                            fetched[0] = System.nanoTime();
+                        }
+                        run.progress(event);
+                        progress.onProgress(event);
+                    });
+                    run.pooled();
+                    run.exit(r.exitCode);
+                    permit.exit(r.exitCode, r.error);
+                    if (r.exitCode != 0) return DownloadResult.failed("Download failed (" + r.exitCode + ")");
+                    String file = null;
+                    for (String f : r.files) {
+                        String name = toDownloadName(f);
+                        if (name != null) file = name;
+                    }
+                    if (!run.hasBytes()) addFileSize(run, file);
+                    long fetchNanos = (fetched[0] == 0 ? System.nanoTime() : fetched[0]) - started;
+                    return new DownloadResult(true, DOWNLOAD_OK, file, lease.finish(run.getBytes(), fetchNanos));
+                } catch (YtDlpWorkerPool.WorkerUnavailableException e) {
+                    // Fall back to a one-shot process
+                }
+            }
+            cmd.add(1, "--print");
+            cmd.add(2, "after_move:filepath");
+            cmd.addAll(3, ProgressParser.arguments());
+            pb.redirectErrorStream(true);
+            ProcessSupervisor.Watch watch = supervisor.watch(run.spawn(pb), ProcessSupervisor.Phase.DOWNLOAD);
+            Process process = watch.process();
+            StringBuilder output = new StringBuilder(2048);
+            StringBuilder errors = new StringBuilder();
+            String file = null;
+            long downloaded = 0; // when fetching ended and post-processing began
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(run.output(process.getInputStream())))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Progress lines become events; of the rest, remember the last printed output path
+                    ProgressEvent event = ProgressParser.parse(line);
+                    if (event != null) {
+                        // Post-processing (merge, MP3 transcode) gets its own timeout
+                        boolean fetching = ProgressEvent.PHASE_DOWNLOAD.equals(event.getPhase());
+                        watch.phase(fetching ? ProcessSupervisor.Phase.DOWNLOAD : ProcessSupervisor.Phase.POSTPROCESS);
+                        if (!fetching && downloaded == 0) downloaded = System.nanoTime();
+                        run.progress(event);
+                        progress.onProgress(event);
+                        continue;
+                    }
+                    String name = toDownloadName(line);
+                    if (name != null) file = name;
+                    if (output.length() < 2000) {
+                        output.append(line).append('\n');
+                    }
+                    if (line.startsWith("ERROR:") && errors.length() < 2000) {
+                        errors.append(line).append('\n');
+                    }
+                }
+            }
+            int exitCode = Processes.waitFor(process);
+            finish(run, permit, watch, exitCode, errors);
+            if (watch.failure() != null) {
+                return DownloadResult.failed(watch.failure());
+            }
+            if (exitCode == 0) {
+                if (!run.hasBytes()) addFileSize(run, file);
+                long fetchNanos = (downloaded == 0 ? System.nanoTime() : downloaded) - started;
+                return new DownloadResult(true, DOWNLOAD_OK, file, lease.finish(run.getBytes(), fetchNanos));
+            } else {
+                return DownloadResult.failed("Download failed (" + exitCode + ")");
+            }
+        }
     }
 
-    private int parseIntSafe(String s) {
-        try { return Integer.parseInt(s); } catch (Exception e) { return 0; }
+    /** Count the finished file when yt-dlp reported no byte totals (unknown sizes). */
+    private void addFileSize(YtDlpMetrics.Invocation run, String file) {
+        if (file == null) return;
+        try {
+            run.addBytes(Files.size(downloadDir.resolve(file)));
+        } catch (IOException e) {
+            // Already moved or deleted
+        }
     }
 
-    private String runProcessAndSummarize(ProcessBuilder pb) throws Exception {
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-        StringBuilder output = new StringBuilder(2048);
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Silently consume all output
-                if (output.length() < 2000) {
-                    output.append(line).append('\n');
-                }
-            }
-        }
-        int exitCode = process.waitFor();
-        if (exitCode == 0) {
-            return "Download completed successfully!";
-        } else {
-            return "Download failed (" + exitCode + ")";
+    /** Name relative to the download dir if the line is the path of a file inside it, else null. */
+    private String toDownloadName(String line) {
+        String l = line.trim();
+        if (l.isEmpty()) return null;
+        try {
+            Path p = Paths.get(l).toAbsolutePath().normalize();
+            if (!p.startsWith(downloadDir) || !Files.isRegularFile(p)) return null;
+            return downloadDir.relativize(p).toString().replace('\\', '/');
+        } catch (Exception e) {
+            return null;
         }
     }
 
@@ -346,96 +1031,62 @@ public class YoutubeDownloadService {
         }
     }
 
-    private Long humanToBytes(String size) {
-        if (size == null || size.isEmpty()) return null;
-        try {
-            size = size.toUpperCase();
-            if (size.endsWith("KIB")) {
-                return (long) (Double.parseDouble(size.replace("KIB", "").trim()) * 1024);
-            } else if (size.endsWith("MIB")) {
-                return (long) (Double.parseDouble(size.replace("MIB", "").trim()) * 1024 * 1024);
-            } else if (size.endsWith("GIB")) {
-                return (long) (Double.parseDouble(size.replace("GIB", "").trim()) * 1024 * 1024 * 1024);
-            } else if (size.endsWith("KB")) {
-                return (long) (Double.parseDouble(size.replace("KB", "").trim()) * 1000);
-            } else if (size.endsWith("MB")) {
-                return (long) (Double.parseDouble(size.replace("MB", "").trim()) * 1000 * 1000);
-            } else if (size.endsWith("GB")) {
-                return (long) (Double.parseDouble(size.replace("GB", "").trim()) * 1000 * 1000 * 1000);
-            } else if (size.endsWith("B")) {
-                return Long.parseLong(size.replace("B", "").trim());
-            } else {
-                // Assume bytes if no unit specified
-                return Long.parseLong(size.trim());
-            }
-        } catch (NumberFormatException e) {
-            return null;
-        }
-    }
-
     /**
-     * Fast text parse of `yt-dlp -F <url>` to obtain human sizes per itag (when available).
+     * Exact sizes per itag (when available).
      * Returns a map: format_id -> bytes. Unknown sizes are omitted.
+     * Sizes come from the format cache or a -J extraction; the `yt-dlp -F <url>`
+     * text scrape is the fallback. The map is unmodifiable, as coalesced callers share it.
      */
     public Map<String, Long> getFormatSizes(String videoUrl) {
-        Map<String, Long> out = new HashMap<>();
-        try {
-            ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-F", videoUrl);
-            pb.redirectErrorStream(true);
-            Process p = pb.start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String line;
-                boolean tableStarted = false;
-                while ((line = reader.readLine()) != null) {
-                    // Detect header or separator: either starts with "ID" (ID EXT RESOLUTION ...)
-                    // or contains a long sequence of box-drawing/dash characters.
-                    if (!tableStarted) {
-                        String lu = line.toUpperCase();
-                        if (lu.startsWith("ID ") || lu.startsWith("ID\t") || line.matches("[\\u2500-\\u257F\\-\\s]{6,}")) {
-                            tableStarted = true;
-                            continue;
-                        }
-                        // Also, if a line already appears to start with a numeric itag, treat it as data.
-                        int sp0 = line.indexOf(' ');
-                        if (sp0 > 0) {
-                            String idMaybe = line.substring(0, sp0).trim();
-                            if (!idMaybe.isEmpty() && idMaybe.chars().allMatch(Character::isDigit)) {
-                                tableStarted = true; // fall through to parse below
-                            } else {
-                                continue;
-                            }
-                        } else {
-                            continue;
-                        }
-                    }
+        String key = VideoIds.cacheKey(videoUrl);
+        List<FormatInfo> cached = formatCache.get(key);
+        if (cached != null) return sizesOf(cached);
+        if (jsonExtraction) {
+            // One -J run yields formats and sizes, and fills the cache for the next call
+            try {
+                return sizesOf(listFormats(videoUrl));
+            } catch (UpstreamUnavailableException e) {
+                // No sizes rather than another call to a throttling upstream
+                return Map.of();
+            } catch (Exception e) {
+                // Fall back to the -F scrape below
+            }
+        }
+        return singleFlight.execute("sizes:" + key, () -> {
+            List<FormatInfo> fresh = formatCache.get(key);
+            return fresh != null ? sizesOf(fresh) : Map.copyOf(scrapeFormatSizes(videoUrl));
+        });
+    }
 
-                    // Expect lines starting with a format id (we only keep numeric itags; skip storyboard like sb0)
-                    int sp = line.indexOf(' ');
-                    if (sp <= 0) continue;
-                    String idCandidate = line.substring(0, sp).trim();
-                    if (!idCandidate.chars().allMatch(Character::isDigit)) continue;
+    private static Map<String, Long> sizesOf(List<FormatInfo> formats) {
+        Map<String, Long> out = new HashMap<>();
+        for (FormatInfo f : formats) {
+            if (f.getFilesize() != null && f.getFilesize() > 0) out.put(f.getId(), f.getFilesize());
+        }
+        return Map.copyOf(out);
+    }
 
-                    // Try to find a size token like "123.4MiB", "950KiB", or "1.2GiB"
-                    Long bytes = extractSizeBytes(line);
-                    if (bytes != null && bytes > 0) {
-                        out.put(idCandidate, bytes);
-                    }
+    private Map<String, Long> scrapeFormatSizes(String videoUrl) {
+        Map<String, Long> out = new HashMap<>();
+        try (YtDlpMetrics.Invocation run = metrics.begin("formatSizes")) {
+            try (UpstreamGuard.Permit permit = upstreamGuard.acquire(videoUrl)) {
+                ProcessBuilder pb = new ProcessBuilder("yt-dlp", "-F", videoUrl);
+                ProcessSupervisor.Watch watch = supervisor.watch(run.spawn(pb), ProcessSupervisor.Phase.EXTRACT);
+                Process p = watch.process();
+                StringBuilder stderr = new StringBuilder();
+                Thread errPump = drainAsync(p.getErrorStream(), stderr);
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(run.output(p.getInputStream())))) {
+                    out = FormatTableParser.parseSizes(reader);
                 }
+                int exit = Processes.waitFor(p);
+                errPump.join();
+                finish(run, permit, watch, exit, stderr);
+            } catch (Exception e) {
+                // Keep responsiveness and return what we have, but leave a trace of the failure
+                run.error(e);
+                log.warn("yt-dlp -F failed for {}: {}", videoUrl, e.getMessage());
             }
-            p.waitFor();
-        } catch (Exception e) {
-            // Ignore errors to keep responsiveness; simply return what we have.
         }
         return out;
     }
-
-    private Long extractSizeBytes(String line) {
-        // Scan tokens for pattern <number><unit> where unit in {KiB,MiB,GiB}
-        String[] toks = line.split("\\s+");
-        for (String t : toks) {
-            Long v = humanToBytes(t);
-            if (v != null) return v;
-        }
-        return null;
-    }
 }
\ No newline at end of file
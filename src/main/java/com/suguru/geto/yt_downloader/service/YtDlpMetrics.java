@@ -0,0 +1,208 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+/**
+ * Instrumentation for yt-dlp invocations. Each run is an observation ("ytdlp.process",
+ * tagged with the operation, runner and exit code), which gives a timer for Prometheus
+ * and a span that is a child of the HTTP request or job that started it. Around that:
+ * spawn time, time to first output byte, bytes downloaded, failures by exit code,
+ * merge/transcode phase timers and a gauge of processes in flight.
+ */
+@Component
+public class YtDlpMetrics {
+
+    private final MeterRegistry meters;
+    private final ObservationRegistry observations;
+    private final AtomicInteger active = new AtomicInteger();
+
+    public YtDlpMetrics(MeterRegistry meters, ObservationRegistry observations) {
+        this.meters = meters;
+        this.observations = observations;
+        Gauge.builder("ytdlp.processes.active", active, AtomicInteger::get)
+                .description("yt-dlp runs in flight (processes and pooled workers)")
+                .register(meters);
+    }
+
+    public MeterRegistry getMeters() {
+        return meters;
+    }
+
+    public ObservationRegistry getObservations() {
+        return observations;
+    }
+
+    /** Start timing one yt-dlp run; close it when the process has exited (or failed to start). */
+    public Invocation begin(String operation) {
+        return new Invocation(operation);
+    }
+
+    /** One yt-dlp run. Not thread-safe except for output(), whose stream may be read by a pump thread. */
+    public final class Invocation implements AutoCloseable {
+
+        private final String operation;
+        private final Observation observation;
+        private final Observation.Scope scope;
+        private final long startedAt = System.nanoTime();
+        private volatile boolean sawOutput;
+        private String runner = "process";
+        private Integer exitCode;
+        private long bytes;
+        private Observation phase;
+        private boolean closed;
+
+        private Invocation(String operation) {
+            this.operation = operation;
+            this.observation = Observation.createNotStarted("ytdlp.process", observations)
+                    .contextualName("yt-dlp " + operation)
+                    .lowCardinalityKeyValue("operation", operation)
+                    .start();
+            this.scope = observation.openScope();
+            active.incrementAndGet();
+        }
+
+        /** Start the process, timing the spawn. */
+        public Process spawn(ProcessBuilder pb) throws IOException {
+            long t0 = System.nanoTime();
+            Process p = pb.start();
+            Timer.builder("ytdlp.process.spawn")
+                    .description("Time for ProcessBuilder.start() to return")
+                    .tag("operation", operation)
+                    .register(meters)
+                    .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            observation.highCardinalityKeyValue("pid", String.valueOf(p.pid()));
+            return p;
+        }
+
+        /** The run was served by a pooled worker instead of a fresh process. */
+        public void pooled() {
+            runner = "worker";
+        }
+
+        /** The process's stdout, noting when its first byte arrives. */
+        public InputStream output(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) firstOutput();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buf, int off, int len) throws IOException {
+                    int n = super.read(buf, off, len);
+                    if (n > 0) firstOutput();
+                    return n;
+                }
+            };
+        }
+
+        private void firstOutput() {
+            if (sawOutput) return;
+            sawOutput = true;
+            Timer.builder("ytdlp.process.first-output")
+                    .description("Time from start to the first byte on stdout")
+                    .tag("operation", operation)
+                    .register(meters)
+                    .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+
+        public void addBytes(long n) {
+            if (n > 0) bytes += n;
+        }
+
+        public boolean hasBytes() {
+            return bytes > 0;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Feed a progress event: finished downloads add to the byte count, and
+         * merge / audio extraction phases get their own timer and child span.
+         */
+        public void progress(ProgressEvent event) {
+            if (ProgressEvent.PHASE_DOWNLOAD.equals(event.getPhase())) {
+                if ("finished".equals(event.getStatus())) {
+                    Long n = event.getDownloadedBytes() != null ? event.getDownloadedBytes() : event.getTotalBytes();
+                    if (n != null) addBytes(n);
+                }
+                return;
+            }
+            if ("started".equals(event.getStatus())) {
+                endPhase();
+                phase = Observation.createNotStarted("ytdlp.postprocess", observations)
+                        .contextualName("yt-dlp " + event.getPhase())
+                        .lowCardinalityKeyValue("operation", operation)
+                        .lowCardinalityKeyValue("phase", event.getPhase())
+                        .parentObservation(observation)
+                        .start();
+            } else if ("finished".equals(event.getStatus())) {
+                endPhase();
+            }
+        }
+
+        private void endPhase() {
+            if (phase != null) {
+                phase.stop();
+                phase = null;
+            }
+        }
+
+        public void exit(int code) {
+            exitCode = code;
+        }
+
+        public void error(Throwable t) {
+            observation.error(t);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            endPhase();
+            // No exit code means the run threw before the process finished
+            String exit = exitCode == null ? "none" : String.valueOf(exitCode);
+            boolean ok = exitCode != null && exitCode == 0;
+            observation.lowCardinalityKeyValue("runner", runner)
+                    .lowCardinalityKeyValue("exit", exit)
+                    .lowCardinalityKeyValue("outcome", ok ? "success" : "failure");
+            if (!ok) {
+                Counter.builder("ytdlp.process.failures")
+                        .description("yt-dlp runs that failed, by exit code")
+                        .tag("operation", operation)
+                        .tag("exit", exit)
+                        .register(meters)
+                        .increment();
+            }
+            if (bytes > 0) {
+                Counter.builder("ytdlp.bytes.downloaded")
+                        .baseUnit("bytes")
+                        .tag("operation", operation)
+                        .register(meters)
+                        .increment(bytes);
+            }
+            active.decrementAndGet();
+            scope.close();
+            observation.stop();
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.suguru.geto.yt_downloader.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+/**
+ * Optional pool of long-lived Python workers (resources/ytdlp/worker.py) that import
+ * yt_dlp once and serve requests over stdin/stdout, avoiding interpreter and extractor
+ * startup on every call. Workers are recycled after a fixed number of jobs or on any
+ * protocol error. Each worker is watched by the {@link ProcessSupervisor} and, while it
+ * serves a request, has that request's phase deadline and cancellation; a worker killed
+ * for either is discarded and the request fails as a one-shot process would. A download's
+ * progress is relayed as it runs, moving the worker to the post-processing deadline once
+ * fetching is over, as for a one-shot process. Callers
+ * treat a {@link WorkerUnavailableException} as "use the one-shot ProcessBuilder path
+ * instead".
+ */
+@Component
+public class YtDlpWorkerPool {
+
+    private static final Logger log = LoggerFactory.getLogger(YtDlpWorkerPool.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ProcessSupervisor supervisor;
+    private final boolean enabled;
+    private final boolean includeDownloads;
+    private final String python;
+    private final int maxJobsPerWorker;
+    private final long acquireTimeoutMs;
+    private final int size;
+
+    private final Semaphore slots;
+    private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final AtomicLong requestSeq = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private final AtomicLong crashed = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+    private volatile Path script;
+    private volatile boolean disabledAfterFailure;
+
+    public static class WorkerUnavailableException extends Exception {
+        public WorkerUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /** Outcome of a pooled "run" request. */
+    public static class RunResult {
+        public final int exitCode;
+        public final String error;
+        public final List<String> files; // final output paths, after post-processing
+
+        RunResult(int exitCode, String error, List<String> files) {
+            this.exitCode = exitCode;
+            this.error = error;
+            this.files = files;
+        }
+    }
+
+    private static class Worker {
+        final ProcessSupervisor.Watch watch;
+        final Process process;
+        final InputStream out;
+        final OutputStream in;
+        int jobs;
+
+        Worker(ProcessSupervisor.Watch watch) {
+            this.watch = watch;
+            this.process = watch.process();
+            this.out = new BufferedInputStream(process.getInputStream(), 64 * 1024);
+            this.in = process.getOutputStream();
+        }
+    }
+
+    public YtDlpWorkerPool(ProcessSupervisor supervisor,
+                           @Value("${ytd.worker-pool.enabled:false}") boolean enabled,
+                           @Value("${ytd.worker-pool.size:2}") int size,
+                           @Value("${ytd.worker-pool.max-jobs-per-worker:200}") int maxJobsPerWorker,
+                           @Value("${ytd.worker-pool.include-downloads:false}") boolean includeDownloads,
+                           @Value("${ytd.worker-pool.python:python3}") String python,
+                           @Value("${ytd.worker-pool.acquire-timeout-ms:2000}") long acquireTimeoutMs) {
+        this.supervisor = supervisor;
+        this.enabled = enabled;
+        this.includeDownloads = includeDownloads;
+        this.python = python;
+        this.maxJobsPerWorker = Math.max(1, maxJobsPerWorker);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.size = Math.max(1, size);
+        this.slots = new Semaphore(this.size);
+    }
+
+    public boolean isEnabled() {
+        return enabled && !disabledAfterFailure;
+    }
+
+    public boolean handlesDownloads() {
+        return isEnabled() && includeDownloads;
+    }
+
+    /** Equivalent of `yt-dlp -J --no-playlist <url>`, parsed straight into formats. */
+    public List<FormatInfo> extractFormats(String videoUrl) throws WorkerUnavailableException {
+        return call("info", List.of("--no-playlist", videoUrl), body -> FormatJsonParser.parse(body), null);
+    }
+
+    /** Run yt-dlp with CLI-style arguments (without the leading "yt-dlp"). */
+    public RunResult run(List<String> args) throws WorkerUnavailableException {
+        return run(args, ProgressListener.NONE);
+    }
+
+    /** As above, passing on progress events as the worker reports them. */
+    public RunResult run(List<String> args, ProgressListener progress) throws WorkerUnavailableException {
+        return call("run", args, null, progress);
+    }
+
+    /**
+     * Start workers up to the pool size ahead of the first request, so it does not pay
+     * for importing yt_dlp. Returns how many were started; none when the pool is disabled.
+     */
+    public int prestart() {
+        int n = 0;
+        // One slot per worker being started, so requests meanwhile still get the rest
+        while (isEnabled() && slots.tryAcquire()) {
+            try {
+                // Each other slot taken may be starting a worker of its own
+                int others = size - slots.availablePermits() - 1;
+                if (idle.size() + others >= size) break;
+                idle.offer(startWorker());
+                n++;
+            } catch (IOException e) {
+                log.warn("Could not prestart yt-dlp workers: {}", e.getMessage());
+                break;
+            } finally {
+                slots.release();
+            }
+        }
+        return n;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", isEnabled());
+        s.put("idle", idle.size());
+        s.put("live", started.get() - recycled.get() - crashed.get());
+        s.put("started", started.get());
+        s.put("recycled", recycled.get());
+        s.put("crashed", crashed.get());
+        s.put("served", served.get());
+        return s;
+    }
+
+    private interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T call(String op, List<String> args, BodyReader<T> bodyReader, ProgressListener progress)
+            throws WorkerUnavailableException {
+        if (!isEnabled()) throw new WorkerUnavailableException("Worker pool disabled", null);
+        boolean acquired;
+        try {
+            acquired = slots.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WorkerUnavailableException("Interrupted waiting for a worker", e);
+        }
+        if (!acquired) throw new WorkerUnavailableException("All workers busy", null);
+
+        Worker w = null;
+        try {
+            w = idle.poll();
+            if (w == null || !w.process.isAlive()) {
+                if (w != null) discard(w, true);
+                w = startWorker();
+            }
+
+            w.watch.lease(op.equals("info") ? ProcessSupervisor.Phase.EXTRACT : ProcessSupervisor.Phase.DOWNLOAD);
+            ObjectNode req = MAPPER.createObjectNode();
+            long id = requestSeq.incrementAndGet();
+            req.put("id", id);
+            req.put("op", op);
+            req.putPOJO("args", args);
+            w.in.write(MAPPER.writeValueAsBytes(req));
+            w.in.write('\n');
+            w.in.flush();
+
+            JsonNode header = readHeader(w);
+            while (header.has("progress")) {
+                if (header.path("id").asLong(-1) != id) throw new IOException("Out-of-sequence worker response");
+                ProgressEvent event = ProgressParser.parse(header.path("progress").asText(""));
+                if (event != null) {
+                    // Post-processing (merge, MP3 transcode) gets its own timeout
+                    boolean fetching = ProgressEvent.PHASE_DOWNLOAD.equals(event.getPhase());
+                    w.watch.phase(fetching ? ProcessSupervisor.Phase.DOWNLOAD : ProcessSupervisor.Phase.POSTPROCESS);
+                    if (progress != null) progress.onProgress(event);
+                }
+                header = readHeader(w);
+            }
+            if (header.path("id").asLong(-1) != id) throw new IOException("Out-of-sequence worker response");
+            boolean ok = header.path("ok").asBoolean(false);
+            int exit = header.path("exit").asInt(ok ? 0 : 1);
+            String error = header.path("error").asText(null);
+            T result = null;
+            try (BoundedInputStream body = new BoundedInputStream(w.out, header.path("length").asLong(0))) {
+                if (bodyReader == null) {
+                    List<String> files = new ArrayList<>();
+                    header.path("files").forEach(f -> files.add(f.asText()));
+                    result = (T) new RunResult(exit, error, files);
+                } else if (ok) {
+                    result = bodyReader.read(body);
+                }
+            }
+
+            w.watch.release();
+            served.incrementAndGet();
+            w.jobs++;
+            if (w.jobs >= maxJobsPerWorker) {
+                discard(w, false);
+            } else {
+                idle.offer(w);
+            }
+            w = null;
+            if (result == null) {
+                // The worker is healthy; yt-dlp itself failed, so a one-shot retry would fail too
+                throw new RuntimeException("yt-dlp failed: " + error);
+            }
+            return result;
+        } catch (IOException e) {
+            String killed = w == null ? null : w.watch.failure();
+            if (w != null) discard(w, true);
+            w = null;
+            // Timed out or cancelled: a one-shot retry would only repeat that
+            if (killed != null) throw new RuntimeException(killed, e);
+            throw new WorkerUnavailableException("Worker failed: " + e.getMessage(), e);
+        } finally {
+            if (w != null) discard(w, true);
+            slots.release();
+        }
+    }
+
+    private Worker startWorker() throws IOException {
+        Path s = script;
+        if (s == null) {
+            synchronized (this) {
+                if (script == null) {
+                    Path tmp = Files.createTempFile("ytd-worker", ".py");
+                    try (InputStream res = getClass().getResourceAsStream("/ytdlp/worker.py")) {
+                        if (res == null) throw new IOException("worker.py missing from classpath");
+                        Files.copy(res, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    tmp.toFile().deleteOnExit();
+                    script = tmp;
+                }
+                s = script;
+            }
+        }
+        ProcessBuilder pb = new ProcessBuilder(python, "-u", s.toString());
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process p;
+        try {
+            p = pb.start();
+        } catch (IOException e) {
+            // No interpreter: stop trying until restart
+            disabledAfterFailure = true;
+            throw e;
+        }
+        Worker w = new Worker(supervisor.watchIdle(p));
+        JsonNode ready;
+        try {
+            // Importing yt_dlp is bounded like an extraction
+            w.watch.lease(ProcessSupervisor.Phase.EXTRACT);
+            ready = readHeader(w);
+            w.watch.release();
+        } catch (IOException e) {
+            p.destroyForcibly();
+            // Interpreter present but yt_dlp not importable (or too slow to import)
+            if (!w.watch.isCancelled()) disabledAfterFailure = true;
+            throw e;
+        }
+        if (!ready.path("ready").asBoolean(false)) {
+            p.destroyForcibly();
+            throw new IOException("Worker did not report ready");
+        }
+        started.incrementAndGet();
+        return w;
+    }
+
+    private JsonNode readHeader(Worker w) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = w.out.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1) throw new IOException("Worker exited");
+        return MAPPER.readTree(line.toString(StandardCharsets.UTF_8));
+    }
+
+    private void discard(Worker w, boolean crash) {
+        (crash ? crashed : recycled).incrementAndGet();
+        try {
+            w.in.close();
+        } catch (IOException ignored) {
+            // Closing stdin is how workers are asked to exit
+        }
+        w.process.destroy();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Worker w;
+        while ((w = idle.poll()) != null) {
+            discard(w, false);
+        }
+    }
+
+    /** Exposes exactly {@code length} bytes of the worker stream; close() skips any unread rest. */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(buf, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    if (in.read() < 0) throw new IOException("Worker stream ended early");
+                    n = 1;
+                }
+                remaining -= n;
+            }
+        }
+    }
+}
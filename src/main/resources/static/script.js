@@ -168,7 +168,7 @@ function renderWithLimit(container, items, kind, shown, onLoadMore) {
     }
     btn.textContent = btnLabel;
     if (kind === 'video') {
-      btn.addEventListener('click', () => downloadVideoWithBestAudio(urlInput.value.trim(), f.id));
+      btn.addEventListener('click', () => downloadVideoWithBestAudio(urlInput.value.trim(), f.id, f.token));
     } else {
       btn.addEventListener('click', () => downloadAudioMp3(urlInput.value.trim(), f.id));
     }
@@ -302,16 +302,80 @@ function detachProgress(finalText) {
   if (finalText) setStatus(finalText, 'success');
 }
 
-async function downloadVideoWithBestAudio(url, videoFormatId) {
+function showProgress(p) {
+  // Real progress replaces the placeholder creep
+  if (progressTimer) {
+    clearInterval(progressTimer);
+    progressTimer = null;
+  }
+  const fill = document.querySelector('.progress > div');
+  if (p.phase === 'download') {
+    const pct = typeof p.percent === 'number' ? p.percent : null;
+    if (fill && pct !== null) fill.style.width = Math.min(95, pct) + '%';
+    const parts = [`Downloading${p.formatId ? ' ' + p.formatId : ''}`];
+    if (pct !== null) parts.push(`${pct.toFixed(0)}%`);
+    if (p.speed) parts.push(`${bytesToSize(p.speed)}/s`);
+    if (typeof p.eta === 'number') parts.push(`ETA ${p.eta}s`);
+    setStatus(parts.join(' • ') + (p.stalled ? ' (stalled)' : ''), p.stalled ? 'error' : 'info');
+  } else if (p.phase === 'merge') {
+    setStatus('Merging video and audio...', 'info');
+  } else if (p.phase === 'extract-audio') {
+    setStatus('Converting audio...', 'info');
+  }
+}
+
+// Follow a job's live progress; falls back to polling when events are unavailable
+function watchJob(job) {
+  if (!window.EventSource) return waitForJob(job);
+  return new Promise((resolve, reject) => {
+    const es = new EventSource(`/api/youtube/jobs/${encodeURIComponent(job.id)}/events`);
+    es.addEventListener('progress', ev => showProgress(JSON.parse(ev.data)));
+    es.addEventListener('done', ev => {
+      es.close();
+      resolve(JSON.parse(ev.data));
+    });
+    es.onerror = () => {
+      es.close();
+      waitForJob(job).then(resolve, reject);
+    };
+  });
+}
+
+// Poll a queued download job until it finishes
+async function waitForJob(job) {
+  while (job.state === 'QUEUED' || job.state === 'RUNNING') {
+    await new Promise(r => setTimeout(r, 1000));
+    const resp = await fetch(`/api/youtube/jobs/${encodeURIComponent(job.id)}`);
+    if (!resp.ok) throw new Error((await resp.text()) || 'Lost track of download job');
+    job = await resp.json();
+  }
+  return job;
+}
+
+// Offer the finished file for saving on this device
+function showFileLink(job) {
+  if (!job.fileUrl) return;
+  const link = document.createElement('a');
+  link.href = job.fileUrl;
+  link.textContent = ` Save ${job.file}`;
+  link.setAttribute('download', job.file);
+  statusBox.appendChild(link);
+}
+
+async function downloadVideoWithBestAudio(url, videoFormatId, token) {
   if (!url) return setStatus('Missing URL', 'error');
   setStatus('Downloading video...', 'info');
   attachProgress();
   try {
     const params = new URLSearchParams({ url, videoFormatId });
+    // Lets the server skip looking the formats up again
+    if (token) params.set('token', token);
     const resp = await fetch(`/api/youtube/download/video?${params.toString()}`);
-    const txt = await resp.text();
-    if (!resp.ok) throw new Error(txt || 'Download failed');
-    detachProgress(txt || 'Download completed');
+    if (!resp.ok) throw new Error((await resp.text()) || 'Download failed');
+    const job = await watchJob(await resp.json());
+    if (job.state !== 'SUCCEEDED') throw new Error(job.error || job.result || 'Download failed');
+    detachProgress(job.result || 'Download completed');
+    showFileLink(job);
   } catch (e) {
     detachProgress();
     setStatus(`Error: ${e.message}`, 'error');
@@ -325,9 +389,11 @@ async function downloadAudioMp3(url, audioFormatId) {
   try {
     const params = new URLSearchParams({ url, audioFormatId });
     const resp = await fetch(`/api/youtube/download/audio?${params.toString()}`);
-    const txt = await resp.text();
-    if (!resp.ok) throw new Error(txt || 'Audio download failed');
-    detachProgress(txt || 'Audio download completed');
+    if (!resp.ok) throw new Error((await resp.text()) || 'Audio download failed');
+    const job = await watchJob(await resp.json());
+    if (job.state !== 'SUCCEEDED') throw new Error(job.error || job.result || 'Audio download failed');
+    detachProgress(job.result || 'Audio download completed');
+    showFileLink(job);
   } catch (e) {
     detachProgress();
     setStatus(`Error: ${e.message}`, 'error');
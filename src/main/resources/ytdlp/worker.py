@@ -0,0 +1,86 @@
+"""Long-lived yt-dlp worker for the Java worker pool.
+
+Imports yt_dlp once, then serves requests read from stdin, one JSON object per line:
+    {"id": 1, "op": "info", "args": ["--no-playlist", "<url>"]}   -> sanitized info dict (like -J)
+    {"id": 2, "op": "run",  "args": ["-f", "18", "-o", "...", "<url>"]} -> download, like the CLI
+
+Each response is a JSON header line {"id", "ok", "exit", "error", "files", "length"} followed by
+exactly `length` bytes of body (the info JSON for "info", empty for "run"). While a "run" is in
+progress, header lines {"id", "progress", "length": 0} carry its progress, formatted like the
+"[ytd-progress]" lines the Java side asks a one-shot yt-dlp for with --progress-template.
+The protocol uses a private copy of the original stdout; anything yt-dlp prints goes to stderr.
+"""
+import json
+import os
+import sys
+
+
+def main():
+    proto = os.fdopen(os.dup(1), "wb")
+    os.dup2(2, 1)
+    sys.stdout = sys.stderr
+
+    import yt_dlp
+    from yt_dlp import YoutubeDL
+
+    def send(header, body=b""):
+        header["length"] = len(body)
+        proto.write(json.dumps(header).encode("utf-8") + b"\n")
+        proto.write(body)
+        proto.flush()
+
+    def na(value):
+        return "NA" if value is None else str(value)
+
+    def progress_line(d):
+        info = d.get("info_dict") or {}
+        return "[ytd-progress] dl %s %s %s %s %s %s %s" % (
+            na(d.get("status")), na(d.get("downloaded_bytes")), na(d.get("total_bytes")),
+            na(d.get("total_bytes_estimate")), na(d.get("speed")), na(d.get("eta")), na(info.get("format_id")))
+
+    def postprocess_line(d):
+        return "[ytd-progress] pp %s %s" % (na(d.get("status")), na(d.get("postprocessor")))
+
+    def handle(req):
+        parsed = yt_dlp.parse_options(req.get("args") or [])
+        opts = parsed.ydl_opts
+        if not parsed.urls:
+            return {"ok": False, "exit": 2, "error": "no URL given"}, b""
+        if req.get("op") == "info":
+            opts = dict(opts, quiet=True, noprogress=True, simulate=True)
+            with YoutubeDL(opts) as ydl:
+                info = ydl.extract_info(parsed.urls[0], download=False)
+                body = json.dumps(ydl.sanitize_info(info)).encode("utf-8")
+            return {"ok": True, "exit": 0}, body
+        if req.get("op") == "run":
+            files = []
+            report = lambda line: send({"id": req.get("id"), "progress": line})
+            with YoutubeDL(opts) as ydl:
+                ydl.add_post_hook(files.append)
+                ydl.add_progress_hook(lambda d: report(progress_line(d)))
+                ydl.add_postprocessor_hook(lambda d: report(postprocess_line(d)))
+                code = ydl.download(parsed.urls)
+            return {"ok": code == 0, "exit": code, "files": files}, b""
+        return {"ok": False, "exit": 2, "error": "unknown op"}, b""
+
+    send({"id": None, "ok": True, "exit": 0, "ready": True, "version": yt_dlp.version.__version__})
+
+    for line in sys.stdin.buffer:
+        line = line.strip()
+        if not line:
+            continue
+        req = {}
+        try:
+            req = json.loads(line)
+            header, body = handle(req)
+        except SystemExit as e:
+            code = e.code if isinstance(e.code, int) else 1
+            header, body = {"ok": code == 0, "exit": code, "error": str(e)}, b""
+        except Exception as e:
+            header, body = {"ok": False, "exit": 1, "error": "%s: %s" % (type(e).__name__, e)}, b""
+        header["id"] = req.get("id")
+        send(header, body)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,182 @@
+package com.suguru.geto.yt_downloader.controller;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+import com.suguru.geto.yt_downloader.service.ArtifactStore;
+import com.suguru.geto.yt_downloader.service.BatchService;
+import com.suguru.geto.yt_downloader.service.ClientQuotaException;
+import com.suguru.geto.yt_downloader.service.ClientQuotas;
+import com.suguru.geto.yt_downloader.service.ClusterForwarder;
+import com.suguru.geto.yt_downloader.service.ConnectionBudget;
+import com.suguru.geto.yt_downloader.service.DownloadJobService;
+import com.suguru.geto.yt_downloader.service.FileServingService;
+import com.suguru.geto.yt_downloader.service.FormatCache;
+import com.suguru.geto.yt_downloader.service.FormatTokens;
+import com.suguru.geto.yt_downloader.service.JobEventBroadcaster;
+import com.suguru.geto.yt_downloader.service.JobJournal;
+import com.suguru.geto.yt_downloader.service.ProcessSupervisor;
+import com.suguru.geto.yt_downloader.service.SingleFlight;
+import com.suguru.geto.yt_downloader.service.ThreadSupport;
+import com.suguru.geto.yt_downloader.service.ToolchainWarmup;
+import com.suguru.geto.yt_downloader.service.TranscodePool;
+import com.suguru.geto.yt_downloader.service.UpstreamGuard;
+import com.suguru.geto.yt_downloader.service.YoutubeDownloadService;
+import com.suguru.geto.yt_downloader.service.YtDlpWorkerPool;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * /stream through the MVC stack with the services mocked out: the headers it promises,
+ * the client quotas it checks and the 503 once every streaming thread
+ * (ytd.stream.max-concurrent) is taken.
+ */
+@WebMvcTest(YoutubeDownloadController.class)
+@Import(ThreadSupport.class)
+@TestPropertySource(properties = "ytd.stream.max-concurrent=1")
+@MockitoBean(types = {DownloadJobService.class, FormatCache.class, SingleFlight.class, YtDlpWorkerPool.class,
+		FileServingService.class, JobEventBroadcaster.class, ArtifactStore.class, BatchService.class,
+		UpstreamGuard.class, ProcessSupervisor.class, ConnectionBudget.class, FormatTokens.class,
+		TranscodePool.class, JobJournal.class, ClusterForwarder.class, ToolchainWarmup.class})
+class YoutubeDownloadControllerTests {
+
+	private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+	private static final byte[] MEDIA = "not really a video".getBytes(StandardCharsets.UTF_8);
+
+	@Autowired
+	private MockMvc mvc;
+
+	@MockitoBean
+	private YoutubeDownloadService youtubeDownloadService;
+
+	@MockitoBean
+	private ClientQuotas clientQuotas;
+
+	private final ClientQuotas.Transfer transfer = mock(ClientQuotas.Transfer.class);
+
+	@BeforeEach
+	void setUp() throws Exception {
+		when(clientQuotas.identify(any())).thenReturn("ip:127.0.0.1");
+		when(clientQuotas.beginTransfer("ip:127.0.0.1")).thenReturn(transfer);
+		when(transfer.meter(any())).thenAnswer(call -> call.getArgument(0));
+		doAnswer(call -> {
+			call.getArgument(2, OutputStream.class).write(MEDIA);
+			return null;
+		}).when(youtubeDownloadService).streamFormat(eq(URL), anyString(), any());
+	}
+
+	@Test
+	void streamsTheFormatWithItsExactSize() throws Exception {
+		when(youtubeDownloadService.findFormat(URL, "18")).thenReturn(format("18", (long) MEDIA.length, false));
+
+		MvcResult started = mvc.perform(get("/api/youtube/stream").param("url", URL).param("formatId", "18"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mvc.perform(asyncDispatch(started))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_TYPE, "video/mp4"))
+				.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, MEDIA.length))
+				.andExpect(content().bytes(MEDIA));
+		verify(transfer).close();
+	}
+
+	@Test
+	void leavesContentLengthOffForAnEstimatedSize() throws Exception {
+		when(youtubeDownloadService.findFormat(URL, "18")).thenReturn(format("18", 1_000_000L, true));
+
+		MvcResult started = mvc.perform(get("/api/youtube/stream").param("url", URL).param("formatId", "18"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mvc.perform(asyncDispatch(started))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_LENGTH))
+				.andExpect(content().bytes(MEDIA));
+	}
+
+	@Test
+	void answers503WhenEveryStreamingThreadIsTaken() throws Exception {
+		when(youtubeDownloadService.findFormat(URL, "18")).thenReturn(format("18", null, null));
+		CountDownLatch streaming = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(call -> {
+			streaming.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return null;
+		}).when(youtubeDownloadService).streamFormat(eq(URL), eq("18"), any());
+		ClientQuotas.Transfer rejected = mock(ClientQuotas.Transfer.class);
+		when(clientQuotas.beginTransfer("ip:127.0.0.1")).thenReturn(transfer, rejected);
+
+		try {
+			mvc.perform(get("/api/youtube/stream").param("url", URL).param("formatId", "18"))
+					.andExpect(request().asyncStarted());
+			assertTrue(streaming.await(5, TimeUnit.SECONDS));
+
+			// The executor's rejection becomes the async result and the container dispatches it;
+			// MockMvc only records results from tasks that ran, so dispatch by hand
+			MvcResult second = mvc.perform(get("/api/youtube/stream").param("url", URL).param("formatId", "18"))
+					.andExpect(request().asyncStarted())
+					.andReturn();
+			mvc.perform(context -> {
+						MockHttpServletRequest dispatch = second.getRequest();
+						dispatch.setDispatcherType(DispatcherType.ASYNC);
+						dispatch.setAsyncStarted(false);
+						return dispatch;
+					})
+					.andExpect(status().isServiceUnavailable())
+					.andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"));
+			// The rejected request gave its transfer slot back; the first one still holds its own
+			verify(rejected).close();
+			verify(transfer, never()).close();
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	void checksTheRequestAndMetadataQuotaBeforeLookingUpTheFormat() throws Exception {
+		mvc.perform(get("/api/youtube/stream").param("url", URL).param("formatId", "18").param("audio", "flac"))
+				.andExpect(status().isBadRequest());
+		when(clientQuotas.beginMetadata("ip:127.0.0.1")).thenThrow(new ClientQuotaException("Too many metadata calls", 3));
+		mvc.perform(get("/api/youtube/stream").param("url", URL).param("formatId", "18"))
+				.andExpect(status().isTooManyRequests())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"));
+
+		verify(youtubeDownloadService, never()).findFormat(anyString(), anyString());
+		verify(clientQuotas, never()).beginTransfer(anyString());
+	}
+
+	private static FormatInfo format(String id, Long filesize, Boolean approx) {
+		FormatInfo format = new FormatInfo(id, "mp4", "640x360", "30", "avc1", "mp4a", "96k", "360p", "video+audio", filesize);
+		format.setFilesizeApprox(approx);
+		return format;
+	}
+}
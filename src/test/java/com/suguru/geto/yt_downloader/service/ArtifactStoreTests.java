@@ -0,0 +1,67 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.suguru.geto.yt_downloader.model.DownloadResult;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArtifactStoreTests {
+
+	@TempDir
+	Path dir;
+
+	private DownloadResult write(Path outDir, String name, int size) {
+		try {
+			Files.write(outDir.resolve(name), new byte[size]);
+			return new DownloadResult(true, YoutubeDownloadService.DOWNLOAD_OK, dir.relativize(outDir.resolve(name)).toString());
+		} catch (Exception e) {
+			return DownloadResult.failed(e.getMessage());
+		}
+	}
+
+	@Test
+	void reusesIdenticalDownloadsAcrossUrlShapes() {
+		ArtifactStore store = new ArtifactStore(new SingleFlight(), dir.toString(), true, 1_000_000);
+		AtomicInteger runs = new AtomicInteger();
+
+		DownloadResult first = store.getOrCreate(ArtifactStore.key("https://youtu.be/dQw4w9WgXcQ", "18", "bestaudio"),
+				out -> { runs.incrementAndGet(); return write(out, "Song.mp4", 100); });
+		DownloadResult second = store.getOrCreate(ArtifactStore.key("https://www.youtube.com/watch?v=dQw4w9WgXcQ", "18", "bestaudio"),
+				out -> { runs.incrementAndGet(); return write(out, "Song.mp4", 100); });
+
+		assertEquals(1, runs.get());
+		assertEquals(first.getFile(), second.getFile());
+		assertTrue(first.getFile().startsWith("Song [") && first.getFile().endsWith("].mp4"));
+		assertTrue(Files.isRegularFile(dir.resolve(first.getFile())));
+
+		// Reloaded from the index on disk
+		ArtifactStore reopened = new ArtifactStore(new SingleFlight(), dir.toString(), true, 1_000_000);
+		reopened.getOrCreate(ArtifactStore.key("https://youtu.be/dQw4w9WgXcQ", "18", "bestaudio"),
+				out -> { runs.incrementAndGet(); return write(out, "Song.mp4", 100); });
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedBeyondMaxBytes() {
+		ArtifactStore store = new ArtifactStore(new SingleFlight(), dir.toString(), true, 250);
+		DownloadResult a = store.getOrCreate(ArtifactStore.key("https://youtu.be/aaaaaaaaaaa", "140", "mp3"),
+				out -> write(out, "A.mp3", 100));
+		store.getOrCreate(ArtifactStore.key("https://youtu.be/bbbbbbbbbbb", "140", "mp3"),
+				out -> write(out, "B.mp3", 100));
+		store.getOrCreate(ArtifactStore.key("https://youtu.be/ccccccccccc", "140", "mp3"),
+				out -> write(out, "C.mp3", 100));
+
+		assertFalse(Files.exists(dir.resolve(a.getFile())));
+		assertEquals(2, store.stats().get("entries"));
+		assertEquals(1L, store.stats().get("evictions"));
+	}
+
+}
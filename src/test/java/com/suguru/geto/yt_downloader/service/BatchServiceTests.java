@@ -0,0 +1,192 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import com.suguru.geto.yt_downloader.model.BatchItem;
+import com.suguru.geto.yt_downloader.model.BatchRequest;
+import com.suguru.geto.yt_downloader.model.DownloadBatch;
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchServiceTests {
+
+	/** A job the mocked engine accepted, with the callback that reports it finished. */
+	private record Submitted(JobSpec spec, DownloadJob job, Consumer<DownloadJob> onFinished) {
+		void finish(boolean success) {
+			job.markFinished(success, success ? "ok" : null, success ? null : "yt-dlp failed", null);
+			onFinished.accept(job);
+		}
+	}
+
+	private final DownloadJobService jobs = mock(DownloadJobService.class);
+	private final YoutubeDownloadService youtube = mock(YoutubeDownloadService.class);
+	private final List<Submitted> submitted = new CopyOnWriteArrayList<>();
+	private BatchService service;
+
+	@BeforeEach
+	void setUp() {
+		when(jobs.submit(any(), any(), any())).thenAnswer(call -> accept(call.getArgument(0), call.getArgument(2)));
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (service != null) service.shutdown();
+	}
+
+	private static ClusterRing ring(boolean enabled, String self) {
+		return new ClusterRing(new SimpleMeterRegistry(), enabled, self, 8080, "http://localhost:8081,http://localhost:8082",
+				"", 128, Duration.ofSeconds(5), 2, Duration.ofSeconds(2), enabled ? "s3cret" : "");
+	}
+
+	private BatchService start(int maxRetries) {
+		return start(maxRetries, ring(false, ""));
+	}
+
+	private BatchService start(int maxRetries, ClusterRing cluster) {
+		ConnectionBudget budget = new ConnectionBudget(new SimpleMeterRegistry(), 4, 16, 32, "", "", "native");
+		service = new BatchService(jobs, youtube, budget, cluster, 4, 16, 5000, 50, maxRetries);
+		return service;
+	}
+
+	private DownloadJob accept(JobSpec spec, Consumer<DownloadJob> onFinished) {
+		DownloadJob job = new DownloadJob("job-" + (submitted.size() + 1), spec.kind(), spec.getUrl(), null, "youtube");
+		submitted.add(new Submitted(spec, job, onFinished));
+		return job;
+	}
+
+	private static BatchRequest request(int concurrency, String... urls) {
+		BatchRequest request = new BatchRequest();
+		request.setUrls(List.of(urls));
+		request.setConcurrency(concurrency);
+		return request;
+	}
+
+	private static String[] videos(int n) {
+		String[] urls = new String[n];
+		for (int i = 0; i < n; i++) urls[i] = "https://www.youtube.com/watch?v=video" + String.format("%06d", i);
+		return urls;
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out");
+			Thread.sleep(20);
+		}
+	}
+
+	@Test
+	void keepsAtMostTheConcurrencyInFlight() {
+		DownloadBatch batch = start(50).submit(request(3, videos(7)), "ip:1");
+
+		assertEquals(3, submitted.size());
+		submitted.get(1).finish(true);
+		assertEquals(4, submitted.size());
+		assertEquals(1, batch.getSucceeded());
+
+		for (int i = 0; i < 7; i++) {
+			submitted.get(i).finish(i != 5);
+			assertTrue(submitted.size() <= Math.min(7, i + 5));
+		}
+		assertEquals(7, submitted.size());
+		assertTrue(batch.isFinished());
+		assertEquals(6, batch.getSucceeded());
+		assertEquals(1, batch.getFailed());
+		assertEquals("yt-dlp failed", batch.getItems().get(5).getError());
+		assertTrue(submitted.stream().allMatch(s -> s.spec().isBatch() && "ip:1".equals(s.spec().getClient())));
+	}
+
+	@Test
+	void batchIdsNameTheMemberRunningThem() {
+		ClusterRing here = ring(true, "http://localhost:8082");
+		ClusterRing peer = ring(true, "http://localhost:8081");
+		try {
+			DownloadBatch batch = start(50, here).submit(request(1, videos(1)), "ip:1");
+			assertEquals("http://localhost:8082", peer.nodeOfJob(batch.getId()));
+			assertNull(here.nodeOfJob(batch.getId()));
+		} finally {
+			here.shutdown();
+			peer.shutdown();
+		}
+	}
+
+	@Test
+	void dropsDuplicatesOfTheSameVideoKeepingTheFirstUrl() {
+		DownloadBatch batch = start(50).submit(request(4,
+				"https://youtu.be/dQw4w9WgXcQ",
+				"https://www.youtube.com/watch?v=dQw4w9WgXcQ&t=42",
+				" https://youtu.be/dQw4w9WgXcQ ",
+				"https://www.youtube.com/shorts/aaaaaaaaaaa",
+				"https://youtu.be/aaaaaaaaaaa"), "ip:1");
+
+		List<String> urls = new ArrayList<>();
+		for (BatchItem item : batch.getItems()) urls.add(item.getUrl());
+		assertEquals(List.of("https://youtu.be/dQw4w9WgXcQ", "https://www.youtube.com/shorts/aaaaaaaaaaa"), urls);
+	}
+
+	@Test
+	void failsAnItemThatCannotBeSubmittedAndMovesOn() {
+		String[] urls = videos(3);
+		when(youtube.work(any())).thenAnswer(call -> {
+			if (call.getArgument(0, JobSpec.class).getUrl().equals(urls[1])) {
+				throw new IllegalArgumentException("Unsupported URL");
+			}
+			return null;
+		});
+		DownloadBatch batch = start(50).submit(request(2, urls), "ip:1");
+
+		assertEquals(2, submitted.size());
+		assertEquals(DownloadJob.State.FAILED, batch.getItems().get(1).getState());
+		assertEquals("Unsupported URL", batch.getItems().get(1).getError());
+		submitted.forEach(s -> s.finish(true));
+		assertTrue(batch.isFinished());
+		assertEquals(2, batch.getSucceeded());
+		assertEquals(1, batch.getFailed());
+	}
+
+	@Test
+	void retriesAfterTheQuotasRetryAfter() throws Exception {
+		doThrow(new ClientQuotaException("Too many queued jobs", 1))
+				.doAnswer(call -> accept(call.getArgument(0), call.getArgument(2)))
+				.when(jobs).submit(any(), any(), any());
+		long started = System.nanoTime();
+		DownloadBatch batch = start(50).submit(request(1, videos(1)), "ip:1");
+
+		assertTrue(submitted.isEmpty());
+		assertEquals(DownloadJob.State.QUEUED, batch.getItems().get(0).getState());
+		waitFor(() -> submitted.size() == 1);
+		assertTrue(System.nanoTime() - started >= 1_000_000_000L, "retried before Retry-After");
+		submitted.get(0).finish(true);
+		assertTrue(batch.isFinished());
+	}
+
+	@Test
+	void failsAnItemTheQueueKeepsTurningAway() throws Exception {
+		doThrow(new ClientQuotaException("Too many queued jobs", 1)).when(jobs).submit(any(), any(), any());
+		DownloadBatch batch = start(1).submit(request(2, videos(2)), "ip:1");
+
+		waitFor(batch::isFinished);
+		assertEquals(2, batch.getFailed());
+		assertEquals("Not accepted after 1 retries: Too many queued jobs", batch.getItems().get(0).getError());
+		assertFalse(batch.getItems().stream().anyMatch(i -> i.getJobId() != null));
+	}
+}
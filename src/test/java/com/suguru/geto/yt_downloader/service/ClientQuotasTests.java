@@ -0,0 +1,56 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientQuotasTests {
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> client(ClientQuotas quotas, String id) {
+		return (Map<String, Object>) ((Map<String, Object>) quotas.stats().get("clients")).get(id);
+	}
+
+	@Test
+	void limitsConcurrentTransfersPerClient() {
+		ClientQuotas quotas = new ClientQuotas(new SimpleMeterRegistry(), "", "", 0, 100, 4, 2, 0, 1, false);
+		ClientQuotas.Transfer first = quotas.beginTransfer("ip:10.0.0.1");
+		ClientQuotas.Transfer second = quotas.beginTransfer("ip:10.0.0.1");
+		ClientQuotaException e = assertThrows(ClientQuotaException.class, () -> quotas.beginTransfer("ip:10.0.0.1"));
+		assertTrue(e.getMessage().contains("2 downloads"));
+		quotas.beginTransfer("ip:10.0.0.2").close();
+
+		// Closing twice (the body and the rejected-task handler) gives the slot back once
+		first.close();
+		first.close();
+		assertEquals(1, client(quotas, "ip:10.0.0.1").get("transfers"));
+		quotas.beginTransfer("ip:10.0.0.1").close();
+		second.close();
+		assertEquals(0, client(quotas, "ip:10.0.0.1").get("transfers"));
+	}
+
+	@Test
+	void chargesStreamedBytesAndRejectsOnceTheBucketIsEmpty() throws Exception {
+		ClientQuotas quotas = new ClientQuotas(new SimpleMeterRegistry(), "", "", 0, 100, 4, 2, 1, 1000, false);
+		ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		try (ClientQuotas.Transfer transfer = quotas.beginTransfer("ip:10.0.0.1");
+			 OutputStream out = transfer.meter(sink)) {
+			out.write(new byte[1500]);
+			out.write(1);
+		}
+		assertEquals(1501, sink.size());
+		assertEquals(1501L, client(quotas, "ip:10.0.0.1").get("bytes"));
+
+		ClientQuotaException e = assertThrows(ClientQuotaException.class, () -> quotas.beginTransfer("ip:10.0.0.1"));
+		assertTrue(e.getRetryAfterSeconds() >= 1);
+		assertEquals(0, client(quotas, "ip:10.0.0.1").get("transfers"));
+	}
+
+}
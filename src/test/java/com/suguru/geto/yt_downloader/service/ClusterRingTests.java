@@ -0,0 +1,84 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterRingTests {
+
+	private static final String NODES = "http://localhost:8081,http://localhost:8082/,HTTP://LOCALHOST:8083";
+
+	private static ClusterRing node(String self) {
+		return new ClusterRing(new SimpleMeterRegistry(), true, self, 8080, NODES, "", 128,
+				Duration.ofSeconds(5), 2, Duration.ofSeconds(2), "s3cret");
+	}
+
+	@Test
+	void everyMemberRoutesAVideoToTheSameOwner() {
+		ClusterRing a = node("http://localhost:8081");
+		ClusterRing c = node("http://localhost:8083/");
+		Map<String, Integer> owned = new HashMap<>();
+		for (int i = 0; i < 3000; i++) {
+			String key = "video" + i;
+			assertEquals(a.owner(key), c.owner(key));
+			owned.merge(a.owner(key), 1, Integer::sum);
+		}
+		assertEquals(3, owned.size());
+		for (int n : owned.values()) assertTrue(n > 600 && n < 1500, "unbalanced ring: " + owned);
+	}
+
+	@Test
+	void onlyTheVideosOfAMemberThatLeavesMove() {
+		ClusterRing a = node("http://localhost:8081");
+		Map<String, String> before = new HashMap<>();
+		for (int i = 0; i < 3000; i++) before.put("video" + i, a.owner("video" + i));
+
+		a.unreachable("http://localhost:8083");
+		for (Map.Entry<String, String> e : before.entrySet()) {
+			String now = a.owner(e.getKey());
+			if (e.getValue().equals("http://localhost:8083")) assertNotEquals("http://localhost:8083", now);
+			else assertEquals(e.getValue(), now);
+		}
+	}
+
+	@Test
+	void jobIdsNameTheMemberRunningThem() {
+		ClusterRing a = node("http://localhost:8081");
+		ClusterRing b = node("http://localhost:8082");
+		String id = b.newJobId();
+		assertEquals("http://localhost:8082", a.nodeOfJob(id));
+		assertNull(b.nodeOfJob(id));
+		assertNull(a.nodeOfJob("0b7e4a52-2f0e-4c57-9a65-4c1f0f0e8b1d"));
+	}
+
+	@Test
+	void refusesToClusterWithoutASecret() {
+		assertThrows(IllegalArgumentException.class, () -> new ClusterRing(new SimpleMeterRegistry(), true,
+				"http://localhost:8081", 8080, NODES, "", 128, Duration.ofSeconds(5), 2, Duration.ofSeconds(2), " "));
+	}
+
+	@Test
+	void onlyRequestsCarryingTheSecretCountAsForwarded() {
+		ClusterRing a = node("http://localhost:8081");
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		assertFalse(a.isForwarded(request));
+		request.addHeader(ClusterRing.FORWARDED_HEADER, "1");
+		assertFalse(a.isForwarded(request));
+
+		MockHttpServletRequest forwarded = new MockHttpServletRequest();
+		forwarded.addHeader(ClusterRing.FORWARDED_HEADER, node("http://localhost:8082").forwardToken());
+		assertTrue(a.isForwarded(forwarded));
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import com.suguru.geto.yt_downloader.model.TransferOptions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConnectionBudgetTests {
+
+	@Test
+	void grantsStayWithinCeiling() {
+		ConnectionBudget budget = new ConnectionBudget(new SimpleMeterRegistry(), 4, 8, 10, "", "", "native");
+		ConnectionBudget.Lease a = budget.acquire(new TransferOptions(8, null));
+		ConnectionBudget.Lease b = budget.acquire(TransferOptions.DEFAULT);
+		ConnectionBudget.Lease c = budget.acquire(TransferOptions.DEFAULT);
+		assertEquals(8, a.getConnections());
+		assertEquals(2, b.getConnections());
+		// Out of budget: still one connection, yt-dlp's plain single-stream download
+		assertEquals(1, c.getConnections());
+		assertEquals(List.of(), c.arguments());
+		a.close();
+		c.close();
+		assertEquals(List.of("--concurrent-fragments", "4"), budget.acquire(TransferOptions.DEFAULT).arguments());
+	}
+
+	@Test
+	void externalDownloaderGetsGrantedConnections() {
+		ConnectionBudget budget = new ConnectionBudget(new SimpleMeterRegistry(), 4, 16, 32, "aria2c", "-x {n} -s {n}", "native");
+		assertEquals(List.of("--downloader", "aria2c", "--downloader-args", "aria2c:-x 6 -s 6"),
+				budget.acquire(new TransferOptions(6, "external")).arguments());
+		assertThrows(IllegalArgumentException.class, () -> budget.validate(new TransferOptions(0, null)));
+		ConnectionBudget none = new ConnectionBudget(new SimpleMeterRegistry(), 4, 16, 32, "", "", "native");
+		assertThrows(IllegalArgumentException.class, () -> none.validate(new TransferOptions(null, "external")));
+	}
+}
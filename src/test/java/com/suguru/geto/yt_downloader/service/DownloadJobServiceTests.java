@@ -0,0 +1,178 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.DownloadResult;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadJobServiceTests {
+
+	@TempDir
+	Path dir;
+
+	private DownloadJobService service;
+	private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+	private DownloadJobService start(int maxQueued) {
+		return start(maxQueued, 100);
+	}
+
+	private DownloadJobService start(int maxQueued, int queueCapacity) {
+		SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		ClientQuotas quotas = new ClientQuotas(meters, "", "", 0, maxQueued, 4, 2, 0, 1, false);
+		JobJournal journal = new JobJournal(meters, false, false, 1000, 3, dir.toString());
+		journal.open();
+		ProcessSupervisor supervisor = new ProcessSupervisor(Duration.ofMinutes(1), Duration.ofMinutes(1),
+				Duration.ofMinutes(1), Duration.ofSeconds(5), dir.toString());
+		service = new DownloadJobService(1, queueCapacity, 4, 100, new JobEventBroadcaster(500, 60000, 60000),
+				new ThreadSupport(false), new YtDlpMetrics(meters, ObservationRegistry.create()), supervisor, journal, quotas,
+				new ClusterRing(meters, false, "", 8080, "", "", 128, Duration.ofSeconds(5), 2, Duration.ofSeconds(2), ""));
+		return service;
+	}
+
+	@AfterEach
+	void stop() {
+		if (service != null) service.shutdown();
+	}
+
+	private static JobSpec spec(String client, boolean batch) {
+		JobSpec spec = new JobSpec(JobSpec.AUDIO, "https://youtu.be/dQw4w9WgXcQ", "140", null);
+		spec.setClient(client);
+		spec.setBatch(batch);
+		return spec;
+	}
+
+	private DownloadJob submit(String client, boolean batch, String name) {
+		return service.submit(spec(client, batch), progress -> {
+			order.add(name);
+			return DownloadResult.failed("test");
+		});
+	}
+
+	private static void awaitFinished(DownloadJob job) throws InterruptedException {
+		for (int i = 0; i < 500 && !job.isFinished(); i++) TimeUnit.MILLISECONDS.sleep(10);
+		assertTrue(job.isFinished());
+	}
+
+	@Test
+	void sharesWorkersFairlyAndRunsBatchItemsLast() throws Exception {
+		start(100);
+		CountDownLatch release = new CountDownLatch(1);
+		service.submit(spec("blocker", false), progress -> {
+			release.await();
+			return DownloadResult.failed("test");
+		});
+		for (int i = 1; i <= 4; i++) submit("a", false, "a" + i);
+		submit("a", true, "a-batch");
+		DownloadJob last = submit("b", false, "b1");
+		release.countDown();
+		awaitFinished(last);
+		for (int i = 0; i < 500 && order.size() < 6; i++) TimeUnit.MILLISECONDS.sleep(10);
+
+		// b's one job does not wait for all of a's; a's batch item waits for everything interactive
+		assertEquals(List.of("a1", "b1", "a2", "a3", "a4", "a-batch"), order);
+	}
+
+	@Test
+	void rejectsClientsOverTheirQueueQuota() {
+		start(2);
+		CountDownLatch release = new CountDownLatch(1);
+		service.submit(spec("blocker", false), progress -> {
+			release.await();
+			return DownloadResult.failed("test");
+		});
+		submit("a", false, "a1");
+		submit("a", false, "a2");
+		ClientQuotaException e = assertThrows(ClientQuotaException.class, () -> submit("a", false, "a3"));
+		assertTrue(e.getMessage().contains("2 queued jobs"));
+		submit("b", false, "b1");
+		release.countDown();
+	}
+
+	@Test
+	void runsJobsToCompletionAndKeepsTheirResult() throws Exception {
+		start(100);
+		DownloadJob ok = service.submit(spec("a", false), progress -> new DownloadResult(true, "saved", "clip.mp4"));
+		DownloadJob failed = service.submit(spec("a", false), progress -> {
+			throw new IllegalStateException("boom");
+		});
+		awaitFinished(ok);
+		awaitFinished(failed);
+
+		assertEquals(DownloadJob.State.SUCCEEDED, ok.getState());
+		assertEquals("saved", ok.getResult());
+		assertEquals("clip.mp4", ok.getFile());
+		assertEquals(DownloadJob.State.FAILED, failed.getState());
+		assertEquals("boom", failed.getError());
+		assertEquals(ok, service.getJob(ok.getId()));
+		assertEquals(List.of(ok), service.listJobs(DownloadJob.State.SUCCEEDED));
+	}
+
+	@Test
+	void rejectsJobsOnceTheQueueIsFull() {
+		start(100, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		service.submit(spec("a", false), progress -> {
+			release.await();
+			return DownloadResult.failed("test");
+		});
+		for (int i = 0; i < 500 && service.getRunningCount() == 0; i++) sleep(10);
+		submit("b", false, "b1");
+		assertThrows(JobQueueFullException.class, () -> submit("c", false, "c1"));
+		assertEquals(1, service.getPendingCount());
+		release.countDown();
+	}
+
+	@Test
+	void cancelsQueuedAndRunningJobs() throws Exception {
+		start(100);
+		DownloadJob running = service.submit(spec("a", false), progress -> {
+			TimeUnit.SECONDS.sleep(30);
+			return DownloadResult.failed("not cancelled");
+		});
+		DownloadJob queued = submit("b", false, "b1");
+		for (int i = 0; i < 500 && running.getState() != DownloadJob.State.RUNNING; i++) sleep(10);
+
+		service.cancel(queued.getId());
+		assertEquals(DownloadJob.State.CANCELLED, queued.getState());
+		service.cancel(running.getId());
+		awaitFinished(running);
+		assertEquals(DownloadJob.State.CANCELLED, running.getState());
+		// The queued job never ran
+		assertTrue(order.isEmpty());
+	}
+
+	@Test
+	void youtubeHostsShareOneLane() {
+		assertEquals("youtube.com", DownloadJobService.hostOf("https://youtu.be/dQw4w9WgXcQ"));
+		assertEquals("youtube.com", DownloadJobService.hostOf("https://m.youtube.com/watch?v=dQw4w9WgXcQ"));
+		assertEquals("vimeo.com", DownloadJobService.hostOf("https://www.vimeo.com/1"));
+		assertEquals("unknown", DownloadJobService.hostOf("not a url"));
+	}
+
+	private static void sleep(long millis) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class FileServingServiceTests {
+
+	@Test
+	void parsesSingleRanges() {
+		assertArrayEquals(new long[]{0, 99}, FileServingService.parseRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[]{500, 999}, FileServingService.parseRange("bytes=500-", 1000));
+		assertArrayEquals(new long[]{900, 999}, FileServingService.parseRange("bytes=-100", 1000));
+		assertArrayEquals(new long[]{990, 999}, FileServingService.parseRange("bytes=990-5000", 1000));
+		assertArrayEquals(new long[]{0, 999}, FileServingService.parseRange("bytes=-5000", 1000));
+	}
+
+	@Test
+	void rejectsOrIgnoresBadRanges() {
+		assertSame(FileServingService.UNSATISFIABLE, FileServingService.parseRange("bytes=1000-", 1000));
+		assertNull(FileServingService.parseRange("bytes=0-1,5-9", 1000));
+		assertNull(FileServingService.parseRange("items=0-1", 1000));
+		assertNull(FileServingService.parseRange("bytes=9-1", 1000));
+		assertNull(FileServingService.parseRange("bytes=a-b", 1000));
+	}
+
+}
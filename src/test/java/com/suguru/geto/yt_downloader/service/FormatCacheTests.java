@@ -0,0 +1,104 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FormatCacheTests {
+
+	private static List<FormatInfo> formats(int n) {
+		List<FormatInfo> out = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			out.add(new FormatInfo(String.valueOf(i), "mp4", "1280x720", "30", "avc1", "none", null, "720p", "video"));
+		}
+		return out;
+	}
+
+	@Test
+	void servesHitsAndCountsMisses() {
+		FormatCache cache = new FormatCache(Duration.ofMinutes(10), 100);
+		assertNull(cache.get("a"));
+		cache.put("a", formats(3));
+		assertEquals(3, cache.get("a").size());
+		assertEquals(3, cache.get("a").size());
+		assertThrows(UnsupportedOperationException.class, () -> cache.get("a").add(new FormatInfo()));
+
+		assertEquals(1, cache.stats().get("entries"));
+		assertEquals(3L, cache.stats().get("weight"));
+		assertEquals(3L, cache.stats().get("hits"));
+		assertEquals(1L, cache.stats().get("misses"));
+		assertEquals(0.75, cache.stats().get("hitRatio"));
+	}
+
+	@Test
+	void expiredEntriesMissButStayAvailableAsStale() throws Exception {
+		FormatCache cache = new FormatCache(Duration.ofMillis(50), 100);
+		cache.put("a", formats(2));
+		assertNotNull(cache.get("a"));
+		TimeUnit.MILLISECONDS.sleep(80);
+
+		assertNull(cache.get("a"));
+		assertNull(cache.get("a"));
+		assertEquals(2, cache.getStale("a").size());
+		assertEquals(1L, cache.stats().get("expirations"));
+		assertEquals(2L, cache.stats().get("misses"));
+		assertNull(cache.getStale("b"));
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedByWeight() {
+		FormatCache cache = new FormatCache(Duration.ofMinutes(10), 10);
+		cache.put("a", formats(4));
+		cache.put("b", formats(4));
+		cache.get("a"); // b is now the least recently used
+		cache.put("c", formats(4));
+
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertEquals(8L, cache.stats().get("weight"));
+		assertEquals(1L, cache.stats().get("evictions"));
+
+		// An entry heavier than the whole cache is still kept on its own
+		cache.put("d", formats(20));
+		assertNotNull(cache.get("d"));
+		assertEquals(1, cache.stats().get("entries"));
+	}
+
+	@Test
+	void replacingAndInvalidatingKeepTheWeightRight() {
+		FormatCache cache = new FormatCache(Duration.ofMinutes(10), 100);
+		cache.put("a", formats(4));
+		cache.put("a", formats(2));
+		assertEquals(2L, cache.stats().get("weight"));
+		cache.invalidate("a");
+		assertNull(cache.getStale("a"));
+		assertEquals(0L, cache.stats().get("weight"));
+	}
+
+	@Test
+	void zeroMaxWeightOrTtlDisablesCaching() {
+		FormatCache noWeight = new FormatCache(Duration.ofMinutes(10), 0);
+		noWeight.put("a", formats(1));
+		assertNull(noWeight.getStale("a"));
+
+		FormatCache noTtl = new FormatCache(Duration.ZERO, 100);
+		noTtl.put("a", formats(1));
+		assertNull(noTtl.getStale("a"));
+
+		FormatCache cache = new FormatCache(Duration.ofMinutes(10), 100);
+		cache.put("a", List.of());
+		assertNull(cache.getStale("a"));
+	}
+
+}
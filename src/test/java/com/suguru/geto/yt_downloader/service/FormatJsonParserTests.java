@@ -0,0 +1,44 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.List;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FormatJsonParserTests {
+
+	@Test
+	void parsesTopLevelFormatsOnly() throws Exception {
+		List<FormatInfo> formats;
+		try (InputStream in = getClass().getResourceAsStream("/ytdlp/formats.json")) {
+			formats = FormatJsonParser.parse(in);
+		}
+		// Storyboard skipped, requested_formats ignored
+		assertEquals(List.of("139", "251", "18", "137"), formats.stream().map(FormatInfo::getId).toList());
+
+		FormatInfo opus = formats.get(1);
+		assertEquals("audio", opus.getType());
+		assertEquals("opus", opus.getAcodec());
+		assertEquals("130", opus.getAbr());
+		assertEquals(3437753L, opus.getFilesize());
+		assertTrue(opus.getNote().contains("medium"));
+
+		FormatInfo progressive = formats.get(2);
+		assertEquals("video", progressive.getType());
+		assertEquals("mp4a.40.2", progressive.getAcodec());
+		assertEquals(10327123L, progressive.getFilesize());
+		assertTrue(progressive.getFilesizeApprox());
+
+		FormatInfo videoOnly = formats.get(3);
+		assertEquals("1920x1080", videoOnly.getResolution());
+		assertEquals(1080, videoOnly.getHeight());
+		assertEquals("", videoOnly.getAcodec());
+		assertTrue(videoOnly.getNote().startsWith("video only"));
+	}
+
+}
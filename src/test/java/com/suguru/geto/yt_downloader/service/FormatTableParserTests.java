@@ -0,0 +1,122 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FormatTableParserTests {
+
+	private BufferedReader fixture(String name) {
+		return new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(name), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void parsesListFormatsTable() throws Exception {
+		List<FormatInfo> formats;
+		try (BufferedReader r = fixture("/ytdlp/list-formats.txt")) {
+			formats = FormatTableParser.parse(r);
+		}
+		assertEquals(38, formats.size());
+		assertFalse(formats.stream().anyMatch(f -> f.getId().startsWith("sb")));
+
+		FormatInfo opus = formats.stream().filter(f -> f.getId().equals("251")).findFirst().orElseThrow();
+		assertEquals("audio", opus.getType());
+		assertEquals((long) (3.28 * 1024 * 1024), opus.getFilesize());
+
+		FormatInfo hd = formats.stream().filter(f -> f.getId().equals("137")).findFirst().orElseThrow();
+		assertEquals("1920x1080", hd.getResolution());
+		assertEquals("avc1.640028", hd.getVcodec());
+		assertEquals("", hd.getAcodec());
+		assertEquals(1920, hd.getWidth());
+		assertEquals(1080, hd.getHeight());
+		assertEquals("25", hd.getFps());
+		assertEquals(2982.0, hd.getTotalBitrate());
+		assertEquals("https", hd.getProtocol());
+
+		FormatInfo progressive = formats.stream().filter(f -> f.getId().equals("18")).findFirst().orElseThrow();
+		assertEquals("mp4a.40.2", progressive.getAcodec());
+		assertEquals((long) (14.83 * 1024 * 1024), progressive.getFilesize());
+		assertTrue(progressive.getFilesizeApprox());
+		// ABR is empty for 18; the 44k under ASR must not be taken as the bitrate
+		assertNull(progressive.getAudioBitrate());
+
+		assertEquals("", opus.getVcodec());
+		assertEquals("opus", opus.getAcodec());
+		assertEquals("125", opus.getAbr());
+		assertEquals("", opus.getResolution());
+
+		// Both "medium"; 140 wins on bitrate (130k vs 125k), as it does from the JSON listing
+		assertEquals("140", FormatRanking.bestAudioId(formats));
+	}
+
+	@Test
+	void parsesBoxDrawingTable() throws Exception {
+		List<FormatInfo> ascii;
+		List<FormatInfo> utf8;
+		try (BufferedReader a = fixture("/ytdlp/list-formats.txt"); BufferedReader u = fixture("/ytdlp/list-formats-utf8.txt")) {
+			ascii = FormatTableParser.parse(a);
+			utf8 = FormatTableParser.parse(u);
+		}
+		assertEquals(ascii.size(), utf8.size());
+		for (int i = 0; i < ascii.size(); i++) {
+			assertEquals(ascii.get(i).getId(), utf8.get(i).getId());
+			assertEquals(ascii.get(i).getFilesize(), utf8.get(i).getFilesize());
+			assertEquals(ascii.get(i).getAcodec(), utf8.get(i).getAcodec());
+		}
+	}
+
+	@Test
+	void placesLeftAlignedHdrCells() throws Exception {
+		List<FormatInfo> formats;
+		try (BufferedReader r = fixture("/ytdlp/list-formats-hdr.txt")) {
+			formats = FormatTableParser.parse(r);
+		}
+		assertEquals(4, formats.size());
+		// "10" under HDR starts where the header starts; it must not run into the FPS cell
+		FormatInfo hdr = formats.stream().filter(f -> f.getId().equals("337")).findFirst().orElseThrow();
+		assertEquals("60", hdr.getFps());
+		assertEquals(3840, hdr.getWidth());
+		assertEquals("vp09.02.51.10", hdr.getVcodec());
+		assertEquals((long) (812.20 * 1024 * 1024), hdr.getFilesize());
+		assertEquals(12404.0, hdr.getTotalBitrate());
+
+		FormatInfo sdr = formats.stream().filter(f -> f.getId().equals("303")).findFirst().orElseThrow();
+		assertEquals("60", sdr.getFps());
+		FormatInfo audio = formats.stream().filter(f -> f.getId().equals("140")).findFirst().orElseThrow();
+		assertEquals("audio", audio.getType());
+		assertEquals("130", audio.getAbr());
+	}
+
+	@Test
+	void scrapesSizesFromSizeColumn() throws Exception {
+		Map<String, Long> sizes;
+		try (BufferedReader r = fixture("/ytdlp/list-formats.txt")) {
+			sizes = FormatTableParser.parseSizes(r);
+		}
+		assertEquals((long) (78.14 * 1024 * 1024), sizes.get("137"));
+		assertEquals((long) (14.83 * 1024 * 1024), sizes.get("18"));
+		assertNull(sizes.get("233"));
+	}
+
+	@Test
+	void convertsHumanSizes() {
+		assertEquals(1536L, FormatTableParser.humanToBytes("1.5KiB"));
+		assertEquals(2_000_000L, FormatTableParser.humanToBytes("2MB"));
+		assertEquals(42L, FormatTableParser.humanToBytes("42"));
+		assertNull(FormatTableParser.humanToBytes("https"));
+		assertNull(FormatTableParser.humanToBytes("1.2.3MiB"));
+		assertEquals((long) (78.14 * 1024 * 1024), FormatTableParser.sizeToBytes("  78.14MiB 2982k", 2, 10));
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.suguru.geto.yt_downloader.model.FormatInfo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FormatTokensTests {
+
+	private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+
+	private static List<FormatInfo> formats() {
+		return List.of(
+				new FormatInfo("18", "mp4", "640x360", "30", "avc1", "mp4a.40.2", null, "360p", "video"),
+				new FormatInfo("137", "mp4", "1920x1080", "30", "avc1", null, null, "1080p, video only", "video"),
+				new FormatInfo("140", "m4a", "audio only", null, null, "mp4a.40.2", "129k", "medium", "audio"));
+	}
+
+	private static String token(List<FormatInfo> formats, String id) {
+		return formats.stream().filter(f -> f.getId().equals(id)).findFirst().get().getToken();
+	}
+
+	@Test
+	void tokensCarryMergePlanForTheSameVideo() {
+		FormatTokens tokens = new FormatTokens(new SimpleMeterRegistry(), "secret", Duration.ofMinutes(10));
+		List<FormatInfo> issued = tokens.withTokens(URL, formats());
+		assertNull(token(issued, "140"));
+
+		FormatTokens.Claims merged = tokens.verify(token(issued, "137"), "https://youtu.be/dQw4w9WgXcQ", "137");
+		assertNotNull(merged);
+		assertFalse(merged.isProgressive());
+		assertEquals("140", merged.getBestAudioId());
+		assertTrue(tokens.verify(token(issued, "18"), URL, "18").isProgressive());
+
+		// Wrong format, other key, tampered
+		assertNull(tokens.verify(token(issued, "137"), URL, "18"));
+		FormatTokens other = new FormatTokens(new SimpleMeterRegistry(), "other", Duration.ofMinutes(10));
+		assertNull(other.verify(token(issued, "137"), URL, "137"));
+		assertNull(tokens.verify("x" + token(issued, "137"), URL, "137"));
+	}
+
+	@Test
+	void expiredTokensAreIgnored() {
+		FormatTokens tokens = new FormatTokens(new SimpleMeterRegistry(), "secret", Duration.ofMillis(-1));
+		List<FormatInfo> issued = tokens.withTokens(URL, formats());
+		assertNull(tokens.verify(token(issued, "137"), URL, "137"));
+	}
+}
@@ -0,0 +1,105 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class JobEventBroadcasterTests {
+
+	private static final Pattern EVENT = Pattern.compile("event:(\\w+)\\ndata:(?:\\{\"phase\":\"([\\w-]+)\")?");
+
+	// Nothing is rate-limited by time within a test, and nothing stalls
+	private final JobEventBroadcaster broadcaster = new JobEventBroadcaster(60_000, 0, 60_000);
+	private final DownloadJob job = new DownloadJob("job-1", "video", "https://youtu.be/dQw4w9WgXcQ", "18", "youtube");
+
+	@RestController
+	class Events {
+		@GetMapping("/events")
+		SseEmitter events() {
+			return broadcaster.subscribe(job);
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		broadcaster.shutdown();
+	}
+
+	@Test
+	void sendsTheFirstEventOfEachPhaseAndCoalescesTheRest() throws Exception {
+		job.markRunning();
+		MvcResult stream = subscribe();
+
+		broadcaster.publish(job, event(ProgressEvent.PHASE_DOWNLOAD, 10));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_DOWNLOAD, 20));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_POSTPROCESS, 20));
+		assertEquals(List.of("state", "progress:download", "progress:postprocess"), events(stream));
+
+		// Back to a phase already announced (the audio after the video): held like any update
+		broadcaster.publish(job, event(ProgressEvent.PHASE_DOWNLOAD, 30));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_DOWNLOAD, 40));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_POSTPROCESS, 40));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_MERGE, 40));
+		assertEquals(List.of("state", "progress:download", "progress:postprocess", "progress:merge"), events(stream));
+
+		job.markFinished(true, "ok", null, null);
+		broadcaster.finish(job);
+		assertEquals(List.of("state", "progress:download", "progress:postprocess", "progress:merge", "done"),
+				events(stream));
+	}
+
+	@Test
+	void flushesTheLatestHeldEventOnFinish() throws Exception {
+		job.markRunning();
+		MvcResult stream = subscribe();
+
+		broadcaster.publish(job, event(ProgressEvent.PHASE_DOWNLOAD, 10));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_POSTPROCESS, 10));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_DOWNLOAD, 20));
+		broadcaster.publish(job, event(ProgressEvent.PHASE_POSTPROCESS, 20));
+		job.markFinished(true, "ok", null, null);
+		broadcaster.finish(job);
+
+		assertEquals(List.of("state", "progress:download", "progress:postprocess", "progress:postprocess", "done"),
+				events(stream));
+		assertEquals(20L, job.getProgress().getDownloadedBytes());
+	}
+
+	private MvcResult subscribe() throws Exception {
+		MockMvc mvc = MockMvcBuilders.standaloneSetup(new Events()).build();
+		return mvc.perform(get("/events")).andExpect(request().asyncStarted()).andReturn();
+	}
+
+	/** Event names sent so far, progress events suffixed with their phase. */
+	private static List<String> events(MvcResult stream) throws Exception {
+		List<String> names = new ArrayList<>();
+		Matcher m = EVENT.matcher(stream.getResponse().getContentAsString());
+		while (m.find()) {
+			names.add(m.group(1).equals("progress") ? "progress:" + m.group(2) : m.group(1));
+		}
+		return names;
+	}
+
+	private static ProgressEvent event(String phase, long bytes) {
+		ProgressEvent event = new ProgressEvent(phase, "running");
+		event.setDownloadedBytes(bytes);
+		return event;
+	}
+}
@@ -0,0 +1,129 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.suguru.geto.yt_downloader.model.DownloadJob;
+import com.suguru.geto.yt_downloader.model.JobSpec;
+import com.suguru.geto.yt_downloader.model.TransferOptions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobJournalTests {
+
+	@TempDir
+	Path dir;
+
+	private JobJournal open(int compactAfter, int maxAttempts) {
+		JobJournal journal = new JobJournal(new SimpleMeterRegistry(), true, true, compactAfter, maxAttempts, dir.toString());
+		journal.open();
+		return journal;
+	}
+
+	@Test
+	void resumesUnfinishedJobsAndCleansAbandonedTempOutput() throws Exception {
+		JobJournal journal = open(1000, 3);
+		journal.submitted("a", new JobSpec(JobSpec.VIDEO, "https://youtu.be/aaaaaaaaaaa", "137", new TransferOptions(8, null)));
+		journal.submitted("b", new JobSpec(JobSpec.MP3, "https://youtu.be/bbbbbbbbbbb", "140", null));
+		journal.submitted("c", new JobSpec(JobSpec.QUALITY, "https://youtu.be/ccccccccccc", "720p", null));
+		journal.started("a");
+		journal.started("b");
+		journal.finished("b", DownloadJob.State.SUCCEEDED);
+		journal.close();
+
+		Files.createDirectories(dir.resolve(".ytd-tmp/a"));
+		Files.createDirectories(dir.resolve(".ytd-tmp/gone"));
+		Files.createDirectories(dir.resolve(".parts-gone"));
+
+		JobJournal reopened = open(1000, 3);
+		List<JobJournal.Pending> pending = reopened.recovered();
+		assertEquals(2, pending.size());
+		assertEquals("a", pending.get(0).getId());
+		assertEquals(1, pending.get(0).getAttempts());
+		assertEquals("137", pending.get(0).getSpec().getFormatId());
+		assertEquals(8, pending.get(0).getSpec().transfer().getFragments());
+		assertEquals("c", pending.get(1).getId());
+		assertEquals("video", pending.get(1).getSpec().kind());
+
+		assertTrue(Files.isDirectory(dir.resolve(".ytd-tmp/a")));
+		assertFalse(Files.exists(dir.resolve(".ytd-tmp/gone")));
+		assertFalse(Files.exists(dir.resolve(".parts-gone")));
+		reopened.close();
+	}
+
+	@Test
+	void givesUpOnRepeatedlyInterruptedJobsAndSkipsTornRecords() throws Exception {
+		JobJournal journal = open(1000, 2);
+		journal.submitted("a", new JobSpec(JobSpec.AUDIO, "https://youtu.be/aaaaaaaaaaa", "251", null));
+		journal.started("a");
+		journal.close();
+		// Crash cut the last write short
+		Files.writeString(dir.resolve(JobJournal.FILE), "{\"type\":\"start\",\"id\":\"a\"}\n{\"type\":\"sta",
+				StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		JobJournal reopened = open(1000, 2);
+		assertTrue(reopened.recovered().isEmpty());
+		assertEquals(1, reopened.stats().get("abandoned"));
+		assertEquals(1, reopened.stats().get("unreadableLines"));
+		reopened.close();
+	}
+
+	@Test
+	void compactionKeepsOnlyUnfinishedJobs() throws Exception {
+		JobJournal journal = open(4, 3);
+		for (int i = 0; i < 10; i++) {
+			journal.submitted("job" + i, new JobSpec(JobSpec.MP3, "https://youtu.be/aaaaaaaaaaa", "140", null));
+			if (i != 7) journal.finished("job" + i, DownloadJob.State.SUCCEEDED);
+		}
+		journal.close();
+
+		assertTrue((Long) journal.stats().get("compactions") >= 1);
+		assertTrue(Files.readAllLines(dir.resolve(JobJournal.FILE)).size() < 20);
+		JobJournal reopened = open(4, 3);
+		assertEquals(1, reopened.recovered().size());
+		assertEquals("job7", reopened.recovered().get(0).getId());
+		reopened.close();
+	}
+
+	@Test
+	void compactionCountsEveryStartExactlyOnce() throws Exception {
+		JobJournal journal = open(1, 1000);
+		int jobs = 8, runs = 100;
+		for (int j = 0; j < jobs; j++) {
+			journal.submitted("job" + j, new JobSpec(JobSpec.AUDIO, "https://youtu.be/aaaaaaaaaaa", "140", null));
+		}
+		List<Thread> threads = new ArrayList<>();
+		for (int j = 0; j < jobs; j++) {
+			String id = "job" + j;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < runs; i++) {
+					journal.started(id);
+					// Spread the starts out so some are still queued whenever the writer compacts
+					LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+				}
+			}));
+		}
+		for (Thread t : threads) t.start();
+		for (Thread t : threads) t.join();
+		journal.close();
+
+		assertTrue((Long) journal.stats().get("compactions") >= 1);
+		JobJournal reopened = open(1, 1000);
+		assertEquals(jobs, reopened.recovered().size());
+		for (JobJournal.Pending p : reopened.recovered()) assertEquals(runs, p.getAttempts(), p.getId());
+		reopened.close();
+	}
+
+}
@@ -0,0 +1,91 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessSupervisorTests {
+
+	@TempDir
+	Path dir;
+
+	private ProcessSupervisor supervisor;
+
+	@AfterEach
+	void stop() {
+		if (supervisor != null) supervisor.shutdown();
+	}
+
+	@Test
+	void killsProcessPastPhaseTimeout() throws Exception {
+		supervisor = new ProcessSupervisor(Duration.ofMillis(100), Duration.ofMinutes(1), Duration.ofMinutes(1),
+				Duration.ofMillis(100), dir.toString());
+		supervisor.start();
+		ProcessSupervisor.Watch watch = supervisor.watch(new ProcessBuilder("sleep", "30").start(),
+				ProcessSupervisor.Phase.EXTRACT);
+		assertTrue(watch.process().waitFor(5, TimeUnit.SECONDS));
+		assertNotNull(watch.failure());
+		assertFalse(watch.isCancelled());
+		assertEquals(1L, supervisor.stats().get("timedOut"));
+	}
+
+	@Test
+	void cancellationKillsProcessesStartedWhileBound() throws Exception {
+		supervisor = new ProcessSupervisor(Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(1),
+				Duration.ofSeconds(5), dir.toString());
+		ProcessSupervisor.Cancellation cancellation = supervisor.newCancellation();
+		ProcessSupervisor.Watch watch;
+		try (ProcessSupervisor.Binding binding = cancellation.bind()) {
+			watch = supervisor.watch(new ProcessBuilder("sleep", "30").start(), ProcessSupervisor.Phase.DOWNLOAD);
+		}
+		cancellation.cancel();
+		assertTrue(watch.process().waitFor(5, TimeUnit.SECONDS));
+		assertTrue(watch.isCancelled());
+		// cancel() interrupts the thread it was bound to, which has since been unbound
+		assertFalse(Thread.interrupted());
+	}
+
+	@Test
+	void leasedWorkersGetTheRequestsDeadlineOnly() throws Exception {
+		supervisor = new ProcessSupervisor(Duration.ofMillis(200), Duration.ofMinutes(1), Duration.ofMinutes(1),
+				Duration.ofMillis(50), dir.toString());
+		supervisor.start();
+		ProcessSupervisor.Watch idle = supervisor.watchIdle(new ProcessBuilder("sleep", "30").start());
+		ProcessSupervisor.Watch leased = supervisor.watchIdle(new ProcessBuilder("sleep", "30").start());
+		leased.lease(ProcessSupervisor.Phase.EXTRACT);
+		assertTrue(leased.process().waitFor(5, TimeUnit.SECONDS));
+		assertNotNull(leased.failure());
+
+		// Idle well past the extract timeout and still alive
+		assertTrue(idle.process().isAlive());
+		idle.lease(ProcessSupervisor.Phase.EXTRACT);
+		idle.release();
+		TimeUnit.MILLISECONDS.sleep(400);
+		assertTrue(idle.process().isAlive());
+		idle.kill("test done");
+	}
+
+	@Test
+	void cancellingTheLeaseHolderKillsTheWorker() throws Exception {
+		supervisor = new ProcessSupervisor(Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(1),
+				Duration.ofSeconds(5), dir.toString());
+		ProcessSupervisor.Watch worker = supervisor.watchIdle(new ProcessBuilder("sleep", "30").start());
+		ProcessSupervisor.Cancellation cancellation = supervisor.newCancellation();
+		try (ProcessSupervisor.Binding binding = cancellation.bind()) {
+			worker.lease(ProcessSupervisor.Phase.DOWNLOAD);
+		}
+		cancellation.cancel();
+		assertTrue(worker.process().waitFor(5, TimeUnit.SECONDS));
+		assertTrue(worker.isCancelled());
+		assertFalse(Thread.interrupted());
+	}
+}
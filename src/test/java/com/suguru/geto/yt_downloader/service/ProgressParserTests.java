@@ -0,0 +1,33 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressParserTests {
+
+	@Test
+	void parsesDownloadLines() {
+		ProgressEvent e = ProgressParser.parse("[ytd-progress] dl downloading 1048576 NA 4194304.0 524288.5 6 137");
+		assertEquals(ProgressEvent.PHASE_DOWNLOAD, e.getPhase());
+		assertEquals(1048576L, e.getDownloadedBytes());
+		assertEquals(4194304L, e.getTotalBytes());
+		assertTrue(e.isTotalEstimated());
+		assertEquals(524288.5, e.getSpeed());
+		assertEquals(6L, e.getEta());
+		assertEquals("137", e.getFormatId());
+		assertEquals(25.0, e.getPercent());
+	}
+
+	@Test
+	void mapsPostprocessorsToPhases() {
+		assertEquals(ProgressEvent.PHASE_MERGE, ProgressParser.parse("[ytd-progress] pp started Merger").getPhase());
+		assertEquals(ProgressEvent.PHASE_EXTRACT_AUDIO, ProgressParser.parse("[ytd-progress] pp started ExtractAudio").getPhase());
+		assertNull(ProgressParser.parse("[download] Destination: video.mp4"));
+	}
+
+}
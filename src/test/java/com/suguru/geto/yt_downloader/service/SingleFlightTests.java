@@ -0,0 +1,91 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTests {
+
+	private static final int CALLERS = 8;
+
+	/** Starts CALLERS threads on the same key and waits until all but the runner have joined its flight. */
+	private static <T> List<Future<T>> race(SingleFlight flight, ExecutorService pool, CountDownLatch release,
+			AtomicInteger runs, T result) throws InterruptedException {
+		List<Future<T>> calls = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			calls.add(pool.submit(() -> flight.execute("k", () -> {
+				runs.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (result instanceof RuntimeException e) throw e;
+				return result;
+			})));
+		}
+		for (int i = 0; i < 500 && (Long) flight.stats().get("coalesced") < CALLERS - 1; i++) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		return calls;
+	}
+
+	@Test
+	void concurrentCallersShareOneRun() throws Exception {
+		SingleFlight flight = new SingleFlight();
+		ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			AtomicInteger runs = new AtomicInteger();
+			Object result = new Object();
+			List<Future<Object>> calls = race(flight, pool, release, runs, result);
+			release.countDown();
+			for (Future<Object> call : calls) assertSame(result, call.get(5, TimeUnit.SECONDS));
+
+			assertEquals(1, runs.get());
+			assertEquals(1L, flight.stats().get("executions"));
+			assertEquals((long) CALLERS - 1, flight.stats().get("coalesced"));
+			assertEquals(0, flight.stats().get("inFlight"));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void failuresReachEveryCaller() throws Exception {
+		SingleFlight flight = new SingleFlight();
+		ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			AtomicInteger runs = new AtomicInteger();
+			IllegalStateException failure = new IllegalStateException("upstream said no");
+			List<Future<Object>> calls = race(flight, pool, release, runs, (Object) failure);
+			release.countDown();
+			for (Future<Object> call : calls) {
+				ExecutionException e = assertThrows(ExecutionException.class,
+						() -> call.get(5, TimeUnit.SECONDS));
+				assertSame(failure, e.getCause());
+			}
+			assertEquals(1, runs.get());
+
+			// The failure is not remembered: the next call runs again
+			assertEquals("ok", flight.execute("k", () -> "ok"));
+			assertEquals(2L, flight.stats().get("executions"));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+}
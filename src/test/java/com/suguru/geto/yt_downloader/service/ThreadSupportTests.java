@@ -0,0 +1,57 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThreadSupportTests {
+
+	private static boolean isVirtual(Thread t) throws Exception {
+		// Thread.isVirtual() is Java 21+; older runtimes only have platform threads
+		if (Runtime.version().feature() < 21) return false;
+		return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+	}
+
+	@Test
+	void usesNamedDaemonPlatformThreadsUnlessAsked() throws Exception {
+		ThreadSupport threads = new ThreadSupport(false);
+		assertFalse(threads.isVirtual());
+
+		ThreadFactory factory = threads.factory("ytd-test");
+		Thread first = factory.newThread(() -> { });
+		Thread second = factory.newThread(() -> { });
+		assertEquals("ytd-test-1", first.getName());
+		assertEquals("ytd-test-2", second.getName());
+		assertTrue(first.isDaemon());
+		assertFalse(isVirtual(first));
+
+		CountDownLatch ran = new CountDownLatch(1);
+		Thread t = threads.start("ytd-pump", ran::countDown);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertEquals("ytd-pump", t.getName());
+		assertTrue(t.isDaemon());
+		assertFalse(isVirtual(t));
+	}
+
+	@Test
+	void fallsBackToPlatformThreadsBeforeJava21() throws Exception {
+		ThreadSupport threads = new ThreadSupport(true);
+		boolean available = Runtime.version().feature() >= 21;
+		assertEquals(available, threads.isVirtual());
+
+		Thread t = threads.factory("ytd-test").newThread(() -> { });
+		assertEquals("ytd-test-1", t.getName());
+		assertEquals(available, isVirtual(t));
+		CountDownLatch ran = new CountDownLatch(1);
+		Thread started = threads.start("ytd-pump", ran::countDown);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertEquals("ytd-pump", started.getName());
+		assertEquals(available, isVirtual(started));
+	}
+}
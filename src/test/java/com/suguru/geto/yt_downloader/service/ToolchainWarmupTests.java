@@ -0,0 +1,62 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ToolchainWarmupTests {
+
+	// The offline yt-dlp stand-in the benchmarks put on the PATH
+	private static final Path FAKE_BIN = Paths.get("benchmarks", "bin").toAbsolutePath();
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void locatesTheFirstExecutableOnThePath() throws Exception {
+		Path notExecutable = Files.writeString(dir.resolve("yt-dlp"), "#!/bin/sh\n");
+		String path = String.join(File.pathSeparator, "", dir.toString(), FAKE_BIN.toString());
+
+		assertEquals(FAKE_BIN.resolve("yt-dlp"), ToolchainWarmup.locate("yt-dlp", path));
+		assertTrue(notExecutable.toFile().setExecutable(true));
+		assertEquals(notExecutable, ToolchainWarmup.locate("yt-dlp", path));
+		assertNull(ToolchainWarmup.locate("yt-dlp", dir.resolve("missing").toString()));
+		assertNull(ToolchainWarmup.locate("yt-dlp", null));
+	}
+
+	@Test
+	void probeReportsTheVersionLine() throws Exception {
+		Map<String, Object> ytDlp = ToolchainWarmup.probe(FAKE_BIN.resolve("yt-dlp"), "--version", 5000);
+		assertEquals(FAKE_BIN.resolve("yt-dlp").toString(), ytDlp.get("path"));
+		assertEquals("2025.01.01-fake", ytDlp.get("version"));
+		assertNull(ytDlp.get("error"));
+	}
+
+	@Test
+	void probeReportsWhyAToolIsUnusable() throws Exception {
+		Map<String, Object> missing = ToolchainWarmup.probe(null, "--version", 5000);
+		assertNull(missing.get("version"));
+		assertEquals("not found on PATH", missing.get("error"));
+
+		Path failing = Files.writeString(dir.resolve("ffmpeg"), "#!/bin/sh\nexit 3\n");
+		assertTrue(failing.toFile().setExecutable(true));
+		Map<String, Object> broken = ToolchainWarmup.probe(failing, "-version", 5000);
+		assertNull(broken.get("version"));
+		assertEquals("exit code 3", broken.get("error"));
+
+		Path hanging = Files.writeString(dir.resolve("slow"), "#!/bin/sh\nsleep 30\n");
+		assertTrue(hanging.toFile().setExecutable(true));
+		Map<String, Object> slow = ToolchainWarmup.probe(hanging, "-version", 200);
+		assertEquals("no answer within 200 ms", slow.get("error"));
+	}
+
+}
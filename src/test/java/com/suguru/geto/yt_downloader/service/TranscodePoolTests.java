@@ -0,0 +1,79 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranscodePoolTests {
+
+	private TranscodePool pool;
+
+	@AfterEach
+	void stop() {
+		if (pool != null) pool.shutdown();
+	}
+
+	@Test
+	void turnsAwayTranscodesWhenNoSlotFreesUpInTime() throws Exception {
+		pool = new TranscodePool(new SimpleMeterRegistry(), new ThreadSupport(false), 1, 2, Duration.ofMillis(100));
+		TranscodePool.Slot slot = pool.acquire();
+		long t0 = System.nanoTime();
+		TranscodeBusyException e = assertThrows(TranscodeBusyException.class, () -> pool.acquire());
+		assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(e.getRetryAfterSeconds() >= 1);
+		assertEquals(1L, pool.stats().get("rejected"));
+
+		slot.succeeded();
+		slot.close();
+		pool.acquire().close();
+		assertEquals(1L, pool.stats().get("completed"));
+		assertEquals(1L, pool.stats().get("failed"));
+		assertEquals(0, pool.stats().get("active"));
+	}
+
+	@Test
+	void feedsDownloadedBytesThroughTheEncoder() throws Exception {
+		pool = new TranscodePool(new SimpleMeterRegistry(), new ThreadSupport(false), 1, 2, Duration.ofSeconds(1));
+		// cat stands in for ffmpeg: the pipeline is the same, only the bytes are not re-encoded
+		byte[] audio = new byte[1024 * 1024];
+		new Random(42).nextBytes(audio);
+		Process encoder = new ProcessBuilder("cat").start();
+		byte[] out;
+		try (TranscodePool.Slot slot = pool.acquire()) {
+			Future<Long> fed = slot.feed(new ByteArrayInputStream(audio), encoder.getOutputStream());
+			try (InputStream in = encoder.getInputStream()) {
+				out = in.readAllBytes();
+			}
+			assertEquals(audio.length, fed.get(5, TimeUnit.SECONDS));
+			slot.succeeded();
+		}
+		assertTrue(encoder.waitFor(5, TimeUnit.SECONDS));
+		assertArrayEquals(audio, out);
+		assertEquals(1L, pool.stats().get("completed"));
+	}
+
+	@Test
+	void encoderCommandReadsStdinAndWritesMp3ToStdout() {
+		pool = new TranscodePool(new SimpleMeterRegistry(), new ThreadSupport(false), 1, 12, Duration.ofSeconds(1));
+		String[] cmd = pool.encoderCommand().toArray(new String[0]);
+		assertEquals("ffmpeg", cmd[0]);
+		assertEquals("pipe:0", cmd[Arrays.asList(cmd).indexOf("-i") + 1]);
+		assertEquals("pipe:1", cmd[cmd.length - 1]);
+		// Quality is clamped to LAME's 0-9
+		assertEquals("9", cmd[Arrays.asList(cmd).indexOf("-q:a") + 1]);
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpstreamGuardTests {
+
+	private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+
+	private UpstreamGuard guard(Duration open) {
+		return new UpstreamGuard(new SimpleMeterRegistry(), true, 1000, 100, Duration.ZERO, 3, open, Duration.ofSeconds(10));
+	}
+
+	@SuppressWarnings("unchecked")
+	private String state(UpstreamGuard guard) {
+		Map<String, Object> hosts = (Map<String, Object>) guard.stats().get("hosts");
+		return (String) ((Map<String, Object>) hosts.get("youtube.com")).get("state");
+	}
+
+	@Test
+	void throttlingOpensBreakerAndProbeClosesIt() throws Exception {
+		UpstreamGuard guard = guard(Duration.ofMillis(100));
+		try (UpstreamGuard.Permit p = guard.acquire(URL)) {
+			p.exit(1, "ERROR: [youtube] dQw4w9WgXcQ: Sign in to confirm you're not a bot");
+		}
+		assertEquals("open", state(guard));
+		UpstreamUnavailableException e = assertThrows(UpstreamUnavailableException.class, () -> guard.acquire("https://youtu.be/abc"));
+		assertTrue(e.getRetryAfterSeconds() >= 1);
+
+		Thread.sleep(150);
+		UpstreamGuard.Permit probe = guard.acquire(URL);
+		// Only one probe at a time while half-open
+		assertThrows(UpstreamUnavailableException.class, () -> guard.acquire(URL));
+		probe.exit(0, "");
+		probe.close();
+		assertEquals("closed", state(guard));
+	}
+
+	@Test
+	void networkFailuresOpenAfterThreshold() {
+		UpstreamGuard guard = guard(Duration.ofMinutes(1));
+		for (int i = 0; i < 2; i++) {
+			try (UpstreamGuard.Permit p = guard.acquire(URL)) {
+				p.exit(1, "ERROR: [youtube] dQw4w9WgXcQ: Unable to download webpage: <urlopen error timed out>");
+			}
+		}
+		assertEquals("closed", state(guard));
+		try (UpstreamGuard.Permit p = guard.acquire(URL)) {
+			p.exit(1, "ERROR: Unable to download webpage: <urlopen error [Errno -3] Temporary failure in name resolution>");
+		}
+		assertEquals("open", state(guard));
+	}
+
+	@Test
+	void videoErrorsDoNotCountAgainstUpstream() {
+		UpstreamGuard guard = guard(Duration.ofMinutes(1));
+		for (int i = 0; i < 5; i++) {
+			try (UpstreamGuard.Permit p = guard.acquire(URL)) {
+				p.exit(1, "ERROR: [youtube] dQw4w9WgXcQ: Video unavailable. This video is private");
+			}
+		}
+		assertEquals("closed", state(guard));
+	}
+
+	@Test
+	void rejectsWhenBucketIsEmptyAndWaitIsNotAllowed() {
+		UpstreamGuard guard = new UpstreamGuard(new SimpleMeterRegistry(), true, 0.1, 1, Duration.ZERO, 3,
+				Duration.ofSeconds(30), Duration.ofMinutes(10));
+		guard.acquire(URL).close();
+		assertThrows(UpstreamUnavailableException.class, () -> guard.acquire(URL));
+	}
+
+	@Test
+	void requestThreadsAreNotHeldForATokenEvenWithMaxWait() {
+		UpstreamGuard guard = new UpstreamGuard(new SimpleMeterRegistry(), true, 0.1, 1, Duration.ofSeconds(30), 3,
+				Duration.ofSeconds(30), Duration.ofMinutes(10));
+		guard.acquire(URL).close();
+		long t0 = System.nanoTime();
+		UpstreamUnavailableException e = assertThrows(UpstreamUnavailableException.class, () -> guard.acquire(URL));
+		assertTrue(System.nanoTime() - t0 < Duration.ofSeconds(1).toNanos());
+		assertTrue(e.getRetryAfterSeconds() >= 9);
+	}
+}
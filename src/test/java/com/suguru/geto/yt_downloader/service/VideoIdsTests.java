@@ -0,0 +1,29 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class VideoIdsTests {
+
+	@Test
+	void urlVariantsShareOneId() {
+		String id = "dQw4w9WgXcQ";
+		assertEquals(id, VideoIds.canonicalize("https://www.youtube.com/watch?v=dQw4w9WgXcQ"));
+		assertEquals(id, VideoIds.canonicalize("https://youtube.com/watch?feature=share&v=dQw4w9WgXcQ&t=42s"));
+		assertEquals(id, VideoIds.canonicalize("https://m.youtube.com/watch?v=dQw4w9WgXcQ"));
+		assertEquals(id, VideoIds.canonicalize("https://youtu.be/dQw4w9WgXcQ?si=abc"));
+		assertEquals(id, VideoIds.canonicalize("https://www.youtube.com/shorts/dQw4w9WgXcQ"));
+		assertEquals(id, VideoIds.canonicalize("https://www.youtube-nocookie.com/embed/dQw4w9WgXcQ"));
+		assertEquals(id, VideoIds.canonicalize("  dQw4w9WgXcQ "));
+	}
+
+	@Test
+	void unknownUrlsFallBackToRawKey() {
+		assertNull(VideoIds.canonicalize("https://example.com/watch?v=dQw4w9WgXcQ"));
+		assertNull(VideoIds.canonicalize("https://www.youtube.com/channel/xyz"));
+		assertEquals("https://example.com/a", VideoIds.cacheKey(" https://example.com/a "));
+	}
+
+}
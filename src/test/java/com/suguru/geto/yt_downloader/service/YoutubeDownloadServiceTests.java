@@ -0,0 +1,72 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class YoutubeDownloadServiceTests {
+
+	@Test
+	void picksTheContainerYtDlpWouldMergeInto() {
+		assertEquals("mp4", YoutubeDownloadService.mergeContainer("mp4", "m4a"));
+		assertEquals("mp4", YoutubeDownloadService.mergeContainer("m4v", "mp4"));
+		assertEquals("webm", YoutubeDownloadService.mergeContainer("webm", "webm"));
+		assertEquals("webm", YoutubeDownloadService.mergeContainer("webm", "opus"));
+		assertEquals("mkv", YoutubeDownloadService.mergeContainer("mp4", "webm"));
+		assertEquals("mkv", YoutubeDownloadService.mergeContainer("webm", "m4a"));
+		assertEquals("mkv", YoutubeDownloadService.mergeContainer("", ""));
+	}
+
+	@Test
+	void stripsTheFormatSuffixFromStreamNames() {
+		assertEquals("Title", YoutubeDownloadService.baseName("Title.f137.mp4", "137"));
+		assertEquals("A.b c", YoutubeDownloadService.baseName("A.b c.f248.webm", "248"));
+		// Another format's suffix is part of the title
+		assertEquals("Title.f140", YoutubeDownloadService.baseName("Title.f140.mp4", "137"));
+		assertEquals("Title", YoutubeDownloadService.baseName("Title", "137"));
+	}
+
+	private static ProgressEvent downloading(long bytes, Long total, double speed, long eta) {
+		ProgressEvent e = new ProgressEvent(ProgressEvent.PHASE_DOWNLOAD, "downloading");
+		e.setDownloadedBytes(bytes);
+		e.setTotalBytes(total);
+		e.setSpeed(speed);
+		e.setEta(eta);
+		return e;
+	}
+
+	@Test
+	void reportsBothStreamsAsOneDownload() {
+		List<ProgressEvent> events = new ArrayList<>();
+		YoutubeDownloadService.MergedProgress merged = new YoutubeDownloadService.MergedProgress("137+140", events::add);
+		merged.stream(0).onProgress(downloading(100, 1000L, 50, 18));
+		// No total until the audio has reported one
+		assertNull(events.get(0).getTotalBytes());
+
+		merged.stream(1).onProgress(downloading(40, 200L, 20, 8));
+		ProgressEvent both = events.get(1);
+		assertEquals("137+140", both.getFormatId());
+		assertEquals(140L, both.getDownloadedBytes());
+		assertEquals(1200L, both.getTotalBytes());
+		assertEquals(70.0, both.getSpeed());
+		assertEquals(18L, both.getEta());
+		assertEquals("downloading", both.getStatus());
+
+		ProgressEvent audioDone = downloading(200, 200L, 0, 0);
+		audioDone.setStatus("finished");
+		merged.stream(1).onProgress(audioDone);
+		assertEquals("downloading", events.get(2).getStatus());
+		assertEquals(300L, events.get(2).getDownloadedBytes());
+
+		ProgressEvent postprocess = new ProgressEvent(ProgressEvent.PHASE_POSTPROCESS, "started");
+		merged.stream(0).onProgress(postprocess);
+		assertEquals(postprocess, events.get(3));
+	}
+
+}
@@ -0,0 +1,145 @@
+package com.suguru.geto.yt_downloader.service;
+
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class YtDlpMetricsTests {
+
+	/** Records observation lifecycle calls as "event name". */
+	private static class Recorder implements ObservationHandler<Observation.Context> {
+		final List<String> events = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void onStart(Observation.Context context) {
+			events.add("start " + context.getContextualName());
+		}
+
+		@Override
+		public void onScopeOpened(Observation.Context context) {
+			events.add("open " + context.getContextualName());
+		}
+
+		@Override
+		public void onScopeClosed(Observation.Context context) {
+			events.add("close " + context.getContextualName());
+		}
+
+		@Override
+		public void onStop(Observation.Context context) {
+			events.add("stop " + context.getContextualName());
+		}
+
+		@Override
+		public boolean supportsContext(Observation.Context context) {
+			return true;
+		}
+	}
+
+	private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+	private final ObservationRegistry observations = ObservationRegistry.create();
+	private final Recorder recorder = new Recorder();
+	private final YtDlpMetrics metrics;
+
+	YtDlpMetricsTests() {
+		observations.observationConfig()
+				.observationHandler(recorder)
+				.observationHandler(new DefaultMeterObservationHandler(meters));
+		metrics = new YtDlpMetrics(meters, observations);
+	}
+
+	private double active() {
+		return meters.get("ytdlp.processes.active").gauge().value();
+	}
+
+	private static ProgressEvent event(String phase, String status, Long downloaded, Long total) {
+		ProgressEvent event = new ProgressEvent(phase, status);
+		event.setDownloadedBytes(downloaded);
+		event.setTotalBytes(total);
+		return event;
+	}
+
+	@Test
+	void countsFailuresByExitCode() {
+		try (YtDlpMetrics.Invocation run = metrics.begin("download")) {
+			assertEquals(1.0, active());
+			run.exit(1);
+		}
+		try (YtDlpMetrics.Invocation run = metrics.begin("download")) {
+			run.exit(0);
+		}
+		try (YtDlpMetrics.Invocation run = metrics.begin("download")) {
+			run.error(new IllegalStateException("did not start"));
+		}
+
+		assertEquals(1.0, meters.get("ytdlp.process.failures").tags("operation", "download", "exit", "1").counter().count());
+		assertEquals(1.0, meters.get("ytdlp.process.failures").tags("operation", "download", "exit", "none").counter().count());
+		assertNull(meters.find("ytdlp.process.failures").tag("exit", "0").counter());
+		assertEquals(1, meters.get("ytdlp.process").tags("outcome", "success", "runner", "process").timer().count());
+		assertEquals(2, meters.get("ytdlp.process").tags("outcome", "failure").timers().stream()
+				.mapToLong(t -> t.count()).sum());
+		assertEquals(0.0, active());
+	}
+
+	@Test
+	void countsFinishedDownloadsAndTimesPostprocessing() {
+		YtDlpMetrics.Invocation run = metrics.begin("downloadVideo");
+		run.pooled();
+		run.progress(event(ProgressEvent.PHASE_DOWNLOAD, "downloading", 40L, 100L));
+		run.progress(event(ProgressEvent.PHASE_DOWNLOAD, "finished", 100L, 100L));
+		run.progress(event(ProgressEvent.PHASE_DOWNLOAD, "finished", null, 50L));
+		run.progress(event(ProgressEvent.PHASE_MERGE, "started", null, null));
+		run.progress(event(ProgressEvent.PHASE_MERGE, "finished", null, null));
+		// A phase still running when the process exits is stopped with it
+		run.progress(event(ProgressEvent.PHASE_EXTRACT_AUDIO, "started", null, null));
+		assertEquals(150, run.getBytes());
+		run.exit(0);
+		run.close();
+		run.close();
+
+		assertEquals(150.0, meters.get("ytdlp.bytes.downloaded").tag("operation", "downloadVideo").counter().count());
+		assertEquals(1, meters.get("ytdlp.postprocess").tag("phase", "merge").timer().count());
+		assertEquals(1, meters.get("ytdlp.postprocess").tag("phase", "extract-audio").timer().count());
+		assertEquals(1, meters.get("ytdlp.process").tags("runner", "worker", "exit", "0").timer().count());
+		assertEquals(List.of(
+				"start yt-dlp downloadVideo", "open yt-dlp downloadVideo",
+				"start yt-dlp merge", "stop yt-dlp merge",
+				"start yt-dlp extract-audio", "stop yt-dlp extract-audio",
+				"close yt-dlp downloadVideo", "stop yt-dlp downloadVideo"), recorder.events);
+		assertEquals(0.0, active());
+	}
+
+	@Test
+	void nestsTheEncoderRunInsideTheDownload() {
+		// As in the one-pass MP3 pipeline: the encoder is a child of the download run
+		Observation encodeObservation;
+		try (YtDlpMetrics.Invocation run = metrics.begin("streamAudioMp3");
+			 YtDlpMetrics.Invocation encode = metrics.begin("encodeMp3")) {
+			assertEquals(2.0, active());
+			encodeObservation = observations.getCurrentObservation();
+			run.exit(0);
+			encode.exit(0);
+		}
+
+		assertEquals("yt-dlp streamAudioMp3", encodeObservation.getContextView().getParentObservation()
+				.getContextView().getContextualName());
+		assertNull(observations.getCurrentObservation());
+		assertEquals(List.of(
+				"start yt-dlp streamAudioMp3", "open yt-dlp streamAudioMp3",
+				"start yt-dlp encodeMp3", "open yt-dlp encodeMp3",
+				"close yt-dlp encodeMp3", "stop yt-dlp encodeMp3",
+				"close yt-dlp streamAudioMp3", "stop yt-dlp streamAudioMp3"), recorder.events);
+		assertEquals(0.0, active());
+	}
+}
@@ -0,0 +1,149 @@
+package com.suguru.geto.yt_downloader.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.suguru.geto.yt_downloader.model.ProgressEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class YtDlpWorkerPoolTests {
+
+	@TempDir
+	Path dir;
+
+	private ProcessSupervisor supervisor;
+	private YtDlpWorkerPool pool;
+
+	@BeforeEach
+	void setUp() {
+		supervisor = new ProcessSupervisor(Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(1),
+				Duration.ofSeconds(5), dir.toString());
+	}
+
+	@AfterEach
+	void stop() {
+		if (pool != null) pool.shutdown();
+		supervisor.shutdown();
+	}
+
+	/** Stands in for python3 running worker.py: reports ready after a delay and answers every request with success. */
+	private String fakeInterpreter(double readyDelaySeconds) throws Exception {
+		Path script = dir.resolve("fake-python");
+		Files.writeString(script, "#!/bin/sh\n"
+				+ "sleep " + readyDelaySeconds + "\n"
+				+ "echo '{\"ready\":true}'\n"
+				+ "while read -r line; do\n"
+				+ "  id=$(echo \"$line\" | sed 's/.*\"id\":\\([0-9]*\\).*/\\1/')\n"
+				+ "  echo \"{\\\"id\\\":$id,\\\"ok\\\":true,\\\"exit\\\":0,\\\"length\\\":0}\"\n"
+				+ "done\n");
+		assertTrue(script.toFile().setExecutable(true));
+		return script.toString();
+	}
+
+	@Test
+	void prestartsWorkersUpToThePoolSize() throws Exception {
+		pool = new YtDlpWorkerPool(supervisor, true, 2, 200, false, fakeInterpreter(0), 1000);
+		assertEquals(2, pool.prestart());
+		assertEquals(2, pool.stats().get("idle"));
+		assertEquals(0, pool.prestart());
+
+		assertEquals(0, pool.run(List.of("https://youtu.be/dQw4w9WgXcQ")).exitCode);
+		assertEquals(2L, pool.stats().get("live"));
+	}
+
+	@Test
+	void requestsAreServedWhilePrestartIsStillStartingWorkers() throws Exception {
+		pool = new YtDlpWorkerPool(supervisor, true, 2, 200, false, fakeInterpreter(1), 300);
+		CompletableFuture<Integer> prestarted = CompletableFuture.supplyAsync(pool::prestart);
+		TimeUnit.MILLISECONDS.sleep(200);
+
+		// Prestart holds one slot while a worker imports, not all of them
+		assertEquals(0, pool.run(List.of("https://youtu.be/dQw4w9WgXcQ")).exitCode);
+		assertTrue(prestarted.get(10, TimeUnit.SECONDS) >= 1);
+		assertTrue((Long) pool.stats().get("live") <= 2);
+	}
+
+	@Test
+	void prestartDoesNothingWhenDisabled() throws Exception {
+		pool = new YtDlpWorkerPool(supervisor, false, 2, 200, false, fakeInterpreter(0), 1000);
+		assertEquals(0, pool.prestart());
+		assertFalse(pool.isEnabled());
+	}
+
+	/** python3 with a stand-in yt_dlp module that reports a download, a merge and one output file. */
+	private String stubbedYtDlp() throws Exception {
+		Path module = Files.createDirectories(dir.resolve("stub/yt_dlp"));
+		Files.writeString(module.resolve("version.py"), "__version__ = 'stub'\n");
+		Files.writeString(module.resolve("__init__.py"), String.join("\n",
+				"from . import version",
+				"class _Parsed:",
+				"    def __init__(self, args):",
+				"        self.ydl_opts = {}",
+				"        self.urls = [a for a in args if a.startswith('http')]",
+				"def parse_options(args):",
+				"    return _Parsed(args)",
+				"class YoutubeDL:",
+				"    def __init__(self, opts):",
+				"        self.post, self.progress, self.pp = [], [], []",
+				"    def __enter__(self):",
+				"        return self",
+				"    def __exit__(self, *exc):",
+				"        return False",
+				"    def add_post_hook(self, f):",
+				"        self.post.append(f)",
+				"    def add_progress_hook(self, f):",
+				"        self.progress.append(f)",
+				"    def add_postprocessor_hook(self, f):",
+				"        self.pp.append(f)",
+				"    def download(self, urls):",
+				"        for done in (512, 1024):",
+				"            for f in self.progress:",
+				"                f({'status': 'downloading' if done < 1024 else 'finished', 'downloaded_bytes': done,",
+				"                   'total_bytes': 1024, 'speed': 2048.0, 'eta': 0, 'info_dict': {'format_id': '18'}})",
+				"        for f in self.pp:",
+				"            f({'status': 'started', 'postprocessor': 'Merger'})",
+				"        for f in self.post:",
+				"            f('/tmp/out.mp4')",
+				"        return 0",
+				""));
+		Path python = dir.resolve("stub-python");
+		Files.writeString(python, "#!/bin/sh\nPYTHONPATH='" + dir.resolve("stub") + "' exec python3 \"$@\"\n");
+		assertTrue(python.toFile().setExecutable(true));
+		return python.toString();
+	}
+
+	@Test
+	void relaysDownloadProgressFromTheWorker() throws Exception {
+		pool = new YtDlpWorkerPool(supervisor, true, 1, 200, true, stubbedYtDlp(), 1000);
+		List<ProgressEvent> events = new ArrayList<>();
+		YtDlpWorkerPool.RunResult r = pool.run(List.of("-f", "18", "https://youtu.be/dQw4w9WgXcQ"), events::add);
+
+		assertEquals(0, r.exitCode);
+		assertEquals(List.of("/tmp/out.mp4"), r.files);
+		assertEquals(3, events.size());
+		assertEquals(ProgressEvent.PHASE_DOWNLOAD, events.get(0).getPhase());
+		assertEquals(512L, events.get(0).getDownloadedBytes());
+		assertEquals(1024L, events.get(1).getTotalBytes());
+		assertEquals("finished", events.get(1).getStatus());
+		assertEquals("18", events.get(1).getFormatId());
+		assertEquals(ProgressEvent.PHASE_MERGE, events.get(2).getPhase());
+
+		// The worker is still in step for the next request
+		assertEquals(0, pool.run(List.of("https://youtu.be/dQw4w9WgXcQ")).exitCode);
+		assertEquals(1L, pool.stats().get("started"));
+	}
+
+}